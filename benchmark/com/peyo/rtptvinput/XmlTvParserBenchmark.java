@@ -0,0 +1,60 @@
+package com.peyo.rtptvinput;
+
+import com.peyo.rtptvinput.XmlTvParser.TvListing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from an XMLTV document in memory to a {@link TvListing}, for the whole guide and for the
+ * window of a sync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class XmlTvParserBenchmark {
+    private static final long START_MS = 1500000000000L;
+
+    @Param({"500"})
+    public int channels;
+
+    @Param({"7"})
+    public int days;
+
+    private byte[] mGuide;
+
+    @Setup
+    public void setUp() {
+        mGuide = new XmlTvGenerator().generate(channels, days, START_MS, 1);
+    }
+
+    @Benchmark
+    public TvListing parse() throws XmlTvParser.XmlTvParseException {
+        return XmlTvParser.parse(new ByteArrayInputStream(mGuide));
+    }
+
+    /**
+     * Parses the programs of the first day only, as a sync does with the programs which are
+     * already over.
+     */
+    @Benchmark
+    public TvListing parseOneDay() throws XmlTvParser.XmlTvParseException {
+        return XmlTvParser.parse(new ByteArrayInputStream(mGuide), START_MS,
+                START_MS + TimeUnit.DAYS.toMillis(1));
+    }
+}
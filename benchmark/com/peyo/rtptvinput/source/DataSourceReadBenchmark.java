@@ -0,0 +1,160 @@
+package com.peyo.rtptvinput.source;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RtpStreamer.RtpDataSource#read} while other readers read the same stream and
+ * the ingest thread writes it at a steady bitrate.
+ * </p>
+ * The readers read the data which is already buffered, from the middle of the buffer to the
+ * newest data and over again, so that they never wait for the writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataSourceReadBenchmark {
+    private static final int BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int BITRATE = 20 * 1000 * 1000;
+    private static final int BATCH = 32;
+    private static final long TIMEOUT_MS = 1000;
+
+    /** Readers of the stream, the measured one included. */
+    @Param({"1", "3", "8"})
+    public int readers;
+
+    /** Bytes asked for by each read. */
+    @Param({"1316", "65536"})
+    public int readLength;
+
+    private RtpStreamer mStreamer;
+    private LoopbackSender mSender;
+    private Thread mFeeder;
+    private final List<Thread> mReaders = new ArrayList<>();
+    private volatile boolean mRunning;
+    private Reader mReader;
+
+    /**
+     * Reads a data source of the streamer from the middle of the buffer to the newest data,
+     * and then again from the middle.
+     */
+    private class Reader {
+        private final byte[] mBuffer = new byte[readLength];
+        private TsDataSource mSource;
+
+        int read() throws IOException {
+            if (mSource == null || mSource.getBufferedPosition() - mSource.getLastReadPosition()
+                    < readLength) {
+                open();
+            }
+            return mSource.read(mBuffer, 0, readLength);
+        }
+
+        private void open() throws IOException {
+            if (mSource != null) {
+                mSource.close();
+            }
+            long position = mStreamer.getBufferedPosition() - BUFFER_SIZE / 2;
+            mSource = mStreamer.createDataSource(position);
+            mSource.open(new DataSpec(mSource.getUri()));
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        int port = LoopbackSender.findFreePort();
+        mStreamer = new RtpStreamer(Uri.parse(LoopbackSender.getUri(RtpStreamer.SCHEME_RTP, port,
+                RtpStreamer.PARAM_BUFFER_SIZE + "=" + BUFFER_SIZE)));
+        mStreamer.startStream();
+        mSender = new LoopbackSender(port);
+        final TsStreamGenerator generator = new TsStreamGenerator(1);
+        mSender.sendFirst(mStreamer, generator.nextDatagram(true));
+        // Fills the buffer, in batches which the socket does not drop.
+        int sent = 1;
+        while (mStreamer.getBufferedPosition() < BUFFER_SIZE) {
+            for (int i = 0; i < BATCH; i++) {
+                mSender.send(generator.nextDatagram(true));
+            }
+            sent += BATCH;
+            if (!LoopbackSender.awaitPacketsReceived(mStreamer, sent, TIMEOUT_MS)) {
+                throw new IOException("Stream is not received");
+            }
+        }
+        mRunning = true;
+        mFeeder = new Thread("Feeder") {
+            @Override
+            public void run() {
+                long intervalNs = TimeUnit.SECONDS.toNanos(1) * BATCH * TsStreamGenerator.PACKET_SIZE
+                        * TsStreamGenerator.PACKETS_PER_DATAGRAM * 8 / BITRATE;
+                try {
+                    while (mRunning) {
+                        for (int i = 0; i < BATCH; i++) {
+                            mSender.send(generator.nextDatagram(true));
+                        }
+                        TimeUnit.NANOSECONDS.sleep(intervalNs);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        mFeeder.start();
+        for (int i = 1; i < readers; i++) {
+            final Reader reader = new Reader();
+            Thread thread = new Thread("Reader " + i) {
+                @Override
+                public void run() {
+                    try {
+                        while (mRunning) {
+                            reader.read();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            thread.start();
+            mReaders.add(thread);
+        }
+        mReader = new Reader();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mRunning = false;
+        mFeeder.join();
+        for (Thread thread : mReaders) {
+            thread.join();
+        }
+        mSender.close();
+        mStreamer.stopStream();
+        System.out.println(mStreamer.getMetrics());
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        return mReader.read();
+    }
+}
@@ -0,0 +1,111 @@
+package com.peyo.rtptvinput.source;
+
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a datagram through the ingest thread of {@link RtpStreamer}: the receive, the
+ * transport, the optional PID filter, the publication and the sinks. Datagrams are sent over the
+ * loopback interface in batches, each one waited for before the next, so the socket never drops.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+    private static final int BATCH = 32;
+    private static final int PROGRAM_COUNT = 4;
+    // Ten seconds of the stream, sent over and over with new sequence numbers.
+    private static final int DATAGRAM_COUNT = 10 * TsStreamGenerator.FRAMES_PER_SECOND
+            * PROGRAM_COUNT * TsStreamGenerator.PACKETS_PER_FRAME
+            / TsStreamGenerator.PACKETS_PER_DATAGRAM;
+    private static final long TIMEOUT_NS = TimeUnit.SECONDS.toNanos(1);
+
+    /** {@code rtp} or {@code udp}. */
+    @Param({"rtp", "udp"})
+    public String transport;
+
+    /** Program to keep with the PID filter, or 0 for the whole stream. */
+    @Param({"0", "1"})
+    public int program;
+
+    private RtpStreamer mStreamer;
+    private LoopbackSender mSender;
+    private byte[][] mDatagrams;
+    private int mNext;
+    private int mSequence;
+    private long mSent;
+    private long mTimeouts;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        int port = LoopbackSender.findFreePort();
+        mStreamer = new RtpStreamer(Uri.parse(LoopbackSender.getUri(transport, port,
+                program > 0 ? RtpStreamer.PARAM_PROGRAM + "=" + program : "")));
+        mStreamer.startStream();
+        mSender = new LoopbackSender(port);
+        TsStreamGenerator generator = new TsStreamGenerator(PROGRAM_COUNT);
+        boolean rtp = RtpStreamer.SCHEME_RTP.equals(transport);
+        mDatagrams = new byte[DATAGRAM_COUNT][];
+        for (int i = 0; i < DATAGRAM_COUNT; i++) {
+            mDatagrams[i] = generator.nextDatagram(rtp);
+        }
+        mSender.sendFirst(mStreamer, mDatagrams[0]);
+        mSent = mStreamer.getMetrics().getPacketsReceived();
+        mNext = 1;
+        mSequence = 1;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mSender.close();
+        mStreamer.stopStream();
+        if (mTimeouts > 0) {
+            System.out.println(mTimeouts + " batches were not received in time");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void ingest() throws IOException {
+        boolean rtp = RtpStreamer.SCHEME_RTP.equals(transport);
+        for (int i = 0; i < BATCH; i++) {
+            byte[] datagram = mDatagrams[mNext];
+            if (rtp) {
+                datagram[2] = (byte) (mSequence >> 8);
+                datagram[3] = (byte) mSequence;
+                mSequence = (mSequence + 1) & 0xffff;
+            }
+            mSender.send(datagram);
+            mNext = (mNext + 1) % mDatagrams.length;
+        }
+        mSent += BATCH;
+        long deadline = System.nanoTime() + TIMEOUT_NS;
+        while (mStreamer.getMetrics().getPacketsReceived() < mSent) {
+            if (System.nanoTime() > deadline) {
+                mTimeouts++;
+                mSent = mStreamer.getMetrics().getPacketsReceived();
+                return;
+            }
+            Thread.yield();
+        }
+    }
+}
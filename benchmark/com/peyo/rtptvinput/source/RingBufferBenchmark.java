@@ -0,0 +1,98 @@
+package com.peyo.rtptvinput.source;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of appending and publishing a datagram of TS packets to a {@link RingBuffer} while
+ * readers follow the newest data, without the socket in front of it.
+ * </p>
+ * The readers read each datagram as it is published, so they park and get woken up whenever
+ * they catch up with the writer. A reader which is lapped starts again from the oldest data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RingBufferBenchmark {
+    private static final int CAPACITY = 16 * 1024 * 1024;
+    private static final int DATAGRAM_SIZE = TsStreamGenerator.PACKET_SIZE
+            * TsStreamGenerator.PACKETS_PER_DATAGRAM;
+
+    /** Readers following the writer. */
+    @Param({"0", "1", "3", "8"})
+    public int readers;
+
+    @Param({"" + RingBuffer.STORAGE_HEAP, "" + RingBuffer.STORAGE_DIRECT})
+    public int storage;
+
+    private RingBuffer mRing;
+    private final byte[] mDatagram = new byte[DATAGRAM_SIZE];
+    private final List<Thread> mReaders = new ArrayList<>();
+    private long mLappedCount;
+
+    @Setup
+    public void setUp() throws Exception {
+        mRing = new RingBuffer(RingBuffer.allocate(storage, CAPACITY), DATAGRAM_SIZE);
+        new TsStreamGenerator(1).nextPackets(mDatagram, 0, mDatagram.length);
+        for (int i = 0; i < readers; i++) {
+            Thread thread = new Thread("Reader " + i) {
+                @Override
+                public void run() {
+                    RingBuffer.Reader reader = mRing.createReader();
+                    byte[] buffer = new byte[DATAGRAM_SIZE];
+                    long position = 0;
+                    while (true) {
+                        if (reader.readAt(position, buffer, 0, buffer.length) >= 0) {
+                            position += buffer.length;
+                        } else if (mRing.isOverwritten(position)) {
+                            position = mRing.getStartPosition();
+                            synchronized (RingBufferBenchmark.this) {
+                                mLappedCount++;
+                            }
+                        } else {
+                            return;
+                        }
+                    }
+                }
+            };
+            thread.start();
+            mReaders.add(thread);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mRing.close();
+        for (Thread thread : mReaders) {
+            thread.join();
+        }
+        synchronized (this) {
+            System.out.println("wakeups=" + mRing.getReaderWakeupCount()
+                    + " lapped=" + mLappedCount);
+        }
+    }
+
+    @Benchmark
+    public long write() {
+        mRing.write(mDatagram, 0, mDatagram.length);
+        mRing.publish();
+        return mRing.getWritePosition();
+    }
+}
@@ -0,0 +1,117 @@
+package com.peyo.rtptvinput.source;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap used by the rings of three tuners for each storage, and what it costs the garbage
+ * collector while the rest of the app allocates, on a heap the size of a set-top box's.
+ * </p>
+ * Each operation appends a datagram to every ring and allocates a short-lived sample buffer of
+ * the same size, as the player does for the data it reads. The heap in use after a full
+ * collection and the collections of each iteration are printed; run with {@code -prof gc} for
+ * the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx192m", "-XX:+UseSerialGC"})
+public class RingStorageBenchmark {
+    private static final int TUNERS = 3;
+    private static final int CAPACITY = 32 * 1024 * 1024;
+    private static final int DATAGRAM_SIZE = TsStreamGenerator.PACKET_SIZE
+            * TsStreamGenerator.PACKETS_PER_DATAGRAM;
+    // Samples the player still holds, so that some of them survive a young collection.
+    private static final int LIVE_SAMPLES = 4096;
+
+    @Param({"" + RingBuffer.STORAGE_HEAP, "" + RingBuffer.STORAGE_DIRECT,
+            "" + RingBuffer.STORAGE_MAPPED_FILE})
+    public int storage;
+
+    private final RingBuffer[] mRings = new RingBuffer[TUNERS];
+    private final byte[] mDatagram = new byte[DATAGRAM_SIZE];
+    private final byte[][] mSamples = new byte[LIVE_SAMPLES][];
+    private int mNextSample;
+    private long mCollections;
+    private long mCollectionMs;
+
+    @Setup
+    public void setUp() throws Exception {
+        long heapBefore = getHeapUsed();
+        for (int i = 0; i < TUNERS; i++) {
+            mRings[i] = new RingBuffer(RingBuffer.allocate(storage, CAPACITY), DATAGRAM_SIZE);
+        }
+        new TsStreamGenerator(1).nextPackets(mDatagram, 0, mDatagram.length);
+        System.out.println("heap used by the rings: "
+                + (getHeapUsed() - heapBefore) / (1024 * 1024) + " MB");
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        mCollections = getCollections();
+        mCollectionMs = getCollectionMs();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        System.out.println("collections=" + (getCollections() - mCollections)
+                + " collectionMs=" + (getCollectionMs() - mCollectionMs));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (RingBuffer ring : mRings) {
+            ring.close();
+        }
+    }
+
+    private static long getHeapUsed() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long getCollections() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += bean.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static long getCollectionMs() {
+        long timeMs = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            timeMs += bean.getCollectionTime();
+        }
+        return timeMs;
+    }
+
+    @Benchmark
+    public byte[] ingest() {
+        for (RingBuffer ring : mRings) {
+            ring.write(mDatagram, 0, mDatagram.length);
+            ring.publish();
+        }
+        byte[] sample = new byte[DATAGRAM_SIZE];
+        mSamples[mNextSample] = sample;
+        mNextSample = (mNextSample + 1) % LIVE_SAMPLES;
+        return sample;
+    }
+}
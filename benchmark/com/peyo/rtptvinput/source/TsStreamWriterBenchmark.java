@@ -0,0 +1,88 @@
+package com.peyo.rtptvinput.source;
+
+import com.peyo.rtptvinput.RtpTvInputSetupActivity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link TsStreamWriter#writeToFile(ByteBuffer)} for the caller, which is the ingest
+ * thread when recording, with a new recording for each iteration in a temporary directory.
+ * The data which the storage could not keep up with is reported at the end of each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TsStreamWriterBenchmark {
+    private static final int DATA_SIZE = 4 * 1024 * 1024;
+
+    /** Bytes handed to each write: a datagram, or a batch of the ingest thread. */
+    @Param({"1316", "42112"})
+    public int writeLength;
+
+    private File mDirectory;
+    private byte[] mData;
+    private int mOffset;
+    private TsStreamWriter mWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("writer").toFile();
+        System.setProperty("external.storage", mDirectory.getPath());
+        if (!new File(mDirectory.getPath() + RtpTvInputSetupActivity.DVR_DIR).mkdirs()) {
+            throw new IOException("Cannot create " + RtpTvInputSetupActivity.DVR_DIR);
+        }
+        mData = new byte[DATA_SIZE / writeLength * writeLength];
+        new TsStreamGenerator(1).nextPackets(mData, 0, mData.length);
+    }
+
+    @Setup(Level.Iteration)
+    public void openFile() {
+        mWriter = new TsStreamWriter();
+        mWriter.setChannelName("benchmark");
+        mWriter.setFsyncPolicy(TsStreamWriter.FSYNC_NEVER, 0);
+        mWriter.openFile();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFile() {
+        mWriter.closeFile();
+        System.out.println(mWriter.getWriteStats());
+        File file = new File(mWriter.getFileUri().getPath());
+        file.delete();
+        TsIndex.getIndexFile(file).delete();
+    }
+
+    @TearDown
+    public void tearDown() {
+        new File(mDirectory.getPath() + RtpTvInputSetupActivity.DVR_DIR).delete();
+        new File(mDirectory, "Movies").delete();
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void writeToFile() {
+        mWriter.writeToFile(ByteBuffer.wrap(mData, mOffset, writeLength));
+        mOffset = (mOffset + writeLength) % mData.length;
+    }
+}
@@ -0,0 +1,12 @@
+package android.graphics;
+
+public class Color {
+    public static int parseColor(String colorString) {
+        if (colorString.length() == 7 && colorString.charAt(0) == '#') {
+            return (int) (0xff000000L | Long.parseLong(colorString.substring(1), 16));
+        } else if (colorString.length() == 9 && colorString.charAt(0) == '#') {
+            return (int) Long.parseLong(colorString.substring(1), 16);
+        }
+        throw new IllegalArgumentException("Unknown color");
+    }
+}
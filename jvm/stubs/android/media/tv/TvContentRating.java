@@ -0,0 +1,17 @@
+package android.media.tv;
+
+public final class TvContentRating {
+    private final String mRating;
+
+    private TvContentRating(String rating) {
+        mRating = rating;
+    }
+
+    public static TvContentRating unflattenFromString(String ratingString) {
+        return new TvContentRating(ratingString);
+    }
+
+    public String flattenToString() {
+        return mRating;
+    }
+}
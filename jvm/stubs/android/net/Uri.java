@@ -0,0 +1,62 @@
+package android.net;
+
+import java.net.URI;
+
+public class Uri {
+    private final String mString;
+    private final URI mUri;
+
+    private Uri(String string) {
+        mString = string;
+        mUri = URI.create(string);
+    }
+
+    public static Uri parse(String string) {
+        return new Uri(string);
+    }
+
+    public String getScheme() {
+        return mUri.getScheme();
+    }
+
+    public String getHost() {
+        return mUri.getHost();
+    }
+
+    public int getPort() {
+        return mUri.getPort();
+    }
+
+    public String getPath() {
+        return mUri.getPath();
+    }
+
+    public String getQueryParameter(String key) {
+        String query = mUri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            String[] keyValue = parameter.split("=", 2);
+            if (keyValue[0].equals(key)) {
+                return keyValue.length > 1 ? keyValue[1] : "";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && mString.equals(((Uri) o).mString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mString;
+    }
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+import java.io.File;
+
+public class Environment {
+    /**
+     * Returns the directory of the {@code external.storage} system property, or the temporary
+     * directory.
+     */
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("external.storage",
+                System.getProperty("java.io.tmpdir")));
+    }
+}
@@ -0,0 +1,13 @@
+package android.util;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Hands out the same parser as the platform, which is KXmlParser.
+ */
+public class Xml {
+    public static XmlPullParser newPullParser() {
+        return new KXmlParser();
+    }
+}
@@ -0,0 +1,8 @@
+package com.google.android.exoplayer2;
+
+public final class C {
+    public static final long TIME_UNSET = Long.MIN_VALUE + 1;
+    public static final long POSITION_UNSET = -1;
+    public static final int LENGTH_UNSET = -1;
+    public static final int RESULT_END_OF_INPUT = -1;
+}
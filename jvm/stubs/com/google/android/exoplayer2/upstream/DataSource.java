@@ -0,0 +1,19 @@
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+
+import java.io.IOException;
+
+public interface DataSource {
+    interface Factory {
+        DataSource createDataSource();
+    }
+
+    long open(DataSpec dataSpec) throws IOException;
+
+    int read(byte[] buffer, int offset, int readLength) throws IOException;
+
+    Uri getUri();
+
+    void close() throws IOException;
+}
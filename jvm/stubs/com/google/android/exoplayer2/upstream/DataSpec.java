@@ -0,0 +1,31 @@
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+
+public final class DataSpec {
+    public final Uri uri;
+    public final long absoluteStreamPosition;
+    public final long position;
+    public final long length;
+    public final String key;
+    public final int flags;
+
+    public DataSpec(Uri uri) {
+        this(uri, 0, C.LENGTH_UNSET, null, 0);
+    }
+
+    public DataSpec(Uri uri, long absoluteStreamPosition, long length, String key) {
+        this(uri, absoluteStreamPosition, length, key, 0);
+    }
+
+    public DataSpec(Uri uri, long absoluteStreamPosition, long length, String key, int flags) {
+        this.uri = uri;
+        this.absoluteStreamPosition = absoluteStreamPosition;
+        this.position = absoluteStreamPosition;
+        this.length = length;
+        this.key = key;
+        this.flags = flags;
+    }
+}
@@ -0,0 +1,51 @@
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public final class FileDataSource implements DataSource {
+    private RandomAccessFile mFile;
+    private Uri mUri;
+
+    public FileDataSource(Object listener) {
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        mFile = new RandomAccessFile(dataSpec.uri.getPath(), "r");
+        mFile.seek(dataSpec.position);
+        return dataSpec.length == C.LENGTH_UNSET ? mFile.length() - dataSpec.position
+                : dataSpec.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        }
+        int read = mFile.read(buffer, offset, readLength);
+        return read < 0 ? C.RESULT_END_OF_INPUT : read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return mUri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mUri = null;
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } finally {
+                mFile = null;
+            }
+        }
+    }
+}
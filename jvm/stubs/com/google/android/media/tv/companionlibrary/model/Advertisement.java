@@ -0,0 +1,65 @@
+package com.google.android.media.tv.companionlibrary.model;
+
+public class Advertisement {
+    public static final int TYPE_VAST = 0;
+
+    private long mStartTimeUtcMillis;
+    private long mStopTimeUtcMillis;
+    private int mType;
+    private String mRequestUrl;
+
+    public long getStartTimeUtcMillis() {
+        return mStartTimeUtcMillis;
+    }
+
+    public long getStopTimeUtcMillis() {
+        return mStopTimeUtcMillis;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public String getRequestUrl() {
+        return mRequestUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "{start=" + mStartTimeUtcMillis + ",stop=" + mStopTimeUtcMillis + ",type=" + mType
+                + ",url=" + mRequestUrl + "}";
+    }
+
+    public static final class Builder {
+        private final Advertisement mAd = new Advertisement();
+
+        public Builder setStartTimeUtcMillis(long startTimeUtcMillis) {
+            mAd.mStartTimeUtcMillis = startTimeUtcMillis;
+            return this;
+        }
+
+        public Builder setStopTimeUtcMillis(long stopTimeUtcMillis) {
+            mAd.mStopTimeUtcMillis = stopTimeUtcMillis;
+            return this;
+        }
+
+        public Builder setType(int type) {
+            mAd.mType = type;
+            return this;
+        }
+
+        public Builder setRequestUrl(String requestUrl) {
+            mAd.mRequestUrl = requestUrl;
+            return this;
+        }
+
+        public Advertisement build() {
+            Advertisement ad = new Advertisement();
+            ad.mStartTimeUtcMillis = mAd.mStartTimeUtcMillis;
+            ad.mStopTimeUtcMillis = mAd.mStopTimeUtcMillis;
+            ad.mType = mAd.mType;
+            ad.mRequestUrl = mAd.mRequestUrl;
+            return ad;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.google.android.media.tv.companionlibrary.model;
+
+public final class Channel {
+    private long mId = -1;
+    private String mDisplayName;
+    private String mDisplayNumber;
+    private int mOriginalNetworkId;
+    private int mTransportStreamId;
+    private int mServiceId;
+    private String mChannelLogo;
+    private InternalProviderData mInternalProviderData;
+
+    private Channel() {
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    public String getDisplayNumber() {
+        return mDisplayNumber;
+    }
+
+    public int getOriginalNetworkId() {
+        return mOriginalNetworkId;
+    }
+
+    public int getTransportStreamId() {
+        return mTransportStreamId;
+    }
+
+    public int getServiceId() {
+        return mServiceId;
+    }
+
+    public String getChannelLogo() {
+        return mChannelLogo;
+    }
+
+    public InternalProviderData getInternalProviderData() {
+        return mInternalProviderData;
+    }
+
+    public static final class Builder {
+        private final Channel mChannel = new Channel();
+
+        public Builder() {
+        }
+
+        public Builder setId(long id) {
+            mChannel.mId = id;
+            return this;
+        }
+
+        public Builder setDisplayName(String displayName) {
+            mChannel.mDisplayName = displayName;
+            return this;
+        }
+
+        public Builder setDisplayNumber(String displayNumber) {
+            mChannel.mDisplayNumber = displayNumber;
+            return this;
+        }
+
+        public Builder setOriginalNetworkId(int originalNetworkId) {
+            mChannel.mOriginalNetworkId = originalNetworkId;
+            return this;
+        }
+
+        public Builder setTransportStreamId(int transportStreamId) {
+            mChannel.mTransportStreamId = transportStreamId;
+            return this;
+        }
+
+        public Builder setServiceId(int serviceId) {
+            mChannel.mServiceId = serviceId;
+            return this;
+        }
+
+        public Builder setChannelLogo(String channelLogo) {
+            mChannel.mChannelLogo = channelLogo;
+            return this;
+        }
+
+        public Builder setInternalProviderData(InternalProviderData internalProviderData) {
+            mChannel.mInternalProviderData = internalProviderData;
+            return this;
+        }
+
+        public Builder setAppLinkColor(int appLinkColor) {
+            return this;
+        }
+
+        public Builder setAppLinkIconUri(String appLinkIconUri) {
+            return this;
+        }
+
+        public Builder setAppLinkIntentUri(String appLinkIntentUri) {
+            return this;
+        }
+
+        public Builder setAppLinkPosterArtUri(String appLinkPosterArtUri) {
+            return this;
+        }
+
+        public Builder setAppLinkText(String appLinkText) {
+            return this;
+        }
+
+        public Channel build() {
+            Channel channel = new Channel();
+            channel.mId = mChannel.mId;
+            channel.mDisplayName = mChannel.mDisplayName;
+            channel.mDisplayNumber = mChannel.mDisplayNumber;
+            channel.mOriginalNetworkId = mChannel.mOriginalNetworkId;
+            channel.mTransportStreamId = mChannel.mTransportStreamId;
+            channel.mServiceId = mChannel.mServiceId;
+            channel.mChannelLogo = mChannel.mChannelLogo;
+            channel.mInternalProviderData = mChannel.mInternalProviderData;
+            return channel;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.google.android.media.tv.companionlibrary.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InternalProviderData {
+    private int mVideoType;
+    private String mVideoUrl;
+    private boolean mRepeatable;
+    private List<Advertisement> mAds = new ArrayList<>();
+
+    public int getVideoType() {
+        return mVideoType;
+    }
+
+    public void setVideoType(int videoType) {
+        mVideoType = videoType;
+    }
+
+    public String getVideoUrl() {
+        return mVideoUrl;
+    }
+
+    public void setVideoUrl(String videoUrl) {
+        mVideoUrl = videoUrl;
+    }
+
+    public boolean isRepeatable() {
+        return mRepeatable;
+    }
+
+    public void setRepeatable(boolean repeatable) {
+        mRepeatable = repeatable;
+    }
+
+    public List<Advertisement> getAds() {
+        return mAds;
+    }
+
+    public void setAds(List<Advertisement> ads) {
+        mAds = ads;
+    }
+
+    @Override
+    public String toString() {
+        return "{type=" + mVideoType + ",url=" + mVideoUrl + ",repeat=" + mRepeatable
+                + ",ads=" + mAds + "}";
+    }
+}
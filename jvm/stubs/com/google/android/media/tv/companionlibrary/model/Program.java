@@ -0,0 +1,117 @@
+package com.google.android.media.tv.companionlibrary.model;
+
+import android.media.tv.TvContentRating;
+
+public final class Program {
+    private long mChannelId = -1;
+    private String mTitle;
+    private String mDescription;
+    private String[] mCanonicalGenres;
+    private long mStartTimeUtcMillis = -1;
+    private long mEndTimeUtcMillis = -1;
+    private TvContentRating[] mContentRatings;
+    private InternalProviderData mInternalProviderData;
+
+    private Program() {
+    }
+
+    public long getChannelId() {
+        return mChannelId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public String[] getCanonicalGenres() {
+        return mCanonicalGenres;
+    }
+
+    public long getStartTimeUtcMillis() {
+        return mStartTimeUtcMillis;
+    }
+
+    public long getEndTimeUtcMillis() {
+        return mEndTimeUtcMillis;
+    }
+
+    public TvContentRating[] getContentRatings() {
+        return mContentRatings;
+    }
+
+    public InternalProviderData getInternalProviderData() {
+        return mInternalProviderData;
+    }
+
+    private void copy(Program other) {
+        mChannelId = other.mChannelId;
+        mTitle = other.mTitle;
+        mDescription = other.mDescription;
+        mCanonicalGenres = other.mCanonicalGenres;
+        mStartTimeUtcMillis = other.mStartTimeUtcMillis;
+        mEndTimeUtcMillis = other.mEndTimeUtcMillis;
+        mContentRatings = other.mContentRatings;
+        mInternalProviderData = other.mInternalProviderData;
+    }
+
+    public static final class Builder {
+        private final Program mProgram = new Program();
+
+        public Builder() {
+        }
+
+        public Builder(Program other) {
+            mProgram.copy(other);
+        }
+
+        public Builder setChannelId(long channelId) {
+            mProgram.mChannelId = channelId;
+            return this;
+        }
+
+        public Builder setTitle(String title) {
+            mProgram.mTitle = title;
+            return this;
+        }
+
+        public Builder setDescription(String description) {
+            mProgram.mDescription = description;
+            return this;
+        }
+
+        public Builder setCanonicalGenres(String[] genres) {
+            mProgram.mCanonicalGenres = genres;
+            return this;
+        }
+
+        public Builder setStartTimeUtcMillis(long startTimeUtcMillis) {
+            mProgram.mStartTimeUtcMillis = startTimeUtcMillis;
+            return this;
+        }
+
+        public Builder setEndTimeUtcMillis(long endTimeUtcMillis) {
+            mProgram.mEndTimeUtcMillis = endTimeUtcMillis;
+            return this;
+        }
+
+        public Builder setContentRatings(TvContentRating[] contentRatings) {
+            mProgram.mContentRatings = contentRatings;
+            return this;
+        }
+
+        public Builder setInternalProviderData(InternalProviderData internalProviderData) {
+            mProgram.mInternalProviderData = internalProviderData;
+            return this;
+        }
+
+        public Program build() {
+            Program program = new Program();
+            program.copy(mProgram);
+            return program;
+        }
+    }
+}
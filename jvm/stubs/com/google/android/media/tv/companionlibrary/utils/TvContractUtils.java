@@ -0,0 +1,9 @@
+package com.google.android.media.tv.companionlibrary.utils;
+
+public class TvContractUtils {
+    public static final int SOURCE_TYPE_INVALID = -1;
+    public static final int SOURCE_TYPE_MPEG_DASH = 0;
+    public static final int SOURCE_TYPE_SS = 1;
+    public static final int SOURCE_TYPE_HLS = 2;
+    public static final int SOURCE_TYPE_HTTP_PROGRESSIVE = 3;
+}
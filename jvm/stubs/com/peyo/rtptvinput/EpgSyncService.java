@@ -0,0 +1,4 @@
+package com.peyo.rtptvinput;
+
+public class EpgSyncService {
+}
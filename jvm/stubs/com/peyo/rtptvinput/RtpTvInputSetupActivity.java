@@ -0,0 +1,9 @@
+package com.peyo.rtptvinput;
+
+/**
+ * The constants of the setup activity which the JVM build uses; keep them in sync.
+ */
+public class RtpTvInputSetupActivity {
+    public static final String DVR_DIR = "/Movies/DVR";
+    public static final String TIME_SHIFT_DIR = "/Movies/TimeShift";
+}
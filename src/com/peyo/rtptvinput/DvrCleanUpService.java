@@ -26,6 +26,8 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Environment;
 
+import com.peyo.rtptvinput.source.TsIndex;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
@@ -128,7 +130,13 @@ public class DvrCleanUpService extends JobService {
             }
             for (File recording : files) {
                 try {
-                    if (!recordedPrograms.contains(recording.getCanonicalPath())) {
+                    String path = recording.getCanonicalPath();
+                    if (path.endsWith(TsIndex.FILE_EXTENSION)) {
+                        // Index files go together with their recording.
+                        path = path.substring(0, path.length() - TsIndex.FILE_EXTENSION.length())
+                                + ".ts";
+                    }
+                    if (!recordedPrograms.contains(path)) {
                         long lastModified = recording.lastModified();
                         long now = System.currentTimeMillis();
                         if (lastModified != 0
@@ -0,0 +1,194 @@
+package com.peyo.rtptvinput;
+
+import android.media.tv.TvContentRating;
+import android.util.Log;
+
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the syncs have pushed to the TV provider for each channel: the end time and a hash of the
+ * content of each program, so that a sync can tell the channels whose programs did not change.
+ * </p>
+ * The file has a magic number and a version, the time of the last full sync, and for each
+ * channel its row id and the entries of its programs.
+ */
+class EpgSnapshot {
+    private static final String TAG = "EpgSnapshot";
+    private static final int MAGIC = 0x45504753; // "EPGS"
+    private static final int VERSION = 1;
+
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+    private long mFullSyncTimeMs;
+    private boolean mDirty;
+
+    /**
+     * The programs pushed for a channel.
+     */
+    static class Entry {
+        private final long[] mEndTimesMs;
+        private final int[] mHashes;
+
+        private Entry(long[] endTimesMs, int[] hashes) {
+            mEndTimesMs = endTimesMs;
+            mHashes = hashes;
+        }
+
+        static Entry create(List<Program> programs) {
+            long[] endTimesMs = new long[programs.size()];
+            int[] hashes = new int[programs.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                endTimesMs[i] = programs.get(i).getEndTimeUtcMillis();
+                hashes[i] = hash(programs.get(i));
+            }
+            return new Entry(endTimesMs, hashes);
+        }
+
+        /**
+         * Returns the sorted hashes of the programs which end after {@code startMs}.
+         */
+        private int[] getHashesAfter(long startMs) {
+            int[] hashes = new int[mHashes.length];
+            int count = 0;
+            for (int i = 0; i < mHashes.length; i++) {
+                if (mEndTimesMs[i] > startMs) {
+                    hashes[count++] = mHashes[i];
+                }
+            }
+            hashes = Arrays.copyOf(hashes, count);
+            Arrays.sort(hashes);
+            return hashes;
+        }
+    }
+
+    /**
+     * Reads the snapshot of {@code file}, or returns an empty one if there is no usable file.
+     */
+    static EpgSnapshot read(File file) {
+        EpgSnapshot snapshot = new EpgSnapshot();
+        if (!file.isFile()) {
+            return snapshot;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Unknown snapshot format " + file);
+                return snapshot;
+            }
+            long fullSyncTimeMs = in.readLong();
+            int channelCount = in.readInt();
+            for (int i = 0; i < channelCount; i++) {
+                long channelId = in.readLong();
+                int count = in.readInt();
+                long[] endTimesMs = new long[count];
+                int[] hashes = new int[count];
+                for (int j = 0; j < count; j++) {
+                    endTimesMs[j] = in.readLong();
+                    hashes[j] = in.readInt();
+                }
+                snapshot.mEntries.put(channelId, new Entry(endTimesMs, hashes));
+            }
+            snapshot.mFullSyncTimeMs = fullSyncTimeMs;
+        } catch (IOException e) {
+            Log.w(TAG, "Error on reading snapshot.", e);
+            snapshot.mEntries.clear();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the snapshot to {@code file} if it changed since it was read.
+     */
+    void write(File file) {
+        if (!mDirty) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mFullSyncTimeMs);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<Long, Entry> channel : mEntries.entrySet()) {
+                Entry entry = channel.getValue();
+                out.writeLong(channel.getKey());
+                out.writeInt(entry.mHashes.length);
+                for (int i = 0; i < entry.mHashes.length; i++) {
+                    out.writeLong(entry.mEndTimesMs[i]);
+                    out.writeInt(entry.mHashes[i]);
+                }
+            }
+            mDirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Error on writing snapshot.", e);
+            if (!file.delete()) {
+                Log.w(TAG, "Cannot delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Forgets all channels if the last full sync is older than {@code maxAgeMs}, so that every
+     * program is pushed again.
+     *
+     * @return whether the sync starting now is a full sync
+     */
+    boolean startSync(long nowMs, long maxAgeMs) {
+        if (nowMs - mFullSyncTimeMs < maxAgeMs && nowMs >= mFullSyncTimeMs) {
+            return false;
+        }
+        mEntries.clear();
+        mFullSyncTimeMs = nowMs;
+        mDirty = true;
+        return true;
+    }
+
+    /**
+     * Returns whether the programs of a channel from {@code startMs} differ from the ones which
+     * were pushed: a program was added, changed, or removed.
+     */
+    boolean hasChanged(long channelId, Entry programs, long startMs) {
+        Entry entry = mEntries.get(channelId);
+        return entry == null
+                || !Arrays.equals(entry.getHashesAfter(startMs), programs.getHashesAfter(startMs));
+    }
+
+    void put(long channelId, Entry programs) {
+        mEntries.put(channelId, programs);
+        mDirty = true;
+    }
+
+    /**
+     * Returns a hash of what the guide sets of a program, but not of its channel, which is only
+     * known once it is synced.
+     */
+    private static int hash(Program program) {
+        int hash = Arrays.hashCode(new long[] {
+                program.getStartTimeUtcMillis(), program.getEndTimeUtcMillis() });
+        hash = 31 * hash + (program.getTitle() != null ? program.getTitle().hashCode() : 0);
+        hash = 31 * hash + (program.getDescription() != null
+                ? program.getDescription().hashCode() : 0);
+        hash = 31 * hash + Arrays.hashCode(program.getCanonicalGenres());
+        TvContentRating[] ratings = program.getContentRatings();
+        if (ratings != null) {
+            for (TvContentRating rating : ratings) {
+                hash = 31 * hash + rating.flattenToString().hashCode();
+            }
+        }
+        hash = 31 * hash + (program.getInternalProviderData() != null
+                ? program.getInternalProviderData().toString().hashCode() : 0);
+        return hash;
+    }
+}
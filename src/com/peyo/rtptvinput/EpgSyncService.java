@@ -1,6 +1,12 @@
 package com.peyo.rtptvinput;
 
+import android.app.job.JobParameters;
+import android.content.ComponentName;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.media.tv.TvContract;
 import android.net.Uri;
+import android.util.Log;
 
 import com.google.android.media.tv.companionlibrary.EpgSyncJobService;
 import com.google.android.media.tv.companionlibrary.model.Channel;
@@ -9,32 +15,190 @@ import com.google.android.media.tv.companionlibrary.model.Program;
 import com.peyo.rtptvinput.XmlTvParser.TvListing;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Syncs the channels and programs of the XMLTV guide at {@link RtpTvInputSetupActivity#EPG_URL}.
+ * </p>
+ * A sync asks for the channels first and then for the programs of each channel, so the guide is
+ * downloaded and parsed when the channels are asked for, and the programs come from the same
+ * listing. Programs which are already over are skipped while parsing. The listing is kept for
+ * the next sync, which revalidates it with the ETag and Last-Modified of the guide instead of
+ * downloading it again. Until a guide has been loaded, a sync keeps the channels which are
+ * already there and pushes no programs.
+ * </p>
+ * An {@link EpgSnapshot} remembers what was pushed for each channel, and the programs of a channel
+ * are only handed to the library, which diffs them against the provider row by row, when they
+ * changed. A channel which did not change gets no programs, which the library skips, except
+ * for a channel which repeats its programs, as they are looped into a new window. A full sync
+ * pushes every channel once a day, in case the provider was changed behind our back.
+ */
 public class EpgSyncService extends EpgSyncJobService {
+    private static final String TAG = "EpgSyncService";
+    private static final int TIMEOUT_MS = 30 * 1000;
+    private static final String SNAPSHOT_FILE = "epg_snapshot";
+    private static final long FULL_SYNC_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private TvListing mListing;
+    private String mETag;
+    private String mLastModified;
+
+    private final Object mSnapshotLock = new Object();
+    // @GuardedBy("mSnapshotLock")
+    private EpgSnapshot mSnapshot;
+    // The programs handed out last, which count as pushed once the next channel is asked for,
+    // as the library syncs one channel after another.
+    // @GuardedBy("mSnapshotLock")
+    private long mPendingChannelId = -1;
+    // @GuardedBy("mSnapshotLock")
+    private EpgSnapshot.Entry mPendingPrograms;
+
+    @Override
+    public void onDestroy() {
+        synchronized (mSnapshotLock) {
+            commitPendingProgramsLocked();
+            if (mSnapshot != null) {
+                mSnapshot.write(getSnapshotFile());
+            }
+        }
+        super.onDestroy();
+    }
 
     @Override
-    public List<Channel> getChannels() {
-        return getTvListing().getChannels();
+    public boolean onStopJob(JobParameters params) {
+        synchronized (mSnapshotLock) {
+            // The library may not have written them.
+            mPendingPrograms = null;
+        }
+        return super.onStopJob(params);
+    }
+
+    @Override
+    public synchronized List<Channel> getChannels() {
+        synchronized (mSnapshotLock) {
+            commitPendingProgramsLocked();
+            if (mSnapshot == null) {
+                mSnapshot = EpgSnapshot.read(getSnapshotFile());
+            } else {
+                mSnapshot.write(getSnapshotFile());
+            }
+            if (mSnapshot.startSync(System.currentTimeMillis(), FULL_SYNC_INTERVAL_MS)) {
+                Log.i(TAG, "Full sync");
+            }
+        }
+        TvListing listing = loadTvListing();
+        if (listing == null) {
+            // The library deletes the channels which are not in the list.
+            Log.w(TAG, "No guide to sync, keeping the channels");
+            return getSyncedChannels();
+        }
+        return listing.getChannels();
     }
 
     @Override
-    public List<Program> getProgramsForChannel(Uri channelUri, Channel channel, long startMs, long endMs) {
-        return getTvListing().getPrograms(channel);
+    public synchronized List<Program> getProgramsForChannel(Uri channelUri, Channel channel,
+            long startMs, long endMs) {
+        TvListing listing = mListing != null ? mListing : loadTvListing();
+        if (listing == null) {
+            return new ArrayList<>();
+        }
+        List<Program> programs = listing.getPrograms(channel, startMs, endMs);
+        if (channel.getInternalProviderData() != null
+                && channel.getInternalProviderData().isRepeatable()) {
+            // The library loops them into the window, which moves with every sync.
+            return programs;
+        }
+        long channelId = ContentUris.parseId(channelUri);
+        EpgSnapshot.Entry entry = EpgSnapshot.Entry.create(programs);
+        synchronized (mSnapshotLock) {
+            commitPendingProgramsLocked();
+            if (mSnapshot != null && !mSnapshot.hasChanged(channelId, entry, startMs)) {
+                return new ArrayList<>();
+            }
+            mPendingChannelId = channelId;
+            mPendingPrograms = entry;
+        }
+        return programs;
+    }
+
+    /**
+     * Returns the channels of this input which are in the provider.
+     */
+    private List<Channel> getSyncedChannels() {
+        List<Channel> channels = new ArrayList<>();
+        String inputId = TvContract.buildInputId(
+                new ComponentName(this, RtpTvInputService.class));
+        try (Cursor cursor = getContentResolver().query(
+                TvContract.buildChannelsUriForInput(inputId), null, null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                channels.add(Channel.fromCursor(cursor));
+            }
+        }
+        return channels;
+    }
+
+    private File getSnapshotFile() {
+        return new File(getFilesDir(), SNAPSHOT_FILE);
+    }
+
+    // @GuardedBy("mSnapshotLock")
+    private void commitPendingProgramsLocked() {
+        if (mPendingPrograms != null && mSnapshot != null) {
+            mSnapshot.put(mPendingChannelId, mPendingPrograms);
+        }
+        mPendingPrograms = null;
     }
 
-    private TvListing getTvListing() {
-        TvListing listing = null;
+    /**
+     * Downloads and parses the guide unless the listing is still current. If that fails, the
+     * listing of the previous sync is kept.
+     */
+    private TvListing loadTvListing() {
+        HttpURLConnection httpConnection = null;
         try {
-            URL epgXml = new URL(RtpTvInputSetupActivity.EPG_URL);
-            listing = XmlTvParser.parse(new BufferedInputStream(epgXml.openStream()));
+            URLConnection connection = new URL(RtpTvInputSetupActivity.EPG_URL).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            if (connection instanceof HttpURLConnection) {
+                httpConnection = (HttpURLConnection) connection;
+                if (mListing != null && mETag != null) {
+                    connection.setRequestProperty("If-None-Match", mETag);
+                }
+                if (mListing != null && mLastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", mLastModified);
+                }
+                if (httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    Log.i(TAG, "Guide is not modified");
+                    return mListing;
+                }
+            }
+            try (InputStream input = new BufferedInputStream(connection.getInputStream())) {
+                // Programs which are over by now are never synced.
+                TvListing listing = XmlTvParser.parse(input, System.currentTimeMillis(),
+                        Long.MAX_VALUE);
+                if (listing != null) {
+                    mListing = listing;
+                    mETag = connection.getHeaderField("ETag");
+                    mLastModified = connection.getHeaderField("Last-Modified");
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (XmlTvParser.XmlTvParseException e) {
             e.printStackTrace();
+        } finally {
+            if (httpConnection != null) {
+                httpConnection.disconnect();
+            }
         }
-        return listing;
+        return mListing;
     }
 }
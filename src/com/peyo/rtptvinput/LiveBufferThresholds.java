@@ -0,0 +1,80 @@
+package com.peyo.rtptvinput;
+
+/**
+ * Buffering thresholds of the player for a live stream, in milliseconds: how much has to be
+ * buffered to start playback, to start again after a stall, and the low and high watermarks of
+ * loading.
+ * </p>
+ * A preset is the lower bound of the thresholds, which {@link #forStats} raises for a stream
+ * whose packets arrive unevenly. The factors were tuned by replaying network traces into a
+ * model of the player, for the shortest start which does not stall: the RTP jitter alone is an
+ * average which misses a stream held up for a while and then delivered in a burst, so playback
+ * also waits for twice the delay variation of the last seconds.
+ */
+public class LiveBufferThresholds {
+    // How many times the jitter the playback start and the low watermark have to cover.
+    private static final int START_JITTER_FACTOR = 4;
+    private static final int MIN_BUFFER_JITTER_FACTOR = 8;
+    // How many times the delay variation the playback start has to cover.
+    private static final int START_DELAY_VARIATION_FACTOR = 2;
+
+    /** A fifth of the defaults of {@link com.google.android.exoplayer2.DefaultLoadControl}. */
+    public static final LiveBufferThresholds DEFAULT =
+            new LiveBufferThresholds(500, 1000, 3000, 6000);
+    /** Starts as soon as possible, for a fast channel change on a clean network. */
+    public static final LiveBufferThresholds LOW_LATENCY =
+            new LiveBufferThresholds(150, 500, 1000, 2000);
+
+    private final long mBufferForPlaybackMs;
+    private final long mBufferForPlaybackAfterRebufferMs;
+    private final long mMinBufferMs;
+    private final long mMaxBufferMs;
+
+    LiveBufferThresholds(long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+            long minBufferMs, long maxBufferMs) {
+        mBufferForPlaybackMs = bufferForPlaybackMs;
+        mBufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        mMinBufferMs = minBufferMs;
+        mMaxBufferMs = maxBufferMs;
+    }
+
+    /**
+     * Returns these thresholds raised to cover the interarrival jitter {@code jitterUs} and the
+     * delay variation {@code delayVariationUs} of the stream.
+     */
+    LiveBufferThresholds forStats(long jitterUs, long delayVariationUs) {
+        long jitterMs = jitterUs / 1000;
+        long bufferForPlaybackMs = Math.max(mBufferForPlaybackMs,
+                Math.max(START_JITTER_FACTOR * jitterMs,
+                        START_DELAY_VARIATION_FACTOR * delayVariationUs / 1000));
+        long bufferForPlaybackAfterRebufferMs =
+                Math.max(mBufferForPlaybackAfterRebufferMs, 2 * bufferForPlaybackMs);
+        long minBufferMs = Math.max(mMinBufferMs,
+                Math.max(MIN_BUFFER_JITTER_FACTOR * jitterMs, bufferForPlaybackAfterRebufferMs));
+        long maxBufferMs = Math.max(mMaxBufferMs, 2 * minBufferMs);
+        return new LiveBufferThresholds(bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                minBufferMs, maxBufferMs);
+    }
+
+    long getBufferForPlaybackMs() {
+        return mBufferForPlaybackMs;
+    }
+
+    long getBufferForPlaybackAfterRebufferMs() {
+        return mBufferForPlaybackAfterRebufferMs;
+    }
+
+    long getMinBufferMs() {
+        return mMinBufferMs;
+    }
+
+    long getMaxBufferMs() {
+        return mMaxBufferMs;
+    }
+
+    @Override
+    public String toString() {
+        return mBufferForPlaybackMs + "/" + mBufferForPlaybackAfterRebufferMs + "/" + mMinBufferMs
+                + "/" + mMaxBufferMs + " ms";
+    }
+}
@@ -0,0 +1,158 @@
+package com.peyo.rtptvinput;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.Util;
+import com.peyo.rtptvinput.source.IngestStats;
+import com.peyo.rtptvinput.source.TsDataSourceFactory;
+
+/**
+ * {@link LoadControl} for live streams which sizes its buffers from how the stream arrives.
+ * </p>
+ * It behaves like {@link com.google.android.exoplayer2.DefaultLoadControl}, but the thresholds
+ * grow with the RTP jitter and delay variation of the stream being played, see
+ * {@link LiveBufferThresholds}, so a steady stream starts as soon as the preset allows and a
+ * bursty one gets the margin it needs not to stall. The byte budget of the
+ * allocator follows the ingest rate, so that the time thresholds can be reached at high
+ * bitrates.
+ */
+public class LiveLoadControl implements LoadControl {
+    private static final String TAG = "LiveLoadControl";
+    private static final long STATS_UPDATE_INTERVAL_MS = 1000;
+
+    private final DefaultAllocator mAllocator =
+            new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    private final TsDataSourceFactory mSourceFactory;
+    private volatile LiveBufferThresholds mPreset;
+
+    private long mBufferForPlaybackUs;
+    private long mBufferForPlaybackAfterRebufferUs;
+    private long mMinBufferUs;
+    private long mMaxBufferUs;
+    private int mDefaultTargetBufferSize;
+    private int mTargetBufferSize;
+    private boolean mIsBuffering;
+    private long mLastStatsUpdateMs;
+
+    /**
+     * @param sourceFactory where the ingest statistics of the stream being played come from
+     */
+    public LiveLoadControl(TsDataSourceFactory sourceFactory, LiveBufferThresholds preset) {
+        mSourceFactory = sourceFactory;
+        mPreset = preset;
+        updateThresholds(null);
+    }
+
+    /**
+     * Sets the lower bounds of the thresholds. Takes effect within a second.
+     */
+    public void setPreset(LiveBufferThresholds preset) {
+        mPreset = preset;
+        mLastStatsUpdateMs = 0;
+    }
+
+    @Override
+    public void onPrepared() {
+        reset(false);
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+            TrackSelectionArray trackSelections) {
+        mDefaultTargetBufferSize = 0;
+        for (int i = 0; i < renderers.length; i++) {
+            if (trackSelections.get(i) != null) {
+                mDefaultTargetBufferSize += Util.getDefaultBufferSize(renderers[i].getTrackType());
+            }
+        }
+        mLastStatsUpdateMs = 0;
+        maybeUpdateThresholds();
+    }
+
+    @Override
+    public void onStopped() {
+        reset(true);
+    }
+
+    @Override
+    public void onReleased() {
+        reset(true);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return mAllocator;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        maybeUpdateThresholds();
+        long minBufferDurationUs =
+                rebuffering ? mBufferForPlaybackAfterRebufferUs : mBufferForPlaybackUs;
+        return minBufferDurationUs <= 0 || bufferedDurationUs >= minBufferDurationUs;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        maybeUpdateThresholds();
+        boolean targetBufferSizeReached = mAllocator.getTotalBytesAllocated() >= mTargetBufferSize;
+        if (bufferedDurationUs < mMinBufferUs) {
+            mIsBuffering = true;
+        } else if (bufferedDurationUs > mMaxBufferUs) {
+            mIsBuffering = false;
+        } else {
+            mIsBuffering = mIsBuffering && !targetBufferSizeReached;
+        }
+        return mIsBuffering;
+    }
+
+    private void reset(boolean resetAllocator) {
+        mDefaultTargetBufferSize = 0;
+        mTargetBufferSize = 0;
+        mIsBuffering = false;
+        mLastStatsUpdateMs = 0;
+        if (resetAllocator) {
+            mAllocator.reset();
+        }
+    }
+
+    private void maybeUpdateThresholds() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastStatsUpdateMs < STATS_UPDATE_INTERVAL_MS) {
+            return;
+        }
+        mLastStatsUpdateMs = now;
+        updateThresholds(mSourceFactory.getIngestStats());
+    }
+
+    private void updateThresholds(IngestStats stats) {
+        LiveBufferThresholds thresholds = stats == null ? mPreset
+                : mPreset.forStats(stats.getJitterUs(), stats.getDelayVariationUs());
+        long maxBufferMs = thresholds.getMaxBufferMs();
+        mBufferForPlaybackUs = thresholds.getBufferForPlaybackMs() * 1000;
+        mBufferForPlaybackAfterRebufferUs = thresholds.getBufferForPlaybackAfterRebufferMs() * 1000;
+        mMinBufferUs = thresholds.getMinBufferMs() * 1000;
+        mMaxBufferUs = maxBufferMs * 1000;
+
+        int targetBufferSize = mDefaultTargetBufferSize;
+        if (stats != null && stats.getBitrate() > 0) {
+            // Room for the high watermark at the ingest rate, with a margin for the containers.
+            long bytes = stats.getBitrate() / 8 * maxBufferMs / 1000 * 5 / 4;
+            targetBufferSize = (int) Math.max(targetBufferSize, Math.min(bytes, Integer.MAX_VALUE));
+        }
+        if (targetBufferSize != mTargetBufferSize) {
+            mTargetBufferSize = targetBufferSize;
+            mAllocator.setTargetBufferSize(targetBufferSize);
+            Log.i(TAG, "Thresholds " + thresholds + ", " + targetBufferSize + " bytes for "
+                    + stats);
+        }
+    }
+}
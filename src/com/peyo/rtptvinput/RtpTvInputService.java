@@ -11,22 +11,37 @@ import android.media.tv.TvContract;
 import android.media.tv.TvInputManager;
 import android.media.tv.TvInputService;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.Surface;
 
+import com.google.android.exoplayer2.C;
+import com.peyo.rtptvinput.source.RtpStreamer;
+import com.peyo.rtptvinput.source.StreamerMetrics;
 import com.peyo.rtptvinput.source.TsDataSourceFactory;
 import com.peyo.rtptvinput.source.TsRecorder;
 import com.peyo.rtptvinput.source.TsStreamWriter;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class RtpTvInputService extends TvInputService {
     private static final String TAG = "RtpTvInputService";
 
 	private static final int DVR_CLEANUP_JOB_ID = 100;
+	private final List<Session> mSessions = new CopyOnWriteArrayList<>();
+
 	@Override
 	public void onCreate() {
 		super.onCreate();
@@ -48,17 +63,45 @@ public class RtpTvInputService extends TvInputService {
 	@Override
 	public TvInputService.Session onCreateSession(String inputId) {
 		Log.i(TAG, "OnCreateSession() inputId : " + inputId);
-		return new Session(this);
+		Session session = new Session(this, inputId);
+		mSessions.add(session);
+		return session;
+	}
+
+	/**
+	 * Prints the tune timings of the sessions and the ingest metrics of the streams, with
+	 * {@code adb shell dumpsys activity service com.peyo.rtptvinput/.RtpTvInputService}.
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		writer.println("Sessions: " + mSessions.size());
+		for (Session session : mSessions) {
+			writer.println("  Session service id " + session.mServiceId);
+			session.mTuneTracer.dump(writer, "    ");
+		}
+		List<StreamerMetrics> metrics = TsDataSourceFactory.getStreamerMetrics();
+		writer.println("Streamers: " + metrics.size());
+		for (StreamerMetrics streamerMetrics : metrics) {
+			writer.println("  " + streamerMetrics);
+		}
 	}
 
 	private class Session extends TvInputService.Session implements TsPlayer.Listener {
 		private final TsPlayer mPlayer;
-		private int mServiceId = 0;
-
-		public Session(Context context) {
+		private final TsDataSourceFactory mSourceFactory;
+		private final String mInputId;
+		private final TuneTracer mTuneTracer = new TuneTracer();
+		// Joins the streams to keep warm off the main thread, one request after another.
+		private final ExecutorService mWarmExecutor = Executors.newSingleThreadExecutor();
+		private volatile int mServiceId = 0;
+		private int mTransportStreamId = 0;
+
+		public Session(Context context, String inputId) {
 			super(context);
+			mInputId = inputId;
 			mPlayer = new TsPlayer(context, this);
-			mPlayer.setDataSourceFactory(TsDataSourceFactory.createSourceFactory());
+			mSourceFactory = TsDataSourceFactory.createSourceFactory();
+			mPlayer.setDataSourceFactory(mSourceFactory);
 		}
 
 		@Override
@@ -69,29 +112,107 @@ public class RtpTvInputService extends TvInputService {
 
 		private boolean changeChannel(Uri uri) {
 			int oldId = mServiceId;
-			String[] projection = { TvContract.Channels.COLUMN_SERVICE_ID };
+			String[] projection = { TvContract.Channels.COLUMN_SERVICE_ID,
+					TvContract.Channels.COLUMN_TRANSPORT_STREAM_ID };
 			Cursor cursor = getContentResolver().query(uri, projection, null, null, null);
 			if (cursor.getCount() > 0) {
 				cursor.moveToFirst();
 				mServiceId = cursor.getInt(0);
+				mTransportStreamId = cursor.getInt(1);
 			}
 			return oldId != mServiceId;
 		}
 
 		@Override
 		public boolean onTune(Uri uri) {
+			long tuneTimeMs = SystemClock.elapsedRealtime();
 			Log.i(TAG, "onTune() uri : " + uri);
 			boolean changed = changeChannel(uri);
 			if (changed) {
+				mTuneTracer.start(tuneTimeMs);
+				mTuneTracer.mark(TuneTracer.SERVICE_ID);
 				notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
 				notifyTimeShiftStatusChanged(TvInputManager.TIME_SHIFT_STATUS_UNAVAILABLE);
+				// The old channel stays warm until the neighbours of the new one replace it.
 				mPlayer.stop();
-				mPlayer.setDataSource(getRtpAddress(mServiceId));
+				mPlayer.setDataSource(getRtpAddress(mServiceId, mTransportStreamId));
 				mPlayer.start();
+				prepareWarmStreams(mServiceId, mTransportStreamId);
 			}
 			return true;
 		}
 
+		/**
+		 * Keeps the neighbours of {@code serviceId} warm, in the background, as it queries the
+		 * channel list and joins their streams.
+		 */
+		private void prepareWarmStreams(final int serviceId, final int transportStreamId) {
+			mWarmExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					// A later tune has queued its own.
+					if (serviceId == mServiceId) {
+						mSourceFactory.prepareStreams(
+								getWarmRtpAddresses(serviceId, transportStreamId));
+					}
+				}
+			});
+		}
+
+		/**
+		 * Returns the addresses of the channel {@code serviceId} and of the next and the previous
+		 * channel in the channel list, which are likely to be tuned to next.
+		 */
+		private List<String> getWarmRtpAddresses(int serviceId, int transportStreamId) {
+			List<String> addresses = new ArrayList<>();
+			addresses.add(getRtpAddress(serviceId, transportStreamId));
+			String[] projection = { TvContract.Channels.COLUMN_DISPLAY_NUMBER,
+					TvContract.Channels.COLUMN_SERVICE_ID,
+					TvContract.Channels.COLUMN_TRANSPORT_STREAM_ID };
+			final List<String> displayNumbers = new ArrayList<>();
+			List<Integer> serviceIds = new ArrayList<>();
+			List<Integer> transportStreamIds = new ArrayList<>();
+			try (Cursor cursor = getContentResolver().query(
+					TvContract.buildChannelsUriForInput(mInputId), projection, null, null, null)) {
+				if (cursor == null) {
+					return addresses;
+				}
+				while (cursor.moveToNext()) {
+					displayNumbers.add(cursor.getString(0));
+					serviceIds.add(cursor.getInt(1));
+					transportStreamIds.add(cursor.getInt(2));
+				}
+			}
+			List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < serviceIds.size(); i++) {
+				order.add(i);
+			}
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compareDisplayNumbers(displayNumbers.get(a), displayNumbers.get(b));
+				}
+			});
+			int size = order.size();
+			for (int i = 0; i < size; i++) {
+				if (serviceIds.get(order.get(i)) != serviceId) {
+					continue;
+				}
+				int nextIndex = order.get((i + 1) % size);
+				int previousIndex = order.get((i + size - 1) % size);
+				int next = serviceIds.get(nextIndex);
+				int previous = serviceIds.get(previousIndex);
+				if (next != serviceId) {
+					addresses.add(getRtpAddress(next, transportStreamIds.get(nextIndex)));
+				}
+				if (previous != serviceId && previous != next) {
+					addresses.add(getRtpAddress(previous, transportStreamIds.get(previousIndex)));
+				}
+				break;
+			}
+			return addresses;
+		}
+
 		@Override
 		public void onTimeShiftPlay(Uri uri) {
 			Log.i(TAG, "onTimeShiftPlay() uri : " + uri);
@@ -100,6 +221,7 @@ public class RtpTvInputService extends TvInputService {
 			Cursor cursor = getContentResolver().query(uri, projection, null, null, null);
 			if (cursor.getCount() > 0) {
 				cursor.moveToFirst();
+				mTuneTracer.cancel();
 				notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
 				notifyTimeShiftStatusChanged(TvInputManager.TIME_SHIFT_STATUS_UNAVAILABLE);
 				mPlayer.stop();
@@ -110,6 +232,7 @@ public class RtpTvInputService extends TvInputService {
 
 		@Override
 		public void onPlayStarted() {
+			mTuneTracer.finish(mSourceFactory);
 			mBufferStartTimeMs = System.currentTimeMillis();
 			Log.i(TAG, "onPlayStarted() " +
 					DateFormat.getTimeInstance().format(new Date(mBufferStartTimeMs)));
@@ -136,7 +259,9 @@ public class RtpTvInputService extends TvInputService {
 		public void onTimeShiftSeekTo(long timeMs) {
 			Log.i(TAG, "SeekTo " +
 					DateFormat.getTimeInstance().format(new Date(timeMs)));
-			mPlayer.seekTo(timeMs - mBufferStartTimeMs);
+			if (!mPlayer.seekToTime(timeMs)) {
+				mPlayer.seekTo(timeMs - mBufferStartTimeMs);
+			}
 		}
 
 		@Override
@@ -151,19 +276,34 @@ public class RtpTvInputService extends TvInputService {
 
 		@Override
 		public long onTimeShiftGetStartPosition() {
-			return mBufferStartTimeMs;
+			long startTimeMs = mPlayer.getStartTimeMs();
+			return startTimeMs != C.TIME_UNSET ? startTimeMs : mBufferStartTimeMs;
 		}
 
 		@Override
 		public long onTimeShiftGetCurrentPosition() {
-			long currentTimeMs = mBufferStartTimeMs + mPlayer.getCurrentPosition();
+			long currentTimeMs = mPlayer.getCurrentTimeMs();
+			if (currentTimeMs != C.TIME_UNSET) {
+				return currentTimeMs;
+			}
+			currentTimeMs = mBufferStartTimeMs + mPlayer.getCurrentPosition();
 			//Log.i(TAG, "GetCurrentPosition " + DateFormat.getTimeInstance().format(new Date(currentTimeMs)));
 			return currentTimeMs;
 		}
 
 		@Override
 		public void onRelease() {
-			mPlayer.stop();
+			mSessions.remove(this);
+			mTuneTracer.cancel();
+			mPlayer.release();
+			// After any warm-up which is still queued.
+			mWarmExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					mSourceFactory.prepareStreams(Collections.<String>emptyList());
+				}
+			});
+			mWarmExecutor.shutdown();
 		}
 
 		@Override
@@ -174,11 +314,42 @@ public class RtpTvInputService extends TvInputService {
 
 	}
 
-	private String getRtpAddress(int serviceId) {
-		return RtpTvInputSetupActivity.MULTICAST_ADDR
+	/**
+	 * Compares display numbers such as "7", "7-1" or "11.2" by their numeric parts.
+	 */
+	private static int compareDisplayNumbers(String a, String b) {
+		String[] aParts = a == null ? new String[0] : a.split("\\D+");
+		String[] bParts = b == null ? new String[0] : b.split("\\D+");
+		for (int i = 0; i < aParts.length && i < bParts.length; i++) {
+			try {
+				int result = Long.compare(Long.parseLong(aParts[i]), Long.parseLong(bParts[i]));
+				if (result != 0) {
+					return result;
+				}
+			} catch (NumberFormatException e) {
+				int result = aParts[i].compareTo(bParts[i]);
+				if (result != 0) {
+					return result;
+				}
+			}
+		}
+		return aParts.length - bParts.length;
+	}
+
+	/**
+	 * Returns the stream address of a channel. A channel which the guide gives a transport stream
+	 * id is one program of a multi-program stream, and its service id is taken as the
+	 * program_number of the program to keep. A channel without one has the stream to itself.
+	 */
+	private String getRtpAddress(int serviceId, int transportStreamId) {
+		String address = RtpTvInputSetupActivity.MULTICAST_ADDR
 				+ String.valueOf((serviceId >> 8) & 255) + "."
 				+ String.valueOf(serviceId & 255)
 				+ RtpTvInputSetupActivity.MULTICAST_PORT;
+		if (transportStreamId != 0) {
+			address += "?" + RtpStreamer.PARAM_PROGRAM + "=" + serviceId;
+		}
+		return address;
 	}
 
 	@Override
@@ -193,6 +364,7 @@ public class RtpTvInputService extends TvInputService {
 		private String mInputId;
 
 		private int mServiceId = 0;
+		private int mTransportStreamId = 0;
 		private String mChannelName;
 		private String mProgramTitle;
 		private long mStartTimeMs;
@@ -217,12 +389,14 @@ public class RtpTvInputService extends TvInputService {
 
 		private void getChannelServiceId(Uri channelUri) {
 			String[] projection = { TvContract.Channels.COLUMN_SERVICE_ID,
-					TvContract.Channels.COLUMN_DISPLAY_NAME };
+					TvContract.Channels.COLUMN_DISPLAY_NAME,
+					TvContract.Channels.COLUMN_TRANSPORT_STREAM_ID };
 			Cursor cursor = getContentResolver().query(channelUri, projection, null, null, null);
 			if (cursor.getCount() > 0) {
 				cursor.moveToFirst();
 				mServiceId = cursor.getInt(0);
 				mChannelName = cursor.getString(1);
+				mTransportStreamId = cursor.getInt(2);
 			}
 		}
 
@@ -244,7 +418,7 @@ public class RtpTvInputService extends TvInputService {
 			mTsStreamWriter.setProgramTitle(mProgramTitle);
 			mTsStreamWriter.openFile();
 
-			mTsRecorder.startRecording(getRtpAddress(mServiceId));
+			mTsRecorder.startRecording(getRtpAddress(mServiceId, mTransportStreamId));
 			mStartTimeMs = System.currentTimeMillis();
 
 			Log.i(TAG, "onStartRecording() " + DateFormat.getTimeInstance().format(new Date(mStartTimeMs)));
@@ -18,7 +18,8 @@ public class RtpTvInputSetupActivity extends Activity {
 	private static final String TAG = "RtpTvInputSetupActivity";
 
 	public static final String DVR_DIR = "/Movies/DVR";
-	public static final String MULTICAST_ADDR = "udp://xxx.";
+	public static final String TIME_SHIFT_DIR = "/Movies/TimeShift";
+	public static final String MULTICAST_ADDR = "rtp://xxx.";
 	public static final String MULTICAST_PORT = ":yyy";
 	public static final String EPG_URL = "https://zzz";
 	private static final int EPG_DURATION_MILLIS = 1000 * 60 * 60 * 24 * 7; // 1 Week
@@ -3,25 +3,25 @@ package com.peyo.rtptvinput;
 import android.content.Context;
 import android.media.PlaybackParams;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Surface;
 
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
-import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import com.peyo.rtptvinput.source.TsDataSourceFactory;
+import com.peyo.rtptvinput.source.TsIndex;
 
-import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS;
-import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS;
-import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_MAX_BUFFER_MS;
-import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_MIN_BUFFER_MS;
+import java.io.File;
 
 public class TsPlayer {
+    private static final String TAG = "TsPlayer";
+
     private final Context mContext;
     private SimpleExoPlayer mExoPlayer;
     private Surface mSurface;
@@ -29,6 +29,19 @@ public class TsPlayer {
     private MediaSource mSource;
     private Listener mListener;
     private TsDataSourceFactory mSourceFactory;
+    private Uri mUri;
+    // Index of the recording being played, if it has one.
+    private TsIndex mIndex;
+    // Time of the index entry playback was last started from.
+    private long mPositionOffsetMs;
+    private boolean mPlayStarted;
+    // Whether the player is kept when playback stops, and only the media source is swapped.
+    private boolean mReusePlayer = true;
+    private boolean mPrepared;
+    private boolean mPlayerReused;
+    private long mStartTimeMs;
+    private LiveBufferThresholds mLoadControlPreset = LiveBufferThresholds.DEFAULT;
+    private LiveLoadControl mLoadControl;
 
     public void setPlaybackParams(PlaybackParams params) {
          if (mExoPlayer != null) {
@@ -37,9 +50,61 @@ public class TsPlayer {
     }
 
     public void seekTo(long position) {
-        if (mExoPlayer != null) {
+        if (!mPrepared) {
+            return;
+        }
+        if (mIndex == null) {
             mExoPlayer.seekTo(position);
+            return;
+        }
+        // The TS extractor can not seek, so start again from the random access point.
+        int entry = mIndex.findEntry(position);
+        mSourceFactory.setStartPosition(mIndex.getPosition(entry));
+        mPositionOffsetMs = mIndex.getTimeMs(entry);
+        mSource = createMediaSource();
+        mExoPlayer.prepare(mSource);
+    }
+
+    /**
+     * Seeks in the time-shift buffer of the live stream being played.
+     *
+     * @param timeMs wall clock time to seek to
+     * @return whether the stream has an index to seek with
+     */
+    public boolean seekToTime(long timeMs) {
+        if (!mPrepared || mIndex != null) {
+            return false;
+        }
+        long position = mSourceFactory.getPositionForTime(timeMs);
+        if (position == C.POSITION_UNSET) {
+            return false;
         }
+        mSourceFactory.setStartPosition(position);
+        mSource = createMediaSource();
+        mExoPlayer.prepare(mSource);
+        return true;
+    }
+
+    /**
+     * Returns the wall clock time of the oldest data in the time-shift buffer of the live stream
+     * being played, or {@link C#TIME_UNSET}.
+     */
+    public long getStartTimeMs() {
+        return mSourceFactory.getStartTimeMs();
+    }
+
+    /**
+     * Returns the wall clock time of the live stream being played at the current position, or
+     * {@link C#TIME_UNSET}.
+     */
+    public long getCurrentTimeMs() {
+        long readTimeMs = mSourceFactory.getLastReadTimeMs();
+        if (mExoPlayer == null || readTimeMs == C.TIME_UNSET) {
+            return C.TIME_UNSET;
+        }
+        // The data last read is ahead of the playback by what the player has buffered.
+        long bufferedMs = mExoPlayer.getBufferedPosition() - mExoPlayer.getCurrentPosition();
+        return readTimeMs - Math.max(0, bufferedMs);
     }
 
     public interface Listener {
@@ -54,6 +119,27 @@ public class TsPlayer {
         mListener = listener;
     }
 
+    /**
+     * Sets whether one player is kept for all the playbacks, so that a tune only swaps the media
+     * source instead of setting up a new player. It is on by default.
+     */
+    public void setReusePlayer(boolean reusePlayer) {
+        mReusePlayer = reusePlayer;
+        if (!reusePlayer && !mPrepared) {
+            release();
+        }
+    }
+
+    /**
+     * Sets the lower bounds of the buffering thresholds, e.g. {@link LiveBufferThresholds#LOW_LATENCY}.
+     */
+    public void setLoadControlPreset(LiveBufferThresholds preset) {
+        mLoadControlPreset = preset;
+        if (mLoadControl != null) {
+            mLoadControl.setPreset(preset);
+        }
+    }
+
     public void setDataSourceFactory(TsDataSourceFactory dataSourceManager) {
         mSourceFactory = dataSourceManager;
     }
@@ -69,6 +155,7 @@ public class TsPlayer {
     }
 
     public void start() {
+        mStartTimeMs = SystemClock.elapsedRealtime();
         if (mSurface == null) {
             mWaitForSurface = true;
         } else {
@@ -90,47 +177,84 @@ public class TsPlayer {
     }
 
     public void stop() {
+        if (!mReusePlayer) {
+            release();
+            return;
+        }
+        if (mExoPlayer != null && mPrepared) {
+            mExoPlayer.stop();
+            // The surface may be going away.
+            mExoPlayer.setVideoSurface(null);
+        }
+        mPrepared = false;
+        mWaitForSurface = false;
+    }
+
+    /**
+     * Stops playback and releases the player.
+     */
+    public void release() {
         if (mExoPlayer != null) {
             mExoPlayer.release();
             mExoPlayer = null;
+            mLoadControl = null;
         }
+        mPrepared = false;
         mWaitForSurface = false;
     }
 
     public void setDataSource(String uri) {
-        mSource = new ExtractorMediaSource(Uri.parse(uri),
+        mUri = Uri.parse(uri);
+        mIndex = "file".equals(mUri.getScheme()) ? TsIndex.read(new File(mUri.getPath())) : null;
+        mPositionOffsetMs = 0;
+        mSourceFactory.setStartPosition(C.POSITION_UNSET);
+        mSource = createMediaSource();
+    }
+
+    private MediaSource createMediaSource() {
+        return new ExtractorMediaSource(mUri,
                 mSourceFactory,
                 new DefaultExtractorsFactory(), null, null);
     }
 
     private void play() {
-        mExoPlayer = ExoPlayerFactory.newSimpleInstance(mContext,
-                new DefaultTrackSelector(null),
-                new DefaultLoadControl(
-                        new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
-                        DEFAULT_MIN_BUFFER_MS / 5, DEFAULT_MAX_BUFFER_MS / 5,
-                        DEFAULT_BUFFER_FOR_PLAYBACK_MS / 5,
-                        DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS / 5), null);
-
-        mExoPlayer.setVideoListener(new SimpleExoPlayer.VideoListener() {
+        mPlayStarted = false;
+        mPlayerReused = mExoPlayer != null;
+        if (mExoPlayer == null) {
+            mExoPlayer = createPlayer();
+        }
+        mExoPlayer.setVideoSurface(mSurface);
+        mExoPlayer.prepare(mSource);
+        mExoPlayer.setPlayWhenReady(true);
+        mPrepared = true;
+    }
+
+    private SimpleExoPlayer createPlayer() {
+        mLoadControl = new LiveLoadControl(mSourceFactory, mLoadControlPreset);
+        SimpleExoPlayer player = ExoPlayerFactory.newSimpleInstance(mContext,
+                new DefaultTrackSelector(null), mLoadControl, null);
+
+        player.setVideoListener(new SimpleExoPlayer.VideoListener() {
             @Override
             public void onRenderedFirstFrame() {
-                if (mListener != null) {
+                // Also called after a seek in a recording, which prepares the player again.
+                if (mListener != null && !mPlayStarted) {
+                    mPlayStarted = true;
+                    Log.i(TAG, "First frame " + (SystemClock.elapsedRealtime() - mStartTimeMs)
+                            + " ms after start with " + (mPlayerReused ? "reused" : "new")
+                            + " player");
                     mListener.onPlayStarted();
                 }
             }
             @Override
             public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {}
         });
-
-        mExoPlayer.setVideoSurface(mSurface);
-        mExoPlayer.prepare(mSource);
-        mExoPlayer.setPlayWhenReady(true);
+        return player;
     }
 
     public long getCurrentPosition() {
         if (mExoPlayer != null) {
-            return mExoPlayer.getCurrentPosition();
+            return mPositionOffsetMs + mExoPlayer.getCurrentPosition();
         } else {
             return 0;
         }
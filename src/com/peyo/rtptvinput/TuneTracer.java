@@ -0,0 +1,182 @@
+package com.peyo.rtptvinput;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.peyo.rtptvinput.source.TsDataSource;
+import com.peyo.rtptvinput.source.TsDataSourceFactory;
+
+import java.io.PrintWriter;
+
+/**
+ * Times the milestones of each tune of a session, from the tune request to the first rendered
+ * frame, and keeps a histogram of each of them.
+ * </p>
+ * The stream milestones are taken from the streamer when the first frame is rendered. A stream
+ * which was already warm reached them before the tune, and they count as reached at the tune.
+ */
+class TuneTracer {
+    private static final String TAG = "TuneTracer";
+
+    static final int TUNE = 0;
+    static final int SERVICE_ID = 1;
+    static final int JOINED = 2;
+    static final int FIRST_PACKET = 3;
+    static final int FIRST_SYNC = 4;
+    static final int PAT_PMT = 5;
+    static final int FIRST_KEY_FRAME = 6;
+    static final int FIRST_FRAME = 7;
+    private static final int MILESTONE_COUNT = 8;
+
+    private static final String[] NAMES = { "tune", "service id", "joined", "first packet",
+            "first sync", "pat/pmt", "first key frame", "first frame" };
+    // The stream milestone of each milestone, or -1.
+    private static final int[] STREAM_MILESTONES = { -1, -1, TsDataSource.MILESTONE_JOINED,
+            TsDataSource.MILESTONE_FIRST_PACKET, TsDataSource.MILESTONE_FIRST_SYNC,
+            TsDataSource.MILESTONE_PAT_PMT, TsDataSource.MILESTONE_FIRST_KEY_FRAME, -1 };
+    // Upper bounds of the histogram buckets, the last bucket is for anything longer.
+    private static final long[] BUCKET_LIMITS_MS =
+            { 50, 100, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 10000 };
+
+    private final long[] mTimesMs = new long[MILESTONE_COUNT];
+    private final Histogram[] mHistograms = new Histogram[MILESTONE_COUNT];
+    private boolean mTuning;
+    private int mCompletedCount;
+    private int mAbandonedCount;
+
+    TuneTracer() {
+        for (int i = 0; i < MILESTONE_COUNT; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Starts timing a tune. A tune which has not rendered a frame yet is abandoned.
+     *
+     * @param tuneTimeMs {@link SystemClock#elapsedRealtime} when the tune was requested
+     */
+    synchronized void start(long tuneTimeMs) {
+        if (mTuning) {
+            mAbandonedCount++;
+        }
+        mTuning = true;
+        for (int i = 0; i < MILESTONE_COUNT; i++) {
+            mTimesMs[i] = C.TIME_UNSET;
+        }
+        mTimesMs[TUNE] = tuneTimeMs;
+    }
+
+    /**
+     * Abandons the tune being timed, e.g. when a recording is played instead.
+     */
+    synchronized void cancel() {
+        if (mTuning) {
+            mAbandonedCount++;
+        }
+        mTuning = false;
+    }
+
+    /**
+     * Records that the tune being timed reached {@code milestone}, if it had not already.
+     */
+    synchronized void mark(int milestone) {
+        if (mTuning && mTimesMs[milestone] == C.TIME_UNSET) {
+            mTimesMs[milestone] = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Records the first rendered frame, takes the stream milestones from {@code sourceFactory}
+     * and adds the tune to the histograms.
+     */
+    synchronized void finish(TsDataSourceFactory sourceFactory) {
+        if (!mTuning) {
+            return;
+        }
+        mark(FIRST_FRAME);
+        mTuning = false;
+        long tuneTimeMs = mTimesMs[TUNE];
+        StringBuilder builder = new StringBuilder("Tune");
+        for (int i = 0; i < MILESTONE_COUNT; i++) {
+            if (STREAM_MILESTONES[i] >= 0) {
+                long timeMs = sourceFactory.getMilestoneTimeMs(STREAM_MILESTONES[i]);
+                if (timeMs != C.TIME_UNSET) {
+                    mTimesMs[i] = Math.max(timeMs, tuneTimeMs);
+                }
+            }
+            if (mTimesMs[i] != C.TIME_UNSET) {
+                long elapsedMs = mTimesMs[i] - tuneTimeMs;
+                mHistograms[i].add(elapsedMs);
+                builder.append(' ').append(NAMES[i]).append('=').append(elapsedMs);
+            }
+        }
+        mCompletedCount++;
+        Log.i(TAG, builder.toString());
+    }
+
+    /**
+     * Prints the histograms, in milliseconds from the tune request.
+     */
+    synchronized void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "tunes: " + mCompletedCount + " completed, " + mAbandonedCount
+                + " abandoned");
+        if (mCompletedCount == 0) {
+            return;
+        }
+        StringBuilder header = new StringBuilder(prefix).append(String.format("%-16s", "ms"));
+        for (long limit : BUCKET_LIMITS_MS) {
+            header.append(String.format(" %6s", "<" + limit));
+        }
+        header.append(String.format(" %6s %6s %6s %6s", "more", "p50", "p90", "max"));
+        writer.println(header);
+        for (int i = 0; i < MILESTONE_COUNT; i++) {
+            if (mHistograms[i].mCount > 0) {
+                writer.println(prefix + String.format("%-16s", NAMES[i]) + mHistograms[i]);
+            }
+        }
+    }
+
+    private static class Histogram {
+        private final int[] mBuckets = new int[BUCKET_LIMITS_MS.length + 1];
+        private int mCount;
+        private long mMaxMs;
+
+        void add(long valueMs) {
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_MS.length && valueMs >= BUCKET_LIMITS_MS[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+            mCount++;
+            mMaxMs = Math.max(mMaxMs, valueMs);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the percentile, or the maximum if that
+         * is lower.
+         */
+        long getPercentileMs(int percent) {
+            int rank = (mCount * percent + 99) / 100;
+            int count = 0;
+            for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+                count += mBuckets[i];
+                if (count >= rank) {
+                    return Math.min(BUCKET_LIMITS_MS[i], mMaxMs);
+                }
+            }
+            return mMaxMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int bucket : mBuckets) {
+                builder.append(String.format(" %6d", bucket));
+            }
+            builder.append(String.format(" %6d %6d %6d", getPercentileMs(50), getPercentileMs(90),
+                    mMaxMs));
+            return builder.toString();
+        }
+    }
+}
@@ -37,8 +37,9 @@ import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
@@ -60,6 +61,10 @@ import java.util.Locale;
  * loop. Program and advertisement start and end times will be shifted as necessary for looping
  * content. This is introduced to simulate a live channel in this sample.
  * </p>
+ * transport-stream-id : The transport_stream_id of the multi-program stream the channel is one
+ * program of, whose program_number is taken to be the service-id of the channel. This should be
+ * omitted for a channel which has a stream of its own.
+ * </p>
  * video-src : The video URL for the given program. This can be omitted if the xml will be used only
  * for the program guide update.
  * </p>
@@ -109,6 +114,7 @@ public class XmlTvParser {
     private static final String TAG_AD = "advertisement";
     private static final String TAG_REQUEST_URL = "request-url";
     private static final String TAG_SERVICE_ID = "service-id";
+    private static final String TAG_TRANSPORT_STREAM_ID = "transport-stream-id";
 
     private static final String ATTR_ID = "id";
     private static final String ATTR_START = "start";
@@ -155,6 +161,18 @@ public class XmlTvParser {
         return null;
     }
 
+    /**
+     * Receives the channels and programs of an XMLTV document as they are parsed.
+     */
+    public interface Listener {
+        void onChannel(Channel channel);
+
+        /**
+         * Called for each program, whose channel id is the original network id of its channel.
+         */
+        void onProgram(Program program);
+    }
+
     /**
      * Reads an InputStream and parses the data to identify channels and programs
      *
@@ -162,18 +180,52 @@ public class XmlTvParser {
      * @return A TvListing containing your channels and programs
      */
     public static TvListing parse(@NonNull InputStream inputStream) throws XmlTvParseException {
-        return parse(inputStream, Xml.newPullParser());
+        return parse(inputStream, 0, Long.MAX_VALUE);
     }
 
     /**
-     * Reads an InputStream and parses the data to identify channels and programs
+     * Reads an InputStream and parses the data to identify channels and the programs which
+     * overlap a time window
      *
      * @param inputStream The InputStream of your data
-     * @param parser The XmlPullParser the developer selects to parse this data
+     * @param startMs The start of the window
+     * @param endMs The end of the window
      * @return A TvListing containing your channels and programs
      */
-    private static TvListing parse(@NonNull InputStream inputStream, @NonNull XmlPullParser parser)
+    public static TvListing parse(@NonNull InputStream inputStream, long startMs, long endMs)
             throws XmlTvParseException {
+        TvListingBuilder builder = new TvListingBuilder();
+        if (!parse(inputStream, startMs, endMs, builder)) {
+            return null;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads an InputStream and hands the channels and the programs which overlap a time window
+     * to a listener as they are parsed, without holding on to them. The programs outside the
+     * window are skipped without being built.
+     *
+     * @param inputStream The InputStream of your data
+     * @param startMs The start of the window
+     * @param endMs The end of the window
+     * @param listener The listener which receives the channels and programs
+     * @return Whether the whole document was parsed
+     */
+    public static boolean parse(@NonNull InputStream inputStream, long startMs, long endMs,
+            @NonNull Listener listener) throws XmlTvParseException {
+        return parse(inputStream, Xml.newPullParser(), startMs, endMs, listener);
+    }
+
+    /**
+     * Reads an InputStream and parses the data to identify channels and programs
+     *
+     * @param inputStream The InputStream of your data
+     * @param parser The XmlPullParser the developer selects to parse this data
+     * @return Whether the whole document was parsed
+     */
+    private static boolean parse(@NonNull InputStream inputStream, @NonNull XmlPullParser parser,
+            long startMs, long endMs, @NonNull Listener listener) throws XmlTvParseException {
         try {
             parser.setInput(inputStream, null);
             int eventType = parser.next();
@@ -181,28 +233,29 @@ public class XmlTvParser {
                 throw new XmlTvParseException(
                         "Input stream does not contain an XMLTV description");
             }
-            return parseTvListings(parser);
+            parseTvListings(parser, startMs, endMs, listener);
+            return true;
         } catch (XmlPullParserException | IOException | ParseException e) {
             Log.w(TAG, e.getMessage());
         }
-        return null;
+        return false;
     }
 
-    private static TvListing parseTvListings(XmlPullParser parser)
-            throws IOException, XmlPullParserException, ParseException {
-        List<Channel> channels = new ArrayList<>();
-        List<Program> programs = new ArrayList<>();
+    private static void parseTvListings(XmlPullParser parser, long startMs, long endMs,
+            Listener listener) throws IOException, XmlPullParserException, ParseException {
         while (parser.next() != XmlPullParser.END_DOCUMENT) {
             if (parser.getEventType() == XmlPullParser.START_TAG
                     && TAG_CHANNEL.equalsIgnoreCase(parser.getName())) {
-                channels.add(parseChannel(parser));
+                listener.onChannel(parseChannel(parser));
             }
             if (parser.getEventType() == XmlPullParser.START_TAG
                     && TAG_PROGRAM.equalsIgnoreCase(parser.getName())) {
-                programs.add(parseProgram(parser));
+                Program program = parseProgram(parser, startMs, endMs);
+                if (program != null) {
+                    listener.onProgram(program);
+                }
             }
         }
-        return new TvListing(channels, programs);
     }
 
     private static Channel parseChannel(XmlPullParser parser)
@@ -221,6 +274,7 @@ public class XmlTvParser {
         String displayName = null;
         String displayNumber = null;
         String serviceId = null;
+        String transportStreamId = null;
         XmlTvIcon icon = null;
         XmlTvAppLink appLink = null;
         Advertisement advertisement = null;
@@ -235,6 +289,9 @@ public class XmlTvParser {
                 } else if (TAG_SERVICE_ID.equalsIgnoreCase(parser.getName())
                         && serviceId == null) {
                     serviceId = parser.nextText();
+                } else if (TAG_TRANSPORT_STREAM_ID.equalsIgnoreCase(parser.getName())
+                        && transportStreamId == null) {
+                    transportStreamId = parser.nextText();
                 } else if (TAG_ICON.equalsIgnoreCase(parser.getName()) && icon == null) {
                     icon = parseIcon(parser);
                 } else if (TAG_APP_LINK.equalsIgnoreCase(parser.getName()) && appLink == null) {
@@ -259,7 +316,8 @@ public class XmlTvParser {
                 .setDisplayNumber(displayNumber)
                 .setOriginalNetworkId(id.hashCode())
                 .setInternalProviderData(internalProviderData)
-                .setTransportStreamId(0)
+                .setTransportStreamId(transportStreamId == null
+                        ? 0 : Integer.parseInt(transportStreamId))
                 .setServiceId(Integer.parseInt(serviceId));
         if (icon != null) {
             builder.setChannelLogo(icon.src);
@@ -280,7 +338,10 @@ public class XmlTvParser {
         return builder.build();
     }
 
-    private static Program parseProgram(XmlPullParser parser)
+    /**
+     * Parses a program, or skips it and returns null if it does not overlap the window.
+     */
+    private static Program parseProgram(XmlPullParser parser, long startMs, long endMs)
             throws IOException, XmlPullParserException, ParseException {
         String channelId = null;
         Long startTimeUtcMillis = null;
@@ -308,6 +369,11 @@ public class XmlTvParser {
                 }
             }
         }
+        if (startTimeUtcMillis != null && endTimeUtcMillis != null
+                && (endTimeUtcMillis <= startMs || startTimeUtcMillis >= endMs)) {
+            skip(parser);
+            return null;
+        }
         String title = null;
         String description = null;
         XmlTvIcon icon = null;
@@ -362,6 +428,25 @@ public class XmlTvParser {
                 .build();
     }
 
+    /**
+     * Skips the element whose start tag was just read, with everything in it.
+     */
+    private static void skip(XmlPullParser parser) throws IOException, XmlPullParserException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    return;
+            }
+        }
+    }
+
     private static XmlTvIcon parseIcon(XmlPullParser parser)
             throws IOException, XmlPullParserException {
         String src = null;
@@ -486,33 +571,86 @@ public class XmlTvParser {
         return builder.setType(type).setRequestUrl(requestUrl).build();
     }
 
+    /**
+     * Collects the channels and programs of a document into a {@link TvListing}, grouping the
+     * programs by channel as they are parsed.
+     */
+    private static class TvListingBuilder implements Listener {
+        private final List<Channel> mChannels = new ArrayList<>();
+        // Programs grouped by the hash of their XMLTV channel id.
+        private final HashMap<Integer, List<Program>> mProgramMap = new HashMap<>();
+
+        @Override
+        public void onChannel(Channel channel) {
+            mChannels.add(channel);
+        }
+
+        @Override
+        public void onProgram(Program program) {
+            int channelId = (int) program.getChannelId();
+            List<Program> programsForChannel = mProgramMap.get(channelId);
+            if (programsForChannel == null) {
+                programsForChannel = new ArrayList<>();
+                mProgramMap.put(channelId, programsForChannel);
+            }
+            programsForChannel.add(program);
+        }
+
+        TvListing build() {
+            return new TvListing(mChannels, mProgramMap);
+        }
+    }
+
     /**
      * Contains a list of channels and corresponding programs that have been generated from parsing
      * an XML TV file.
      */
     public static class TvListing {
+        private static final Comparator<Program> START_TIME_ORDER = new Comparator<Program>() {
+            @Override
+            public int compare(Program a, Program b) {
+                return Long.compare(a.getStartTimeUtcMillis(), b.getStartTimeUtcMillis());
+            }
+        };
+
         private List<Channel> mChannels;
-        private List<Program> mPrograms;
+        // Programs of each channel by start time.
         private HashMap<Integer, List<Program>> mProgramMap;
+        // Latest end time of the programs of each channel up to each index, which only grows.
+        private HashMap<Integer, long[]> mMaxEndTimeMap;
 
-        private TvListing(List<Channel> channels, List<Program> programs) {
+        /**
+         * @param programMap the programs grouped by the channel id they were parsed with, which
+         *         is the original network id of their channel
+         */
+        private TvListing(List<Channel> channels, HashMap<Integer, List<Program>> programMap) {
             this.mChannels = channels;
-            this.mPrograms = new ArrayList<>(programs);
             // Place programs into the epg map
             mProgramMap = new HashMap<>();
+            mMaxEndTimeMap = new HashMap<>();
             for (Channel channel: channels) {
-                List<Program> programsForChannel = new ArrayList<>();
-                Iterator<Program> programIterator = programs.iterator();
-                while (programIterator.hasNext()) {
-                    Program program = programIterator.next();
-                    if (program.getChannelId() == channel.getOriginalNetworkId()) {
-                        programsForChannel.add(new Program.Builder(program)
+                // Removed, so that a channel whose id is repeated does not get them twice.
+                List<Program> programsForChannel =
+                        programMap.remove(channel.getOriginalNetworkId());
+                if (programsForChannel == null) {
+                    programsForChannel = new ArrayList<>();
+                }
+                // Replaced in place, so that a single copy of the programs is held at a time.
+                for (int i = 0; i < programsForChannel.size(); i++) {
+                    programsForChannel.set(i, new Program.Builder(programsForChannel.get(i))
                             .setChannelId(channel.getId())
                             .build());
-                        programIterator.remove();
-                    }
+                }
+                Collections.sort(programsForChannel, START_TIME_ORDER);
+                long[] maxEndTimes = new long[programsForChannel.size()];
+                long maxEndTime = Long.MIN_VALUE;
+                for (int i = 0; i < maxEndTimes.length; i++) {
+                    maxEndTime = Math.max(maxEndTime,
+                            programsForChannel.get(i).getEndTimeUtcMillis());
+                    maxEndTimes[i] = maxEndTime;
                 }
                 mProgramMap.put(channel.getOriginalNetworkId(), programsForChannel);
+                mMaxEndTimeMap.put(channel.getOriginalNetworkId(), maxEndTimes);
             }
         }
 
@@ -524,10 +662,18 @@ public class XmlTvParser {
         }
 
         /**
-         * @return All programs found by the XmlTvParser.
+         * Returns the programs of the channels found by the XmlTvParser, channel by channel, as
+         * they are returned by {@link #getPrograms(Channel)}: their channel ids are those of
+         * their channels, and programs of a channel which is not in the document are left out.
+         * The list is built on each call, as no flat copy of the programs is kept.
+         * @return All programs found by the XmlTvParser for its channels.
          */
         public List<Program> getAllPrograms() {
-            return mPrograms;
+            List<Program> programs = new ArrayList<>();
+            for (Channel channel : mChannels) {
+                programs.addAll(getPrograms(channel));
+            }
+            return programs;
         }
 
         /**
@@ -538,6 +684,54 @@ public class XmlTvParser {
         public List<Program> getPrograms(Channel channel) {
             return mProgramMap.get(channel.getOriginalNetworkId());
         }
+
+        /**
+         * Returns the programs found by the XmlTvParser for a given channel which overlap a time
+         * window. A channel which repeats its programs gets all of them, as they are shifted
+         * into the window when they are synced.
+         * @param channel The channel to obtain programs for.
+         * @param startMs The start of the window.
+         * @param endMs The end of the window.
+         * @return A list of programs that belong to that channel, by start time.
+         */
+        public List<Program> getPrograms(Channel channel, long startMs, long endMs) {
+            List<Program> programs = mProgramMap.get(channel.getOriginalNetworkId());
+            if (programs == null || (channel.getInternalProviderData() != null
+                    && channel.getInternalProviderData().isRepeatable())) {
+                return programs;
+            }
+            long[] maxEndTimes = mMaxEndTimeMap.get(channel.getOriginalNetworkId());
+            // The first program which may end after the start, up to the first one which starts
+            // at the end.
+            int from = 0;
+            int to = maxEndTimes.length;
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (maxEndTimes[middle] <= startMs) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            to = programs.size();
+            int low = from;
+            while (low < to) {
+                int middle = (low + to) >>> 1;
+                if (programs.get(middle).getStartTimeUtcMillis() < endMs) {
+                    low = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            List<Program> window = new ArrayList<>(to - from);
+            for (Program program : programs.subList(from, to)) {
+                // Only a program overlapping a longer one before it can end before the start.
+                if (program.getEndTimeUtcMillis() > startMs) {
+                    window.add(program);
+                }
+            }
+            return window;
+        }
     }
 
     private static class XmlTvIcon {
@@ -0,0 +1,44 @@
+package com.peyo.rtptvinput.source;
+
+/**
+ * Snapshot of how a stream is arriving from the network.
+ */
+public class IngestStats {
+    private final long mBitrate;
+    private final long mJitterUs;
+    private final long mDelayVariationUs;
+
+    IngestStats(long bitrate, long jitterUs, long delayVariationUs) {
+        mBitrate = bitrate;
+        mJitterUs = jitterUs;
+        mDelayVariationUs = delayVariationUs;
+    }
+
+    /**
+     * Returns the recent ingest rate in bits per second, or 0 if it is not known yet.
+     */
+    public long getBitrate() {
+        return mBitrate;
+    }
+
+    /**
+     * Returns the interarrival jitter of the RTP packets as defined by RFC 3550.
+     */
+    public long getJitterUs() {
+        return mJitterUs;
+    }
+
+    /**
+     * Returns how much later than the earliest the RTP packets of the last few seconds arrived,
+     * relative to when they were sent.
+     */
+    public long getDelayVariationUs() {
+        return mDelayVariationUs;
+    }
+
+    @Override
+    public String toString() {
+        return "bitrate=" + mBitrate + " jitterUs=" + mJitterUs + " delayVariationUs="
+                + mDelayVariationUs;
+    }
+}
@@ -0,0 +1,77 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transport of TS packets sent straight in UDP datagrams, without an RTP header. Nothing tells
+ * a lost or reordered datagram apart, so the payloads are committed as they arrive.
+ */
+class RawTsTransport implements StreamTransport {
+    private static final String TAG = "RawTsTransport";
+
+    private final RingBuffer mRing;
+    private volatile long mPacketsReceived;
+    private volatile long mPacketsDiscarded;
+
+    RawTsTransport(RingBuffer ring) {
+        mRing = ring;
+    }
+
+    @Override
+    public int getHeaderSize() {
+        return 0;
+    }
+
+    @Override
+    public void onPacket(ByteBuffer header, int length, long arrivalNs) {
+        mPacketsReceived++;
+        if (mRing.getPending(0) != TsPacketAligner.SYNC_BYTE) {
+            if (mPacketsDiscarded++ == 0) {
+                boolean rtp = length > RtpDepacketizer.FIXED_HEADER_SIZE
+                        && (mRing.getPending(0) & 0xc0) == 0x80
+                        && mRing.getPending(RtpDepacketizer.FIXED_HEADER_SIZE)
+                                == TsPacketAligner.SYNC_BYTE;
+                Log.w(TAG, rtp ? "Datagrams carry RTP, the stream should be an rtp:// one"
+                        : "Datagram does not start with a TS packet");
+            }
+            return;
+        }
+        mRing.commit(0, length);
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public long getJitterUs() {
+        return 0;
+    }
+
+    @Override
+    public long getDelayVariationUs() {
+        return 0;
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    @Override
+    public long getPacketsLost() {
+        return 0;
+    }
+
+    @Override
+    public long getPacketsReordered() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "received=" + mPacketsReceived + " discarded=" + mPacketsDiscarded;
+    }
+}
@@ -0,0 +1,359 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circular byte buffer which is written by a single ingest thread and read by any number of
+ * readers.
+ * </p>
+ * The write position is published through a volatile sequence after the data is copied in, so
+ * readers copy out of the buffer without taking a shared lock. A reader only blocks when it has
+ * caught up with the writer, and the writer only touches the monitor when a reader is parked.
+ * </p>
+ * The writer appends into a pending region which becomes visible to the readers on
+ * {@link #publish()}, so a batch of packets costs a single publication. A {@link Filter} may
+ * drop part of the data as it is appended.
+ */
+class RingBuffer {
+    private static final String TAG = "RingBuffer";
+    private static final long PARK_TIMEOUT_MS = 100;
+    private static final int MOVE_CHUNK_SIZE = 4096;
+
+    /** Backing store on the Java heap. */
+    static final int STORAGE_HEAP = 0;
+    /** Backing store allocated with {@link ByteBuffer#allocateDirect}. */
+    static final int STORAGE_DIRECT = 1;
+    /** Backing store mapped from an unlinked temporary file. */
+    static final int STORAGE_MAPPED_FILE = 2;
+
+    /**
+     * Decides which of the data appended by the writer is kept.
+     */
+    interface Filter {
+        /**
+         * Filters the {@code length} bytes which start {@code offset} bytes into the writable
+         * region of {@code ring}, moving what is kept to the start of the region.
+         *
+         * @return the number of bytes kept
+         */
+        int filter(RingBuffer ring, int offset, int length);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMaxPendingLength;
+    // Views used by the writer thread to hand out writable regions.
+    private final ByteBuffer mHeadView;
+    private final ByteBuffer mTailView;
+    // Views used by the writer thread to hand out published regions.
+    private final ByteBuffer mPublishedHeadView;
+    private final ByteBuffer mPublishedTailView;
+    private long mPendingPosition;
+    private final byte[] mMoveBuffer = new byte[MOVE_CHUNK_SIZE];
+    private final AtomicLong mWritePosition = new AtomicLong(0);
+    private final AtomicInteger mParkedReaders = new AtomicInteger(0);
+    private final Object mParkMonitor = new Object();
+    private final AtomicLong mOverwriteCount = new AtomicLong(0);
+    // Only incremented by the writer thread.
+    private volatile long mReaderWakeupCount;
+    private volatile boolean mClosed;
+    private Filter mFilter;
+
+    /**
+     * @param buffer backing store; its whole capacity is used
+     * @param maxPendingLength the most data the writer appends between two {@link #publish()}
+     */
+    RingBuffer(ByteBuffer buffer, int maxPendingLength) {
+        mBuffer = buffer;
+        mCapacity = buffer.capacity();
+        mMaxPendingLength = maxPendingLength;
+        mHeadView = mBuffer.duplicate();
+        mTailView = mBuffer.duplicate();
+        mPublishedHeadView = mBuffer.duplicate();
+        mPublishedTailView = mBuffer.duplicate();
+    }
+
+    /**
+     * Allocates a backing store for a ring buffer.
+     *
+     * @param storage one of {@link #STORAGE_HEAP}, {@link #STORAGE_DIRECT} or
+     *         {@link #STORAGE_MAPPED_FILE}
+     * @param capacity size of the buffer in bytes
+     */
+    static ByteBuffer allocate(int storage, int capacity) throws IOException {
+        switch (storage) {
+            case STORAGE_DIRECT:
+                return ByteBuffer.allocateDirect(capacity);
+            case STORAGE_MAPPED_FILE:
+                File file = File.createTempFile("ring", ".buf");
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(capacity);
+                    return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                } finally {
+                    // The mapping stays valid; the space is returned when it is unmapped.
+                    if (!file.delete()) {
+                        Log.w(TAG, "Cannot delete " + file);
+                    }
+                }
+            default:
+                return ByteBuffer.allocate(capacity);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written since the buffer was created.
+     */
+    long getWritePosition() {
+        return mWritePosition.get();
+    }
+
+    /**
+     * Returns the oldest position which is not overwritten yet.
+     */
+    long getStartPosition() {
+        return Math.max(0, mWritePosition.get() + mMaxPendingLength - mCapacity);
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns how many reads failed because the writer had overwritten the data.
+     */
+    long getOverwriteCount() {
+        return mOverwriteCount.get();
+    }
+
+    /**
+     * Returns how many times the writer woke up parked readers.
+     */
+    long getReaderWakeupCount() {
+        return mReaderWakeupCount;
+    }
+
+    /**
+     * Sets the filter of the appended data. Must be called before the writer starts.
+     */
+    void setFilter(Filter filter) {
+        mFilter = filter;
+    }
+
+    /**
+     * Appends data to the pending region. Must only be called from the writer thread.
+     */
+    void write(byte[] data, int offset, int length) {
+        putPending(0, data, offset, length);
+        commit(0, length);
+    }
+
+    /**
+     * Sets up {@code regions[index]} and {@code regions[index + 1]} as views of the next
+     * {@code length} bytes after the pending region, so that a channel can scatter data straight
+     * into the buffer. The data is appended by a following {@link #commit}. Must only be called
+     * from the writer thread.
+     */
+    void getWritableRegions(ByteBuffer[] regions, int index, int length) {
+        setUpRegions(0, length);
+        regions[index] = mHeadView;
+        regions[index + 1] = mTailView;
+    }
+
+    private void setUpRegions(int offset, int length) {
+        if (mPendingPosition + offset + length - mWritePosition.get() > mMaxPendingLength) {
+            throw new IllegalStateException("Pending data exceeds " + mMaxPendingLength
+                    + " bytes, publish() first");
+        }
+        int start = (int) ((mPendingPosition + offset) % mCapacity);
+        int firstLength = Math.min(length, mCapacity - start);
+        mHeadView.limit(start + firstLength).position(start);
+        mTailView.limit(length - firstLength).position(0);
+    }
+
+    /**
+     * Returns a byte of the writable region set up by {@link #getWritableRegions}.
+     */
+    byte getPending(int offset) {
+        return mBuffer.get((int) ((mPendingPosition + offset) % mCapacity));
+    }
+
+    /**
+     * Copies bytes out of the writable region set up by {@link #getWritableRegions}.
+     */
+    void copyPending(int offset, byte[] buffer, int bufferOffset, int length) {
+        setUpRegions(offset, length);
+        int firstLength = mHeadView.remaining();
+        mHeadView.get(buffer, bufferOffset, firstLength);
+        mTailView.get(buffer, bufferOffset + firstLength, length - firstLength);
+    }
+
+    /**
+     * Copies bytes into the writable region set up by {@link #getWritableRegions}.
+     */
+    void putPending(int offset, byte[] buffer, int bufferOffset, int length) {
+        setUpRegions(offset, length);
+        int firstLength = mHeadView.remaining();
+        mHeadView.put(buffer, bufferOffset, firstLength);
+        mTailView.put(buffer, bufferOffset + firstLength, length - firstLength);
+    }
+
+    /**
+     * Moves bytes of the writable region set up by {@link #getWritableRegions} towards its
+     * start, {@code to} being at most {@code from}.
+     */
+    void movePending(int from, int to, int length) {
+        // In chunks from the start, so that a chunk only overwrites bytes which were moved.
+        for (int moved = 0; moved < length; moved += MOVE_CHUNK_SIZE) {
+            int chunkLength = Math.min(MOVE_CHUNK_SIZE, length - moved);
+            copyPending(from + moved, mMoveBuffer, 0, chunkLength);
+            putPending(to + moved, mMoveBuffer, 0, chunkLength);
+        }
+    }
+
+    /**
+     * Appends {@code length} bytes which start {@code offset} bytes into the writable region set
+     * up by {@link #getWritableRegions}. The bytes before {@code offset} are dropped, and so is
+     * whatever the filter drops.
+     */
+    void commit(int offset, int length) {
+        if (mFilter != null) {
+            length = mFilter.filter(this, offset, length);
+        } else if (offset > 0) {
+            movePending(offset, 0, length);
+        }
+        mPendingPosition += length;
+    }
+
+    /**
+     * Makes the pending region visible to the readers.
+     */
+    void publish() {
+        if (mPendingPosition == mWritePosition.get()) {
+            return;
+        }
+        // A plain volatile store, not lazySet(): the store has to be ordered before the read of
+        // mParkedReaders, otherwise a reader which is just parking could miss the wake-up.
+        mWritePosition.set(mPendingPosition);
+        if (mParkedReaders.get() > 0) {
+            mReaderWakeupCount++;
+            synchronized (mParkMonitor) {
+                mParkMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sets up {@code regions[0]} and {@code regions[1]} as views of the published data from
+     * {@code from} to {@code to}. Must only be called from the writer thread.
+     */
+    void getPublishedRegions(long from, long to, ByteBuffer[] regions) {
+        int length = (int) (to - from);
+        int start = (int) (from % mCapacity);
+        int firstLength = Math.min(length, mCapacity - start);
+        mPublishedHeadView.limit(start + firstLength).position(start);
+        mPublishedTailView.limit(length - firstLength).position(0);
+        regions[0] = mPublishedHeadView;
+        regions[1] = mPublishedTailView;
+    }
+
+    /**
+     * Creates a reader. Each reader must only be used by one thread at a time.
+     */
+    Reader createReader() {
+        return new Reader();
+    }
+
+    /**
+     * Reads from the buffer through a private view, so that readers of a buffer which is not
+     * backed by an array do not share any state.
+     */
+    class Reader {
+        private final ByteBuffer mView = mBuffer.duplicate();
+        // Only written to keep the copy before the check whether it was overwritten.
+        private volatile int mFence;
+
+        /**
+         * Copies {@code amount} bytes starting at the absolute position {@code pos}, waiting for
+         * the writer if they are not available yet.
+         *
+         * @return {@code amount}, or -1 if the buffer is closed or the data is already overwritten
+         */
+        int readAt(long pos, byte[] buffer, int offset, int amount) {
+            if (isOverwritten(pos)) {
+                mOverwriteCount.incrementAndGet();
+                Log.e(TAG, "Demux is requesting the data which is already overwritten.");
+                return -1;
+            }
+            if (!awaitPosition(pos + amount)) {
+                return -1;
+            }
+
+            int startPos = (int) (pos % mCapacity);
+            int firstLength = Math.min(amount, mCapacity - startPos);
+            mView.limit(startPos + firstLength).position(startPos);
+            mView.get(buffer, offset, firstLength);
+            if (firstLength < amount) {
+                mView.limit(amount - firstLength).position(0);
+                mView.get(buffer, offset + firstLength, amount - firstLength);
+            }
+            // Nothing stops the writer while we copy, so check again whether it lapped us. The
+            // reads of the copy may move past a volatile read but not past a volatile write,
+            // which the reread of the write position cannot move before.
+            mFence = 0;
+            if (isOverwritten(pos)) {
+                mOverwriteCount.incrementAndGet();
+                Log.e(TAG, "Data is overwritten while being read.");
+                return -1;
+            }
+            return amount;
+        }
+    }
+
+    /**
+     * Returns whether the data at {@code pos} may already be overwritten by the writer.
+     */
+    boolean isOverwritten(long pos) {
+        // The writer may be filling up to mMaxPendingLength bytes past the published position.
+        return mWritePosition.get() + mMaxPendingLength - pos > mCapacity;
+    }
+
+    private boolean awaitPosition(long position) {
+        while (!mClosed) {
+            if (mWritePosition.get() >= position) {
+                return true;
+            }
+            mParkedReaders.incrementAndGet();
+            try {
+                synchronized (mParkMonitor) {
+                    if (!mClosed && mWritePosition.get() < position) {
+                        mParkMonitor.wait(PARK_TIMEOUT_MS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                mParkedReaders.decrementAndGet();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wakes up all readers and makes subsequent reads fail.
+     */
+    void close() {
+        mClosed = true;
+        synchronized (mParkMonitor) {
+            mParkMonitor.notifyAll();
+        }
+    }
+}
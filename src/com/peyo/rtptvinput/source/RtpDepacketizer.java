@@ -0,0 +1,366 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Strips RTP headers (RFC 3550) and puts the payloads into the {@link RingBuffer} in sequence
+ * number order.
+ * </p>
+ * The fixed header of a packet is passed in separately while the rest of the packet already sits
+ * in the writable region of the ring, so in-order packets are committed without a copy. Packets
+ * which arrive ahead of a gap are copied aside into a small reorder window until the gap is filled
+ * or the window overflows, in which case the missing packets are counted as lost. Duplicates and
+ * packets which arrive after their slot was given up are dropped.
+ */
+class RtpDepacketizer implements StreamTransport {
+    private static final String TAG = "RtpDepacketizer";
+
+    static final int FIXED_HEADER_SIZE = 12;
+    private static final int RTP_VERSION = 2;
+    private static final int SEQUENCE_MODULO = 1 << 16;
+    private static final int HISTORY_SIZE = 1024;
+    // RTP clock rate of MPEG-2 transport streams (RFC 2250).
+    private static final int CLOCK_RATE = 90000;
+    private static final long ARRIVAL_UNKNOWN = Long.MIN_VALUE;
+    // The delay variation is the spread of the transit times of this many seconds.
+    private static final int DELAY_WINDOW_SECONDS = 10;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final RingBuffer mRing;
+    private final int mWindowSize;
+    private final byte[][] mHeldPayloads;
+    private final int[] mHeldLengths;
+    private final int[] mHeldSequences;
+    private final byte[] mSparePayload;
+    private final boolean[] mLostHistory = new boolean[HISTORY_SIZE];
+    private int mHeldCount;
+    private int mExpectedSequence = -1;
+    private int mPayloadType = -1;
+    private boolean mHasTransit;
+    private int mLastTransit;
+    private double mJitter;
+    // Transit times relative to the first one, lowest and highest of each second of the window.
+    private final int[] mMinTransits = new int[DELAY_WINDOW_SECONDS];
+    private final int[] mMaxTransits = new int[DELAY_WINDOW_SECONDS];
+    private int mFirstTransit;
+    private long mTransitSecond;
+
+    private volatile long mPacketsReceived;
+    private volatile long mPacketsLost;
+    private volatile long mPacketsLate;
+    private volatile long mPacketsDuplicated;
+    private volatile long mPacketsReordered;
+    private volatile long mPacketsDiscarded;
+    private volatile long mJitterUs;
+    private volatile long mDelayVariationUs;
+
+    /**
+     * @param ring where the payloads are written to
+     * @param windowSize number of packets which may be held back to wait for a missing one
+     * @param maxPayloadSize the largest payload a packet may carry
+     */
+    RtpDepacketizer(RingBuffer ring, int windowSize, int maxPayloadSize) {
+        mRing = ring;
+        mWindowSize = windowSize;
+        mHeldPayloads = new byte[windowSize][maxPayloadSize];
+        mHeldLengths = new int[windowSize];
+        mHeldSequences = new int[windowSize];
+        mSparePayload = new byte[maxPayloadSize];
+        reset();
+    }
+
+    @Override
+    public int getHeaderSize() {
+        return FIXED_HEADER_SIZE;
+    }
+
+    @Override
+    public void reset() {
+        mExpectedSequence = -1;
+        mPayloadType = -1;
+        mHasTransit = false;
+        mHeldCount = 0;
+        for (int i = 0; i < mWindowSize; i++) {
+            mHeldSequences[i] = -1;
+        }
+    }
+
+    @Override
+    public void onPacket(ByteBuffer header, int length, long arrivalNs) {
+        mPacketsReceived++;
+        handlePacket(header, length, arrivalNs);
+    }
+
+    /**
+     * Handles a packet which was rebuilt from the ones around it rather than received. It does
+     * not count as received, nor for the jitter.
+     */
+    void onRecoveredPacket(ByteBuffer header, int length) {
+        handlePacket(header, length, ARRIVAL_UNKNOWN);
+    }
+
+    /**
+     * Returns whether the packet {@code sequence} is still waited for, i.e. it has neither been
+     * written nor given up.
+     */
+    boolean isAwaited(int sequence) {
+        return mExpectedSequence == -1 || distance(sequence, mExpectedSequence) >= 0;
+    }
+
+    private void handlePacket(ByteBuffer header, int length, long arrivalNs) {
+        int first = header.get(0) & 0xff;
+        int payloadType = header.get(1) & 0x7f;
+        int sequence = ((header.get(2) & 0xff) << 8) | (header.get(3) & 0xff);
+        if (first >> 6 != RTP_VERSION) {
+            mPacketsDiscarded++;
+            return;
+        }
+        if (mPayloadType == -1) {
+            mPayloadType = payloadType;
+        } else if (payloadType != mPayloadType) {
+            mPacketsDiscarded++;
+            return;
+        }
+
+        if (arrivalNs != ARRIVAL_UNKNOWN) {
+            updateJitter(header.getInt(4), arrivalNs);
+        }
+
+        int payloadOffset = (first & 0x0f) * 4;
+        if ((first & 0x10) != 0) {
+            if (payloadOffset + 4 > length) {
+                mPacketsDiscarded++;
+                return;
+            }
+            int extensionLength = ((mRing.getPending(payloadOffset + 2) & 0xff) << 8)
+                    | (mRing.getPending(payloadOffset + 3) & 0xff);
+            payloadOffset += 4 + extensionLength * 4;
+        }
+        int payloadEnd = length;
+        if ((first & 0x20) != 0 && length > 0) {
+            payloadEnd -= mRing.getPending(length - 1) & 0xff;
+        }
+        if (payloadEnd <= payloadOffset) {
+            mPacketsDiscarded++;
+            return;
+        }
+        int payloadLength = payloadEnd - payloadOffset;
+
+        if (mExpectedSequence == -1) {
+            mExpectedSequence = sequence;
+        }
+        int distance = distance(sequence, mExpectedSequence);
+        if (distance == 0) {
+            if (mHeldCount > 0) {
+                mPacketsReordered++;
+            }
+            mRing.commit(payloadOffset, payloadLength);
+            delivered(sequence);
+            drain();
+        } else if (distance < 0 && distance > -HISTORY_SIZE) {
+            if (mLostHistory[sequence % HISTORY_SIZE]) {
+                mLostHistory[sequence % HISTORY_SIZE] = false;
+                mPacketsLate++;
+            } else {
+                mPacketsDuplicated++;
+            }
+        } else if (distance > 0 && distance < mWindowSize) {
+            hold(sequence, payloadOffset, payloadLength);
+        } else {
+            // Held packets have to be written first, and they would overwrite this one in the
+            // writable region.
+            mRing.copyPending(payloadOffset, mSparePayload, 0, payloadLength);
+            if (distance > 0 && distance < HISTORY_SIZE) {
+                while (distance(sequence, mExpectedSequence) >= mWindowSize) {
+                    skip();
+                }
+                int slot = sequence % mWindowSize;
+                System.arraycopy(mSparePayload, 0, mHeldPayloads[slot], 0, payloadLength);
+                mHeldLengths[slot] = payloadLength;
+                mHeldSequences[slot] = sequence;
+                mHeldCount++;
+                drain();
+            } else {
+                // Not a plausible gap, either way; the sender has most likely restarted, so
+                // start over from this packet.
+                Log.w(TAG, "Sequence jumped from " + mExpectedSequence + " to " + sequence);
+                flush();
+                Arrays.fill(mLostHistory, false);
+                mRing.write(mSparePayload, 0, payloadLength);
+                delivered(sequence);
+            }
+        }
+    }
+
+    /**
+     * Updates the interarrival jitter estimate of RFC 3550, section 6.4.1.
+     */
+    private void updateJitter(int timestamp, long arrivalNs) {
+        // Both are in RTP clock units and may wrap around, only the difference matters. The
+        // arrival time goes through microseconds, as nanoseconds times 90 kHz could overflow.
+        int transit = (int) (arrivalNs / 1000 * (CLOCK_RATE / 10000) / 100) - timestamp;
+        if (mHasTransit) {
+            int difference = Math.abs(transit - mLastTransit);
+            mJitter += (difference - mJitter) / 16;
+            mJitterUs = (long) (mJitter * 1000000 / CLOCK_RATE);
+        } else {
+            mFirstTransit = transit;
+            mTransitSecond = arrivalNs / NANOS_PER_SECOND;
+            clearTransits(mTransitSecond - DELAY_WINDOW_SECONDS + 1, mTransitSecond);
+        }
+        mLastTransit = transit;
+        mHasTransit = true;
+        updateDelayVariation(transit - mFirstTransit, arrivalNs / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Adds a transit time to the window of the delay variation, which is worked out again once
+     * a second. Unlike the jitter, which averages the difference of consecutive packets, it
+     * covers a stream which is held up for a while and then arrives in a burst.
+     */
+    private void updateDelayVariation(int transit, long second) {
+        if (second != mTransitSecond) {
+            // Clears the seconds which have left the window, and the ones without packets.
+            clearTransits(Math.max(mTransitSecond + 1, second - DELAY_WINDOW_SECONDS + 1),
+                    second);
+            mTransitSecond = second;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < DELAY_WINDOW_SECONDS; i++) {
+                min = Math.min(min, mMinTransits[i]);
+                max = Math.max(max, mMaxTransits[i]);
+            }
+            mDelayVariationUs = max < min ? 0 : (long) (max - min) * 1000000 / CLOCK_RATE;
+        }
+        int slot = getTransitSlot(second);
+        mMinTransits[slot] = Math.min(mMinTransits[slot], transit);
+        mMaxTransits[slot] = Math.max(mMaxTransits[slot], transit);
+    }
+
+    private void clearTransits(long fromSecond, long toSecond) {
+        for (long second = fromSecond; second <= toSecond; second++) {
+            int slot = getTransitSlot(second);
+            mMinTransits[slot] = Integer.MAX_VALUE;
+            mMaxTransits[slot] = Integer.MIN_VALUE;
+        }
+    }
+
+    private static int getTransitSlot(long second) {
+        return (int) ((second % DELAY_WINDOW_SECONDS + DELAY_WINDOW_SECONDS)
+                % DELAY_WINDOW_SECONDS);
+    }
+
+    /**
+     * Returns how far {@code sequence} is ahead of {@code expected}, negative if it is behind.
+     */
+    static int distance(int sequence, int expected) {
+        int distance = (sequence - expected + SEQUENCE_MODULO) % SEQUENCE_MODULO;
+        return distance >= SEQUENCE_MODULO / 2 ? distance - SEQUENCE_MODULO : distance;
+    }
+
+    private void hold(int sequence, int payloadOffset, int payloadLength) {
+        int slot = sequence % mWindowSize;
+        if (mHeldSequences[slot] == sequence) {
+            mPacketsDuplicated++;
+            return;
+        }
+        mRing.copyPending(payloadOffset, mHeldPayloads[slot], 0, payloadLength);
+        mHeldLengths[slot] = payloadLength;
+        mHeldSequences[slot] = sequence;
+        mHeldCount++;
+    }
+
+    private void delivered(int sequence) {
+        mLostHistory[sequence % HISTORY_SIZE] = false;
+        mExpectedSequence = (sequence + 1) % SEQUENCE_MODULO;
+    }
+
+    /**
+     * Writes the held packets which directly follow the delivered ones.
+     */
+    private void drain() {
+        while (mHeldCount > 0) {
+            int slot = mExpectedSequence % mWindowSize;
+            if (mHeldSequences[slot] != mExpectedSequence) {
+                return;
+            }
+            release(slot);
+        }
+    }
+
+    /**
+     * Gives up waiting for the expected packet.
+     */
+    private void skip() {
+        int slot = mExpectedSequence % mWindowSize;
+        if (mHeldSequences[slot] == mExpectedSequence) {
+            release(slot);
+        } else {
+            mPacketsLost++;
+            mLostHistory[mExpectedSequence % HISTORY_SIZE] = true;
+            mExpectedSequence = (mExpectedSequence + 1) % SEQUENCE_MODULO;
+        }
+        drain();
+    }
+
+    private void flush() {
+        while (mHeldCount > 0) {
+            skip();
+        }
+    }
+
+    private void release(int slot) {
+        mRing.write(mHeldPayloads[slot], 0, mHeldLengths[slot]);
+        mHeldSequences[slot] = -1;
+        mHeldCount--;
+        delivered(mExpectedSequence);
+    }
+
+    @Override
+    public long getJitterUs() {
+        return mJitterUs;
+    }
+
+    @Override
+    public long getDelayVariationUs() {
+        return mDelayVariationUs;
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    @Override
+    public long getPacketsLost() {
+        return mPacketsLost;
+    }
+
+    long getPacketsLate() {
+        return mPacketsLate;
+    }
+
+    long getPacketsDuplicated() {
+        return mPacketsDuplicated;
+    }
+
+    @Override
+    public long getPacketsReordered() {
+        return mPacketsReordered;
+    }
+
+    long getPacketsDiscarded() {
+        return mPacketsDiscarded;
+    }
+
+    @Override
+    public String toString() {
+        return "received=" + mPacketsReceived + " lost=" + mPacketsLost + " late=" + mPacketsLate
+                + " duplicated=" + mPacketsDuplicated + " reordered=" + mPacketsReordered
+                + " discarded=" + mPacketsDiscarded + " jitterUs=" + mJitterUs
+                + " delayVariationUs=" + mDelayVariationUs;
+    }
+}
@@ -0,0 +1,325 @@
+package com.peyo.rtptvinput.source;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transport of TS in RTP protected by SMPTE 2022-1 FEC, which rebuilds lost media packets from
+ * the column and row FEC packets before they are put in order by {@link RtpDepacketizer}.
+ * </p>
+ * A copy of each media packet is kept for as long as a FEC packet may need it. A FEC packet whose
+ * group misses a single packet rebuilds it right away; one which misses more is kept until
+ * another FEC packet, typically of the other dimension, has rebuilt enough of them, or until the
+ * depacketizer has given up on the missing packets. How long that is, is the latency budget set
+ * by the reorder window of the depacketizer.
+ */
+class RtpFecTransport implements StreamTransport {
+    private static final int FEC_HEADER_SIZE = 16;
+    private static final int SEQUENCE_MODULO = 1 << 16;
+    // Media packets kept for recovery; 2022-1 groups span at most 20 x 20 packets.
+    private static final int STORE_SIZE = 1024;
+    // FEC packets kept waiting for more of their group.
+    private static final int MAX_WAITING_FEC_PACKETS = 64;
+    // Results of an attempt to use a FEC packet.
+    private static final int RECOVERED = 0;
+    private static final int WAITING = 1;
+    private static final int DONE = 2;
+
+    private final RtpDepacketizer mDepacketizer;
+    private final RingBuffer mRing;
+    private final int mMaxPayloadSize;
+    private final byte[][] mPackets;
+    private final int[] mPayloadLengths = new int[STORE_SIZE];
+    private final int[] mSequences = new int[STORE_SIZE];
+    private final byte[] mRecoveredPayload;
+    private final ByteBuffer mRecoveredHeader =
+            ByteBuffer.allocate(RtpDepacketizer.FIXED_HEADER_SIZE);
+    private final ByteBuffer[] mRegions = new ByteBuffer[2];
+    private final List<FecPacket> mWaitingFecPackets = new ArrayList<>();
+    private final ArrayDeque<FecPacket> mFreeFecPackets = new ArrayDeque<>();
+    private int mSsrc;
+    private int mNewestSequence = -1;
+
+    private volatile long mFecPacketsReceived;
+    private volatile long mFecPacketsDiscarded;
+    private volatile long mPacketsRecovered;
+
+    /**
+     * @param depacketizer where the received and the rebuilt media packets go
+     * @param ring the ring of the depacketizer
+     * @param maxPacketSize the largest media or FEC packet
+     */
+    RtpFecTransport(RtpDepacketizer depacketizer, RingBuffer ring, int maxPacketSize) {
+        mDepacketizer = depacketizer;
+        mRing = ring;
+        mMaxPayloadSize = maxPacketSize - RtpDepacketizer.FIXED_HEADER_SIZE;
+        mPackets = new byte[STORE_SIZE][maxPacketSize];
+        mRecoveredPayload = new byte[mMaxPayloadSize];
+        for (int i = 0; i <= MAX_WAITING_FEC_PACKETS; i++) {
+            mFreeFecPackets.add(new FecPacket(maxPacketSize));
+        }
+        reset();
+    }
+
+    @Override
+    public int getHeaderSize() {
+        return RtpDepacketizer.FIXED_HEADER_SIZE;
+    }
+
+    @Override
+    public void onPacket(ByteBuffer header, int length, long arrivalNs) {
+        if ((header.get(0) & 0xc0) == 0x80 && length <= mMaxPayloadSize) {
+            int sequence = ((header.get(2) & 0xff) << 8) | (header.get(3) & 0xff);
+            mSsrc = header.getInt(8);
+            if (mNewestSequence == -1
+                    || RtpDepacketizer.distance(sequence, mNewestSequence) > 0) {
+                mNewestSequence = sequence;
+            }
+            // Before the depacketizer commits the payload, which moves it out of the way.
+            byte[] packet = store(sequence, length);
+            header.position(0);
+            header.get(packet, 0, RtpDepacketizer.FIXED_HEADER_SIZE);
+            mRing.copyPending(0, packet, RtpDepacketizer.FIXED_HEADER_SIZE, length);
+        }
+        mDepacketizer.onPacket(header, length, arrivalNs);
+        if (!mWaitingFecPackets.isEmpty()) {
+            retryWaitingFecPackets();
+        }
+    }
+
+    /**
+     * Handles a FEC packet, from the position to the limit of {@code packet}.
+     */
+    void onFecPacket(ByteBuffer packet) {
+        mFecPacketsReceived++;
+        int start = packet.position();
+        int headerEnd = start + RtpDepacketizer.FIXED_HEADER_SIZE + FEC_HEADER_SIZE;
+        if (packet.limit() < headerEnd || (packet.get(start) & 0xc0) != 0x80
+                || mFreeFecPackets.isEmpty()) {
+            mFecPacketsDiscarded++;
+            return;
+        }
+        FecPacket fec = mFreeFecPackets.peek();
+        if (!fec.parse(packet, start + RtpDepacketizer.FIXED_HEADER_SIZE, headerEnd)) {
+            mFecPacketsDiscarded++;
+            return;
+        }
+        int state = tryRecover(fec);
+        if (state == WAITING) {
+            mFreeFecPackets.poll();
+            if (mWaitingFecPackets.size() == MAX_WAITING_FEC_PACKETS) {
+                mFreeFecPackets.add(mWaitingFecPackets.remove(0));
+                mFecPacketsDiscarded++;
+            }
+            mWaitingFecPackets.add(fec);
+        } else if (state == RECOVERED) {
+            retryWaitingFecPackets();
+        }
+    }
+
+    /**
+     * Tries the waiting FEC packets again, as long as they rebuild packets which may complete
+     * the groups of others.
+     */
+    private void retryWaitingFecPackets() {
+        boolean recovered = true;
+        while (recovered) {
+            recovered = false;
+            for (int i = mWaitingFecPackets.size() - 1; i >= 0; i--) {
+                FecPacket fec = mWaitingFecPackets.get(i);
+                int state = tryRecover(fec);
+                if (state != WAITING) {
+                    mWaitingFecPackets.remove(i);
+                    mFreeFecPackets.add(fec);
+                    recovered |= state == RECOVERED;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the missing packet of the group of {@code fec} if there is a single one.
+     *
+     * @return {@link #RECOVERED} if a packet was rebuilt, {@link #WAITING} if the group misses
+     *         several packets which are still waited for, or {@link #DONE} if there is nothing
+     *         it can rebuild
+     */
+    private int tryRecover(FecPacket fec) {
+        int missing = -1;
+        int missingCount = 0;
+        boolean awaited = false;
+        for (int i = 0; i < fec.mCount; i++) {
+            int sequence = (fec.mSequenceBase + i * fec.mOffset) % SEQUENCE_MODULO;
+            if (!isStored(sequence)) {
+                missing = sequence;
+                missingCount++;
+                awaited |= mDepacketizer.isAwaited(sequence);
+            }
+        }
+        if (!awaited) {
+            return DONE;
+        }
+        // A packet is only known to be lost once a later one has arrived.
+        if (missingCount > 1 || RtpDepacketizer.distance(missing, mNewestSequence) >= 0) {
+            return WAITING;
+        }
+
+        int length = fec.mLengthRecovery;
+        int payloadType = fec.mPayloadTypeRecovery;
+        int timestamp = fec.mTimestampRecovery;
+        for (int i = 0; i < fec.mCount; i++) {
+            int sequence = (fec.mSequenceBase + i * fec.mOffset) % SEQUENCE_MODULO;
+            if (sequence == missing) {
+                continue;
+            }
+            int slot = sequence % STORE_SIZE;
+            byte[] packet = mPackets[slot];
+            length ^= mPayloadLengths[slot];
+            payloadType ^= packet[1] & 0x7f;
+            timestamp ^= ((packet[4] & 0xff) << 24) | ((packet[5] & 0xff) << 16)
+                    | ((packet[6] & 0xff) << 8) | (packet[7] & 0xff);
+        }
+        if (length <= 0 || length > fec.mPayloadLength || length > mMaxPayloadSize) {
+            mFecPacketsDiscarded++;
+            return DONE;
+        }
+        System.arraycopy(fec.mPayload, 0, mRecoveredPayload, 0, length);
+        for (int i = 0; i < fec.mCount; i++) {
+            int sequence = (fec.mSequenceBase + i * fec.mOffset) % SEQUENCE_MODULO;
+            if (sequence == missing) {
+                continue;
+            }
+            int slot = sequence % STORE_SIZE;
+            byte[] packet = mPackets[slot];
+            int end = Math.min(length, mPayloadLengths[slot]);
+            for (int j = 0; j < end; j++) {
+                mRecoveredPayload[j] ^= packet[RtpDepacketizer.FIXED_HEADER_SIZE + j];
+            }
+        }
+
+        // 2022-1 does not protect the marker, padding, extension and CSRC count bits, which
+        // TS in RTP does not use.
+        mRecoveredHeader.clear();
+        mRecoveredHeader.put((byte) 0x80);
+        mRecoveredHeader.put((byte) payloadType);
+        mRecoveredHeader.putShort((short) missing);
+        mRecoveredHeader.putInt(timestamp);
+        mRecoveredHeader.putInt(mSsrc);
+        byte[] packet = store(missing, length);
+        System.arraycopy(mRecoveredHeader.array(), 0, packet, 0,
+                RtpDepacketizer.FIXED_HEADER_SIZE);
+        System.arraycopy(mRecoveredPayload, 0, packet, RtpDepacketizer.FIXED_HEADER_SIZE, length);
+
+        // Put the payload where the depacketizer expects a received one.
+        mRing.getWritableRegions(mRegions, 0, length);
+        int firstLength = mRegions[0].remaining();
+        mRegions[0].put(mRecoveredPayload, 0, firstLength);
+        mRegions[1].put(mRecoveredPayload, firstLength, length - firstLength);
+        mDepacketizer.onRecoveredPacket(mRecoveredHeader, length);
+        mPacketsRecovered++;
+        return RECOVERED;
+    }
+
+    private boolean isStored(int sequence) {
+        return mSequences[sequence % STORE_SIZE] == sequence;
+    }
+
+    private byte[] store(int sequence, int payloadLength) {
+        int slot = sequence % STORE_SIZE;
+        mSequences[slot] = sequence;
+        mPayloadLengths[slot] = payloadLength;
+        return mPackets[slot];
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < STORE_SIZE; i++) {
+            mSequences[i] = -1;
+        }
+        mNewestSequence = -1;
+        mFreeFecPackets.addAll(mWaitingFecPackets);
+        mWaitingFecPackets.clear();
+        mDepacketizer.reset();
+    }
+
+    @Override
+    public long getJitterUs() {
+        return mDepacketizer.getJitterUs();
+    }
+
+    @Override
+    public long getDelayVariationUs() {
+        return mDepacketizer.getDelayVariationUs();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return mDepacketizer.getPacketsReceived();
+    }
+
+    /**
+     * Returns the packets which were lost and could not be rebuilt.
+     */
+    @Override
+    public long getPacketsLost() {
+        return mDepacketizer.getPacketsLost();
+    }
+
+    @Override
+    public long getPacketsReordered() {
+        return mDepacketizer.getPacketsReordered();
+    }
+
+    long getPacketsRecovered() {
+        return mPacketsRecovered;
+    }
+
+    @Override
+    public String toString() {
+        return mDepacketizer + " fec=" + mFecPacketsReceived + " fecDiscarded="
+                + mFecPacketsDiscarded + " recovered=" + mPacketsRecovered;
+    }
+
+    /**
+     * FEC header (SMPTE 2022-1, after RFC 2733) and payload of a FEC packet.
+     */
+    private static class FecPacket {
+        final byte[] mPayload;
+        int mPayloadLength;
+        int mSequenceBase;
+        int mLengthRecovery;
+        int mPayloadTypeRecovery;
+        int mTimestampRecovery;
+        int mOffset;
+        int mCount;
+
+        FecPacket(int maxPacketSize) {
+            mPayload = new byte[maxPacketSize];
+        }
+
+        /**
+         * Reads the FEC header at {@code header} and copies the payload from {@code payload} to
+         * the limit of {@code packet}.
+         *
+         * @return whether it is a usable FEC packet
+         */
+        boolean parse(ByteBuffer packet, int header, int payload) {
+            mSequenceBase = packet.getShort(header) & 0xffff;
+            mLengthRecovery = packet.getShort(header + 2) & 0xffff;
+            mPayloadTypeRecovery = packet.get(header + 4) & 0x7f;
+            mTimestampRecovery = packet.getInt(header + 8);
+            mOffset = packet.get(header + 13) & 0xff;
+            mCount = packet.get(header + 14) & 0xff;
+            mPayloadLength = packet.limit() - payload;
+            if (mOffset == 0 || mCount == 0 || mPayloadLength > mPayload.length) {
+                return false;
+            }
+            ByteBuffer source = packet.duplicate();
+            source.position(payload);
+            source.get(mPayload, 0, mPayloadLength);
+            return true;
+        }
+    }
+}
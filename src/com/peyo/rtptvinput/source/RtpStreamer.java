@@ -1,37 +1,266 @@
 package com.peyo.rtptvinput.source;
 
 import android.net.Uri;
+import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
-import com.google.android.exoplayer2.upstream.UdpDataSource;
+import com.peyo.rtptvinput.RtpTvInputSetupActivity;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Receives a stream from the network into a {@link RingBuffer}. The scheme of the URI selects the
+ * {@link StreamTransport}: {@code rtp://} for TS in RTP, {@code udp://} for TS straight in UDP.
+ */
 public class RtpStreamer implements TsStreamer {
     private static final String TAG = "RtpStreamer";
+
+    public static final String SCHEME_RTP = "rtp";
+    public static final String SCHEME_UDP = "udp";
+
+    /** Query parameter for the size of the circular buffer in bytes. */
+    public static final String PARAM_BUFFER_SIZE = "buffer";
+    /** Query parameter for the bitrate in bits per second, used to size the circular buffer. */
+    public static final String PARAM_BITRATE = "bitrate";
+    /** Query parameter for the backing store of the circular buffer. */
+    public static final String PARAM_BUFFER_STORAGE = "storage";
+    public static final String STORAGE_HEAP = "heap";
+    public static final String STORAGE_DIRECT = "direct";
+    public static final String STORAGE_MAPPED_FILE = "mapped";
+    /** Query parameter for the time-shift window in minutes, 0 to keep the stream in RAM only. */
+    public static final String PARAM_TIME_SHIFT_MINUTES = "timeshift";
+    /**
+     * Query parameter for the SMPTE 2022-1 FEC of an {@code rtp://} stream: {@link #FEC_COLUMN}
+     * joins the column FEC on the media port + 2, {@link #FEC_ROW} the row FEC on the media
+     * port + 4, and {@link #FEC_BOTH} both of them.
+     */
+    public static final String PARAM_FEC = "fec";
+    public static final String FEC_COLUMN = "column";
+    public static final String FEC_ROW = "row";
+    public static final String FEC_BOTH = "2d";
+    /** Query parameter for how long a lost packet may be waited for to rebuild it, in ms. */
+    public static final String PARAM_FEC_LATENCY = "fec_latency";
+    /**
+     * Query parameter for the program number of the service, whose PIDs are the only ones kept
+     * in the circular buffer. The whole stream is kept without it.
+     */
+    public static final String PARAM_PROGRAM = "program";
+
     private final Uri mUri;
 
     public RtpStreamer(Uri uri) {
         mUri = uri;
+        int capacity = getBufferSize(uri);
+        ByteBuffer buffer;
+        try {
+            buffer = RingBuffer.allocate(getBufferStorage(uri), capacity);
+        } catch (IOException | OutOfMemoryError e) {
+            Log.w(TAG, "Cannot allocate buffer storage, falling back to the heap", e);
+            buffer = ByteBuffer.allocate(capacity);
+        }
+        int reorderWindow = getReorderWindow(uri);
+        // A batch may release every packet held in the reorder window on top of its own.
+        mCircularBuffer = new RingBuffer(buffer,
+                MAX_PACKET_SIZE * (MAX_PACKETS_PER_BATCH + reorderWindow));
+        mTransport = createTransport(uri, mCircularBuffer, reorderWindow);
+        mFecTransport = mTransport instanceof RtpFecTransport
+                ? (RtpFecTransport) mTransport : null;
+        mPidFilter = createPidFilter(uri);
+        if (mPidFilter != null) {
+            mCircularBuffer.setFilter(mPidFilter);
+        }
+        Log.i(TAG, "Buffer of " + capacity + " bytes for " + uri);
+    }
+
+    /**
+     * Returns whether {@code uri} is a stream which a streamer can receive.
+     */
+    public static boolean isStreamUri(Uri uri) {
+        return SCHEME_RTP.equals(uri.getScheme()) || SCHEME_UDP.equals(uri.getScheme());
+    }
+
+    private static StreamTransport createTransport(Uri uri, RingBuffer ring, int reorderWindow) {
+        if (SCHEME_UDP.equals(uri.getScheme())) {
+            return new RawTsTransport(ring);
+        }
+        RtpDepacketizer depacketizer = new RtpDepacketizer(ring, reorderWindow,
+                MAX_PACKET_SIZE - RtpDepacketizer.FIXED_HEADER_SIZE);
+        if (getFecPortOffsets(uri).length > 0) {
+            return new RtpFecTransport(depacketizer, ring, MAX_PACKET_SIZE);
+        }
+        return depacketizer;
+    }
+
+    private static TsPidFilter createPidFilter(Uri uri) {
+        String program = uri.getQueryParameter(PARAM_PROGRAM);
+        if (program == null) {
+            return null;
+        }
+        try {
+            return new TsPidFilter(Integer.parseInt(program));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid program in " + uri);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the offsets from the media port of the FEC ports to join for {@code uri}.
+     */
+    private static int[] getFecPortOffsets(Uri uri) {
+        String fec = uri.getQueryParameter(PARAM_FEC);
+        if (!SCHEME_RTP.equals(uri.getScheme()) || fec == null) {
+            return new int[0];
+        }
+        switch (fec) {
+            case FEC_COLUMN:
+                return new int[] { COLUMN_FEC_PORT_OFFSET };
+            case FEC_ROW:
+                return new int[] { ROW_FEC_PORT_OFFSET };
+            case FEC_BOTH:
+                return new int[] { COLUMN_FEC_PORT_OFFSET, ROW_FEC_PORT_OFFSET };
+            default:
+                Log.w(TAG, "Invalid FEC in " + uri);
+                return new int[0];
+        }
+    }
+
+    /**
+     * Returns how many packets may be held back for a missing one. With FEC, it is enough to
+     * wait for the FEC packets of a lost packet within the latency budget.
+     */
+    private static int getReorderWindow(Uri uri) {
+        if (getFecPortOffsets(uri).length == 0) {
+            return REORDER_WINDOW_PACKETS;
+        }
+        long latencyMs = DEFAULT_FEC_LATENCY_MS;
+        try {
+            String value = uri.getQueryParameter(PARAM_FEC_LATENCY);
+            if (value != null) {
+                latencyMs = Long.parseLong(value);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid FEC latency in " + uri);
+        }
+        long packets = getBitrate(uri) / 8 * latencyMs / 1000 / TS_PAYLOAD_SIZE;
+        return (int) Math.max(REORDER_WINDOW_PACKETS,
+                Math.min(MAX_REORDER_WINDOW_PACKETS, packets));
+    }
+
+    private static long getTimeShiftWindow(Uri uri) {
+        long minutes = DEFAULT_TIME_SHIFT_MINUTES;
+        try {
+            String value = uri.getQueryParameter(PARAM_TIME_SHIFT_MINUTES);
+            if (value != null) {
+                minutes = Long.parseLong(value);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid time-shift window in " + uri);
+        }
+        return TimeUnit.MINUTES.toSeconds(minutes) * getBitrate(uri) / 8;
+    }
+
+    /**
+     * Returns the bitrate of the stream of {@code uri} in bits per second, as given or assumed.
+     */
+    static long getBitrate(Uri uri) {
+        try {
+            String value = uri.getQueryParameter(PARAM_BITRATE);
+            if (value != null) {
+                return Long.parseLong(value);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid bitrate in " + uri);
+        }
+        return DEFAULT_BITRATE;
+    }
+
+    /**
+     * Returns the directory of the time-shift buffer of {@code uri}. It is keyed by the whole
+     * URI, as streams of the same group, e.g. two programs of a multi-program stream, each have
+     * a streamer of their own.
+     */
+    static File getTimeShiftDirectory(Uri uri) {
+        File externalFilesDir = Environment.getExternalStorageDirectory();
+        if (externalFilesDir == null || !externalFilesDir.isDirectory()) {
+            return null;
+        }
+        return new File(externalFilesDir.getPath() + RtpTvInputSetupActivity.TIME_SHIFT_DIR,
+                uri.getHost() + "_" + uri.getPort() + "_"
+                        + Integer.toHexString(uri.toString().hashCode()));
+    }
+
+    /**
+     * Returns the size of the circular buffer of the streamer of {@code uri}.
+     */
+    static int getBufferSize(Uri uri) {
+        try {
+            String size = uri.getQueryParameter(PARAM_BUFFER_SIZE);
+            if (size != null) {
+                return clampBufferSize(Long.parseLong(size));
+            }
+            String bitrate = uri.getQueryParameter(PARAM_BITRATE);
+            if (bitrate != null) {
+                return clampBufferSize(Long.parseLong(bitrate) / 8 * BUFFERED_SECONDS);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid buffer size in " + uri);
+        }
+        return DEFAULT_BUFFER_SIZE;
+    }
+
+    private static int clampBufferSize(long size) {
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, size));
+    }
+
+    private static int getBufferStorage(Uri uri) {
+        String storage = uri.getQueryParameter(PARAM_BUFFER_STORAGE);
+        if (STORAGE_DIRECT.equals(storage)) {
+            return RingBuffer.STORAGE_DIRECT;
+        } else if (STORAGE_MAPPED_FILE.equals(storage)) {
+            return RingBuffer.STORAGE_MAPPED_FILE;
+        }
+        return RingBuffer.STORAGE_HEAP;
     }
 
     @Override
-    public TsDataSource createDataSource() {
-        return new RtpDataSource(this);
+    public TsDataSource createDataSource(long startPosition) {
+        RtpDataSource source = new RtpDataSource(this, startPosition);
+        mDataSources.add(source);
+        return source;
     }
 
     public class RtpDataSource implements TsDataSource {
         private final RtpStreamer mStreamer;
+        private final RingBuffer.Reader mReader;
         private final AtomicLong mLastReadPosition = new AtomicLong(0);
         private long mStartBufferedPosition;
 
-        public RtpDataSource(RtpStreamer streamer) {
+        public RtpDataSource(RtpStreamer streamer, long startPosition) {
             mStreamer = streamer;
-            mStartBufferedPosition = streamer.getBufferedPosition();
+            mReader = streamer.mCircularBuffer.createReader();
+            mStartBufferedPosition = startPosition == C.POSITION_UNSET
+                    ? streamer.getLiveStartPosition()
+                    : Math.max(startPosition, streamer.getStartPosition());
         }
 
         @Override
@@ -42,7 +271,7 @@ public class RtpStreamer implements TsStreamer {
 
         @Override
         public int read(byte[] buffer, int offset, int readLength) throws IOException {
-            int ret = readAt(mStartBufferedPosition + mLastReadPosition.get(), buffer,
+            int ret = readAt(mReader, mStartBufferedPosition + mLastReadPosition.get(), buffer,
                     offset, readLength);
             if (ret > 0) {
                 mLastReadPosition.addAndGet(ret);
@@ -55,8 +284,20 @@ public class RtpStreamer implements TsStreamer {
             return mStreamer.mUri;
         }
 
+        RtpStreamer getStreamer() {
+            return mStreamer;
+        }
+
         @Override
         public void close() throws IOException {
+            mStreamer.mDataSources.remove(this);
+        }
+
+        /**
+         * Returns the absolute position of the next read.
+         */
+        private long getReadPosition() {
+            return mStartBufferedPosition + mLastReadPosition.get();
         }
 
         @Override
@@ -73,128 +314,483 @@ public class RtpStreamer implements TsStreamer {
         public void shiftStartPosition(long offset) {
             mStartBufferedPosition += offset;
         }
-    }
 
-    public int readAt(long pos, byte[] buffer, int offset, int amount) throws IOException {
-        while (true) {
-            synchronized (mCircularBufferMonitor) {
-                if (!mStreaming) {
-                    return -1;
-                }
-                if (mBytesFetched - pos > CIRCULAR_BUFFER_SIZE) {
-                    Log.e(TAG, "Demux is requesting the data which is already overwritten.");
-                    return -1;
-                }
+        @Override
+        public long getStartTimeMs() {
+            return mStreamer.mTimeIndex.getStartTimeMs(mStreamer.getStartPosition());
+        }
 
-                if (mBytesFetched < pos + amount) {
-                    try {
-                        mCircularBufferMonitor.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                    continue;
-                }
+        @Override
+        public long getLastReadTimeMs() {
+            return mStreamer.mTimeIndex.getTimeMs(
+                    mStartBufferedPosition + mLastReadPosition.get());
+        }
 
-                int startPos = (int) (pos % CIRCULAR_BUFFER_SIZE);
-                int endPos = (int) ((pos + amount) % CIRCULAR_BUFFER_SIZE);
-                int firstLength = (startPos > endPos ? CIRCULAR_BUFFER_SIZE : endPos) - startPos;
-                System.arraycopy(mCircularBuffer, startPos, buffer, offset, firstLength);
-                if (firstLength < amount) {
-                    System.arraycopy(mCircularBuffer, 0, buffer, offset + firstLength,
-                            amount - firstLength);
-                }
-                mCircularBufferMonitor.notifyAll();
-                return amount;
-            }
+        @Override
+        public long getPositionForTime(long timeMs) {
+            return mStreamer.mTimeIndex.getPosition(timeMs, mStreamer.getStartPosition());
+        }
+
+        @Override
+        public IngestStats getIngestStats() {
+            return mStreamer.getIngestStats();
+        }
+
+        @Override
+        public long getMilestoneTimeMs(int milestone) {
+            return mStreamer.getMilestoneTimeMs(milestone);
+        }
+    }
+
+    private int readAt(RingBuffer.Reader reader, long pos, byte[] buffer, int offset, int amount)
+            throws IOException {
+        if (!mStreaming) {
+            return -1;
+        }
+        TimeShiftBuffer timeShiftBuffer = mTimeShiftBuffer;
+        if (timeShiftBuffer != null && mCircularBuffer.isOverwritten(pos)) {
+            return timeShiftBuffer.readAt(pos, buffer, offset, amount);
         }
+        return reader.readAt(pos, buffer, offset, amount);
     }
 
-    private static final int RTP_HEADER_SIZE = 12;
     private static final int MAX_PACKET_SIZE = 2048;
-    private static final int CIRCULAR_BUFFER_SIZE = MAX_PACKET_SIZE * 512 * 32; // 32MB
-    private final Object mCircularBufferMonitor = new Object();
-    private final byte[] mCircularBuffer = new byte[CIRCULAR_BUFFER_SIZE];
+    private static final int DEFAULT_BUFFER_SIZE = 32 * 1024 * 1024;
+    private static final int MIN_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_BUFFER_SIZE = 256 * 1024 * 1024;
+    // Seconds of stream kept in the buffer when it is sized from the bitrate.
+    private static final int BUFFERED_SECONDS = 20;
+    private static final int DEFAULT_TIME_SHIFT_MINUTES = 90;
+    // Assumed for sizing the time-shift window when the stream has no bitrate parameter.
+    private static final long DEFAULT_BITRATE = 20 * 1000 * 1000;
+    // Part of the free space the time-shift window may take at most.
+    private static final int TIME_SHIFT_SPACE_DIVISOR = 2;
+    // Datagrams drained per wake-up before the new data is published to the readers.
+    private static final int MAX_PACKETS_PER_BATCH = 32;
+    private static final int REORDER_WINDOW_PACKETS = 32;
+    private static final int MAX_REORDER_WINDOW_PACKETS = 512;
+    // Usual payload of a datagram, 7 TS packets.
+    private static final int TS_PAYLOAD_SIZE = 7 * 188;
+    private static final long DEFAULT_FEC_LATENCY_MS = 150;
+    // SMPTE 2022-1 ports of the FEC streams.
+    private static final int COLUMN_FEC_PORT_OFFSET = 2;
+    private static final int ROW_FEC_PORT_OFFSET = 4;
+    private static final int SOCKET_RECEIVE_BUFFER_SIZE = 2 * 1024 * 1024;
+    private static final long RECEIVE_TIMEOUT_MS = 1000;
+    private static final long RATE_WINDOW_NS = TimeUnit.SECONDS.toNanos(1);
+    // Lag of the slowest reader, in percent of the buffer, from which an overrun is close.
+    private static final int LAG_WARNING_PERCENT = 75;
+    private final RingBuffer mCircularBuffer;
+    private final StreamTransport mTransport;
+    private final RtpFecTransport mFecTransport;
+    private final TsPidFilter mPidFilter;
+    private final StreamTimeIndex mTimeIndex = new StreamTimeIndex();
+    private volatile TimeShiftBuffer mTimeShiftBuffer;
+    private volatile boolean mTimeShiftEnabled;
+    private volatile long mBitrate;
+    private volatile long mPacketRate;
+    // Only incremented by the ingest thread.
+    private volatile long mIngestWakeupCount;
+    private final List<RtpDataSource> mDataSources = new CopyOnWriteArrayList<>();
+    private volatile long mJoinedTimeMs = C.TIME_UNSET;
+    private volatile long mFirstPacketTimeMs = C.TIME_UNSET;
+    private final List<Sink> mSinks = new CopyOnWriteArrayList<>();
 
-    private DataSource mUdpSource;
-    private long mBytesFetched;
-    private boolean mStreaming;
+    private DatagramChannel mChannel;
+    private DatagramChannel[] mFecChannels = new DatagramChannel[0];
+    private Selector mSelector;
+    private volatile boolean mStreaming;
     private StreamingThread mStreamingThread;
 
     @Override
     public void startStream() {
-        mUdpSource = new UdpDataSource(null, MAX_PACKET_SIZE, 0);
+        if (mStreaming) {
+            Log.w(TAG, "Streaming should be stopped before start streaming");
+            return;
+        }
         try {
-            mUdpSource.open(new DataSpec(mUri));
+            openChannel();
         } catch (IOException e) {
             e.printStackTrace();
+            closeChannel();
             return;
         }
+        mJoinedTimeMs = SystemClock.elapsedRealtime();
 
-        synchronized (mCircularBufferMonitor) {
-            if (mStreaming) {
-                Log.w(TAG, "Streaming should be stopped before start streaming");
-                return;
-            }
-            mStreaming = true;
-            mBytesFetched = 0;
-        }
+        addSink(mTimeIndex);
+        mStreaming = true;
         mStreamingThread = new StreamingThread();
         mStreamingThread.start();
         Log.i(TAG, "Streaming started");
     }
 
+    /**
+     * Sets whether the stream is kept on the disk for time-shifting. A streamer which is only
+     * kept warm for a fast channel change does not need it. Takes effect with the next data.
+     */
+    void setTimeShiftEnabled(boolean enabled) {
+        mTimeShiftEnabled = enabled;
+    }
+
+    boolean isTimeShiftEnabled() {
+        return mTimeShiftEnabled;
+    }
+
+    /**
+     * Opens or releases the time-shift buffer as requested. Must only be called from the ingest
+     * thread, before the data from {@code position} is handed to the sinks.
+     */
+    private void updateTimeShiftBuffer(long position) {
+        if (mTimeShiftEnabled == (mTimeShiftBuffer != null)) {
+            return;
+        }
+        if (mTimeShiftBuffer != null) {
+            releaseTimeShiftBuffer();
+            return;
+        }
+        long window = getTimeShiftWindow(mUri);
+        File directory = getTimeShiftDirectory(mUri);
+        if (window <= 0 || directory == null) {
+            mTimeShiftEnabled = false;
+            return;
+        }
+        // The directory is only created on the I/O thread of the buffer, so the space is taken
+        // from the storage it is on.
+        long usableSpace = Environment.getExternalStorageDirectory().getUsableSpace()
+                / TIME_SHIFT_SPACE_DIVISOR;
+        if (usableSpace > 0 && window > usableSpace) {
+            Log.w(TAG, "Time-shift window is limited to " + usableSpace + " bytes");
+            window = usableSpace;
+        }
+        TimeShiftBuffer timeShiftBuffer = new TimeShiftBuffer(directory, window, position);
+        addSink(timeShiftBuffer);
+        mTimeShiftBuffer = timeShiftBuffer;
+    }
+
+    private void releaseTimeShiftBuffer() {
+        TimeShiftBuffer timeShiftBuffer = mTimeShiftBuffer;
+        mTimeShiftBuffer = null;
+        removeSink(timeShiftBuffer);
+        timeShiftBuffer.release();
+    }
+
+    @Override
+    public void addSink(Sink sink) {
+        mSinks.add(sink);
+    }
+
+    @Override
+    public void removeSink(Sink sink) {
+        mSinks.remove(sink);
+    }
+
+    private void openChannel() throws IOException {
+        InetAddress address = InetAddress.getByName(mUri.getHost());
+        mSelector = Selector.open();
+        mChannel = openChannel(address, mUri.getPort());
+        if (mFecTransport != null) {
+            int[] offsets = getFecPortOffsets(mUri);
+            mFecChannels = new DatagramChannel[offsets.length];
+            for (int i = 0; i < offsets.length; i++) {
+                mFecChannels[i] = openChannel(address, mUri.getPort() + offsets[i]);
+            }
+        }
+    }
+
+    private DatagramChannel openChannel(InetAddress address, int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_RECEIVE_BUFFER_SIZE);
+        if (address.isMulticastAddress()) {
+            channel.bind(new InetSocketAddress(port));
+            channel.join(address, getMulticastInterface());
+        } else {
+            channel.bind(new InetSocketAddress(address, port));
+        }
+        channel.configureBlocking(false);
+        channel.register(mSelector, SelectionKey.OP_READ);
+        return channel;
+    }
+
+    private static NetworkInterface getMulticastInterface() throws IOException {
+        NetworkInterface loopback = null;
+        for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!iface.isUp() || !iface.supportsMulticast()) {
+                continue;
+            }
+            if (!iface.isLoopback()) {
+                return iface;
+            }
+            loopback = iface;
+        }
+        if (loopback == null) {
+            throw new IOException("No multicast capable network interface");
+        }
+        return loopback;
+    }
+
+    private void closeChannel() {
+        try {
+            if (mSelector != null) {
+                mSelector.close();
+            }
+            if (mChannel != null) {
+                mChannel.close();
+            }
+            for (DatagramChannel channel : mFecChannels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Receives datagrams straight into the circular buffer. The first datagram is received with
+     * {@link DatagramChannel#receive} to learn the sender, then the channel is connected to it so
+     * that a scattering read puts the header of the transport aside and the rest into the buffer,
+     * where the {@link StreamTransport} commits it.
+     */
     private class StreamingThread extends Thread {
+        private final ByteBuffer mFirstPacket = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        private final ByteBuffer mFecPacket = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        private final ByteBuffer mHeader = ByteBuffer.allocate(mTransport.getHeaderSize());
+        private final ByteBuffer[] mPacket = new ByteBuffer[3];
+        private final ByteBuffer[] mPublished = new ByteBuffer[2];
+        private long mRateWindowStartNs = System.nanoTime();
+        private long mRateWindowBytes;
+        private long mRateWindowPackets;
+        private boolean mLagging;
+
         @Override
         public void run() {
-            byte[] dataBuffer = new byte[UdpDataSource.DEFAULT_MAX_PACKET_SIZE];
-            while (true) {
-                synchronized (mCircularBufferMonitor) {
-                    if (!mStreaming) {
-                        break;
+            mPacket[0] = mHeader;
+            try {
+                while (mStreaming) {
+                    if (mSelector.select(RECEIVE_TIMEOUT_MS) == 0) {
+                        updateRates(0, 0);
+                        if (mChannel.isConnected()) {
+                            // The sender may have changed, e.g. on a headend fail-over.
+                            mChannel.disconnect();
+                            mTransport.reset();
+                        }
+                        continue;
+                    }
+                    mSelector.selectedKeys().clear();
+                    mIngestWakeupCount++;
+                    int packets = 0;
+                    while (packets < MAX_PACKETS_PER_BATCH && receivePacket()) {
+                        packets++;
+                    }
+                    publish(packets);
+                    // After the media, whose last packets would look lost otherwise.
+                    if (mFecTransport != null && receiveFecPackets()) {
+                        // Rebuilt packets may release the whole reorder window.
+                        publish(0);
                     }
                 }
-
-                int bytesWritten;
-                try {
-                    bytesWritten = mUdpSource.read(dataBuffer, 0, dataBuffer.length);
-                    if (bytesWritten <= RTP_HEADER_SIZE) continue;
-                    bytesWritten -= RTP_HEADER_SIZE;
-                } catch (IOException e) {
+            } catch (IOException e) {
+                if (mStreaming) {
                     e.printStackTrace();
-                    break;
                 }
+            }
+            Log.i(TAG, "Streaming stopped " + mTransport);
+        }
+
+        private void publish(int packets) {
+            long publishedPosition = mCircularBuffer.getWritePosition();
+            updateTimeShiftBuffer(publishedPosition);
+            mCircularBuffer.publish();
+            onPublished(publishedPosition, mCircularBuffer.getWritePosition());
+            updateRates(mCircularBuffer.getWritePosition() - publishedPosition, packets);
+        }
 
-                synchronized (mCircularBufferMonitor) {
-                    int posInBuffer = (int) (mBytesFetched % CIRCULAR_BUFFER_SIZE);
-                    int bytesToCopyInFirstPass = bytesWritten;
-                    if (posInBuffer + bytesToCopyInFirstPass > mCircularBuffer.length) {
-                        bytesToCopyInFirstPass = mCircularBuffer.length - posInBuffer;
+        /**
+         * Hands the waiting FEC packets to the transport.
+         *
+         * @return whether there were any
+         */
+        private boolean receiveFecPackets() throws IOException {
+            boolean received = false;
+            for (DatagramChannel channel : mFecChannels) {
+                for (int i = 0; i < MAX_PACKETS_PER_BATCH; i++) {
+                    mFecPacket.clear();
+                    if (channel.receive(mFecPacket) == null) {
+                        break;
                     }
-                    System.arraycopy(dataBuffer, RTP_HEADER_SIZE, mCircularBuffer, posInBuffer,
-                            bytesToCopyInFirstPass);
-                    if (bytesToCopyInFirstPass < bytesWritten) {
-                        System.arraycopy(dataBuffer, RTP_HEADER_SIZE + bytesToCopyInFirstPass, mCircularBuffer, 0,
-                                bytesWritten - bytesToCopyInFirstPass);
+                    mFecPacket.flip();
+                    mFecTransport.onFecPacket(mFecPacket);
+                    received = true;
+                }
+            }
+            return received;
+        }
+
+        private void updateRates(long bytes, int packets) {
+            mRateWindowBytes += bytes;
+            mRateWindowPackets += packets;
+            long now = System.nanoTime();
+            long elapsedNs = now - mRateWindowStartNs;
+            if (elapsedNs < RATE_WINDOW_NS) {
+                return;
+            }
+            long bitrate = mRateWindowBytes * 8 * TimeUnit.SECONDS.toNanos(1) / elapsedNs;
+            long packetRate = mRateWindowPackets * TimeUnit.SECONDS.toNanos(1) / elapsedNs;
+            mBitrate = mBitrate == 0 ? bitrate : (mBitrate * 3 + bitrate) / 4;
+            mPacketRate = mPacketRate == 0 ? packetRate : (mPacketRate * 3 + packetRate) / 4;
+            mRateWindowStartNs = now;
+            mRateWindowBytes = 0;
+            mRateWindowPackets = 0;
+            checkReaderLag();
+        }
+
+        private void checkReaderLag() {
+            boolean lagging = mTimeShiftBuffer == null && getSlowestReaderLag()
+                    >= (long) mCircularBuffer.getCapacity() * LAG_WARNING_PERCENT / 100;
+            if (lagging && !mLagging) {
+                Log.w(TAG, "Close to overrun: " + getMetrics());
+            }
+            mLagging = lagging;
+        }
+
+        private void onPublished(long from, long to) {
+            if (mSinks.isEmpty() || from == to) {
+                return;
+            }
+            mCircularBuffer.getPublishedRegions(from, to, mPublished);
+            for (ByteBuffer region : mPublished) {
+                if (!region.hasRemaining()) {
+                    continue;
+                }
+                int start = region.position();
+                for (Sink sink : mSinks) {
+                    region.position(start);
+                    sink.onData(region);
+                }
+            }
+        }
+
+        private boolean receivePacket() throws IOException {
+            mHeader.clear();
+            mCircularBuffer.getWritableRegions(mPacket, 1,
+                    MAX_PACKET_SIZE - mHeader.capacity());
+            long bytesRead;
+            if (!mChannel.isConnected()) {
+                mFirstPacket.clear();
+                SocketAddress sender = mChannel.receive(mFirstPacket);
+                if (sender == null) {
+                    return false;
+                }
+                mChannel.connect(sender);
+                bytesRead = mFirstPacket.position();
+                mFirstPacket.flip();
+                for (ByteBuffer dst : mPacket) {
+                    while (dst.hasRemaining() && mFirstPacket.hasRemaining()) {
+                        dst.put(mFirstPacket.get());
                     }
-                    mBytesFetched += bytesWritten;
-                    mCircularBufferMonitor.notifyAll();
+                }
+            } else {
+                bytesRead = mChannel.read(mPacket);
+                if (bytesRead <= 0) {
+                    return false;
                 }
             }
-            Log.i(TAG, "Streaming stopped");
+            if (bytesRead > mHeader.capacity()) {
+                if (mFirstPacketTimeMs == C.TIME_UNSET) {
+                    mFirstPacketTimeMs = SystemClock.elapsedRealtime();
+                }
+                mTransport.onPacket(mHeader, (int) (bytesRead - mHeader.capacity()),
+                        System.nanoTime());
+            }
+            return true;
         }
     }
 
     public long getBufferedPosition() {
-        synchronized (mCircularBufferMonitor) {
-            return mBytesFetched;
+        return mCircularBuffer.getWritePosition();
+    }
+
+    /**
+     * Returns how the stream is arriving.
+     */
+    IngestStats getIngestStats() {
+        return new IngestStats(mBitrate, mTransport.getJitterUs(),
+                mTransport.getDelayVariationUs());
+    }
+
+    /**
+     * Returns how many bytes the slowest reader is behind the newest data.
+     */
+    private long getSlowestReaderLag() {
+        long lag = 0;
+        long writePosition = mCircularBuffer.getWritePosition();
+        for (RtpDataSource source : mDataSources) {
+            lag = Math.max(lag, writePosition - source.getReadPosition());
+        }
+        return lag;
+    }
+
+    /**
+     * Returns the current ingest counters and gauges.
+     */
+    StreamerMetrics getMetrics() {
+        return new StreamerMetrics(mUri, mPacketRate, mBitrate / 8,
+                mTransport.getPacketsReceived(), mTransport.getPacketsLost(),
+                mFecTransport != null ? mFecTransport.getPacketsRecovered() : 0,
+                mTransport.getPacketsReordered(),
+                mPidFilter != null ? mPidFilter.getPacketsDropped() : 0,
+                mCircularBuffer.getCapacity(),
+                getSlowestReaderLag(), mDataSources.size(), mCircularBuffer.getOverwriteCount(),
+                mIngestWakeupCount, mCircularBuffer.getReaderWakeupCount());
+    }
+
+    private long getMilestoneTimeMs(int milestone) {
+        switch (milestone) {
+            case TsDataSource.MILESTONE_JOINED:
+                return mJoinedTimeMs;
+            case TsDataSource.MILESTONE_FIRST_PACKET:
+                return mFirstPacketTimeMs;
+            case TsDataSource.MILESTONE_FIRST_SYNC:
+                return mTimeIndex.getFirstSyncTimeMs();
+            case TsDataSource.MILESTONE_PAT_PMT:
+                return mTimeIndex.getProgramTimeMs();
+            case TsDataSource.MILESTONE_FIRST_KEY_FRAME:
+                return mTimeIndex.getFirstEntryTimeMs();
+            default:
+                return C.TIME_UNSET;
         }
     }
 
+    /**
+     * Returns where a reader of the newest data starts: the last random access point still in
+     * memory, so that decoding can start right away, or the write position if there is none.
+     */
+    private long getLiveStartPosition() {
+        long position = mTimeIndex.getPosition(Long.MAX_VALUE, mCircularBuffer.getStartPosition());
+        return position == C.POSITION_UNSET ? getBufferedPosition() : position;
+    }
+
+    /**
+     * Returns the oldest position which can still be read, from the disk if there is a
+     * time-shift buffer.
+     */
+    private long getStartPosition() {
+        TimeShiftBuffer timeShiftBuffer = mTimeShiftBuffer;
+        if (timeShiftBuffer != null) {
+            return Math.min(timeShiftBuffer.getStartPosition(),
+                    mCircularBuffer.getStartPosition());
+        }
+        return mCircularBuffer.getStartPosition();
+    }
+
     @Override
     public void stopStream() {
-        synchronized (mCircularBufferMonitor) {
-            mStreaming = false;
-            mCircularBufferMonitor.notifyAll();
+        mStreaming = false;
+        mCircularBuffer.close();
+        if (mSelector != null) {
+            mSelector.wakeup();
         }
         try {
             if (mStreamingThread != null) {
@@ -203,10 +799,10 @@ public class RtpStreamer implements TsStreamer {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-        try {
-            mUdpSource.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        closeChannel();
+        removeSink(mTimeIndex);
+        if (mTimeShiftBuffer != null) {
+            releaseTimeShiftBuffer();
         }
     }
 }
@@ -0,0 +1,181 @@
+package com.peyo.rtptvinput.source;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rolling index of the random access points of a live stream, built on the ingest thread.
+ * </p>
+ * Entries map the stream time, taken from the PCR, to the stream position where a demuxer can
+ * start. The stream time is anchored to the wall clock when the first entry is found, so the
+ * times are the ones the TV input framework uses for time-shift positions. Entries whose data
+ * has left the buffers are skipped by passing the oldest available position to the queries.
+ */
+class StreamTimeIndex implements TsStreamer.Sink {
+    private static final int CAPACITY = 16 * 1024;
+
+    private final TsPacketAligner mAligner;
+    private final TsParser mParser;
+    // @GuardedBy("this")
+    private final long[] mTimesMs = new long[CAPACITY];
+    // @GuardedBy("this")
+    private final long[] mPositions = new long[CAPACITY];
+    // @GuardedBy("this")
+    private int mFirst;
+    // @GuardedBy("this")
+    private int mCount;
+    private long mClockOffsetMs = C.TIME_UNSET;
+    // Elapsed realtime of the first whole packet, of the program tables and of the first entry.
+    private volatile long mFirstSyncTimeMs = C.TIME_UNSET;
+    private volatile long mProgramTimeMs = C.TIME_UNSET;
+    private volatile long mFirstEntryTimeMs = C.TIME_UNSET;
+
+    StreamTimeIndex() {
+        mParser = new TsParser(new TsParser.Listener() {
+            @Override
+            public void onRandomAccessPoint(long timeUs, long position) {
+                add(timeUs / 1000, position);
+            }
+        });
+        mAligner = new TsPacketAligner(new TsStreamer.Sink() {
+            @Override
+            public void onData(ByteBuffer data) {
+                if (mFirstSyncTimeMs == C.TIME_UNSET) {
+                    mFirstSyncTimeMs = SystemClock.elapsedRealtime();
+                }
+                mParser.parse(data, mAligner.getOutputPosition());
+                if (mProgramTimeMs == C.TIME_UNSET && mParser.hasProgram()) {
+                    mProgramTimeMs = SystemClock.elapsedRealtime();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onData(ByteBuffer data) {
+        mAligner.onData(data);
+    }
+
+    private synchronized void add(long streamTimeMs, long position) {
+        if (mClockOffsetMs == C.TIME_UNSET) {
+            mClockOffsetMs = System.currentTimeMillis() - streamTimeMs;
+            mFirstEntryTimeMs = SystemClock.elapsedRealtime();
+        }
+        int index = (mFirst + mCount) % CAPACITY;
+        if (mCount == CAPACITY) {
+            mFirst = (mFirst + 1) % CAPACITY;
+        } else {
+            mCount++;
+        }
+        mTimesMs[index] = mClockOffsetMs + streamTimeMs;
+        mPositions[index] = position;
+    }
+
+    /**
+     * Returns the elapsed realtime when the first whole TS packet was found, or
+     * {@link C#TIME_UNSET}.
+     */
+    long getFirstSyncTimeMs() {
+        return mFirstSyncTimeMs;
+    }
+
+    /**
+     * Returns the elapsed realtime when the PAT and the PMT were parsed, or {@link C#TIME_UNSET}.
+     */
+    long getProgramTimeMs() {
+        return mProgramTimeMs;
+    }
+
+    /**
+     * Returns the elapsed realtime when the first random access point was found, or
+     * {@link C#TIME_UNSET}.
+     */
+    long getFirstEntryTimeMs() {
+        return mFirstEntryTimeMs;
+    }
+
+    private long getTimeMsAt(int entry) {
+        return mTimesMs[(mFirst + entry) % CAPACITY];
+    }
+
+    private long getPositionAt(int entry) {
+        return mPositions[(mFirst + entry) % CAPACITY];
+    }
+
+    /**
+     * Returns the first entry at or after {@code minPosition}, or {@code mCount} if there is none.
+     */
+    private int findFirstEntry(long minPosition) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getPositionAt(mid) < minPosition) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the time of the oldest entry at or after {@code minPosition}, or
+     * {@link C#TIME_UNSET} if there is none.
+     */
+    synchronized long getStartTimeMs(long minPosition) {
+        int first = findFirstEntry(minPosition);
+        return first < mCount ? getTimeMsAt(first) : C.TIME_UNSET;
+    }
+
+    /**
+     * Returns the position of the last entry at or before {@code timeMs}, or of the oldest entry
+     * if {@code timeMs} is older than that. Only entries at or after {@code minPosition} are
+     * considered.
+     *
+     * @return the position, or {@link C#POSITION_UNSET} if there is no entry
+     */
+    synchronized long getPosition(long timeMs, long minPosition) {
+        int first = findFirstEntry(minPosition);
+        if (first == mCount) {
+            return C.POSITION_UNSET;
+        }
+        int low = first;
+        int high = mCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getTimeMsAt(mid) <= timeMs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return getPositionAt(low);
+    }
+
+    /**
+     * Returns the time of the data at {@code position}, interpolated from the entries around it
+     * with the average byte rate.
+     *
+     * @return the time, or {@link C#TIME_UNSET} if it is before the first entry
+     */
+    synchronized long getTimeMs(long position) {
+        int entry = findFirstEntry(position + 1) - 1;
+        if (entry < 0) {
+            return C.TIME_UNSET;
+        }
+        long timeMs = getTimeMsAt(entry);
+        long bytes = getPositionAt(mCount - 1) - getPositionAt(0);
+        long durationMs = getTimeMsAt(mCount - 1) - getTimeMsAt(0);
+        if (bytes > 0 && durationMs > 0) {
+            timeMs += (position - getPositionAt(entry)) * durationMs / bytes;
+            if (entry + 1 < mCount) {
+                timeMs = Math.min(timeMs, getTimeMsAt(entry + 1));
+            }
+        }
+        return timeMs;
+    }
+}
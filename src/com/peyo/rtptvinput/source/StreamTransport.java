@@ -0,0 +1,48 @@
+package com.peyo.rtptvinput.source;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How the datagrams of a stream carry the transport stream.
+ * </p>
+ * {@link RtpStreamer} reads each datagram with a scattering read: the first
+ * {@link #getHeaderSize()} bytes go into a header buffer and the rest straight into the writable
+ * region of the {@link RingBuffer}. The transport then commits the TS payload found there, or
+ * holds it back, e.g. to put it in order.
+ */
+interface StreamTransport {
+    /**
+     * Returns the size of the header which is put aside from each datagram.
+     */
+    int getHeaderSize();
+
+    /**
+     * Handles a datagram whose header is in {@code header} and whose remaining {@code length}
+     * bytes are at the start of the writable region of the ring.
+     *
+     * @param arrivalNs when the datagram was received, in {@link System#nanoTime()}
+     */
+    void onPacket(ByteBuffer header, int length, long arrivalNs);
+
+    /**
+     * Forgets the state of the stream, e.g. when the sender has changed.
+     */
+    void reset();
+
+    /**
+     * Returns the interarrival jitter as defined by RFC 3550, or 0 if it is not known.
+     */
+    long getJitterUs();
+
+    /**
+     * Returns how much later than the earliest the packets of the last few seconds arrived,
+     * relative to when they were sent, or 0 if it is not known.
+     */
+    long getDelayVariationUs();
+
+    long getPacketsReceived();
+
+    long getPacketsLost();
+
+    long getPacketsReordered();
+}
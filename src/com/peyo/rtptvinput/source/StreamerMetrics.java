@@ -0,0 +1,147 @@
+package com.peyo.rtptvinput.source;
+
+import android.net.Uri;
+
+/**
+ * Snapshot of the ingest counters and gauges of a streamer.
+ */
+public class StreamerMetrics {
+    private final Uri mUri;
+    private final long mPacketRate;
+    private final long mByteRate;
+    private final long mPacketsReceived;
+    private final long mPacketsLost;
+    private final long mPacketsRecovered;
+    private final long mPacketsReordered;
+    private final long mTsPacketsFiltered;
+    private final long mBufferCapacity;
+    private final long mSlowestReaderLag;
+    private final int mReaderCount;
+    private final long mOverwriteCount;
+    private final long mIngestWakeupCount;
+    private final long mReaderWakeupCount;
+
+    StreamerMetrics(Uri uri, long packetRate, long byteRate, long packetsReceived,
+            long packetsLost, long packetsRecovered, long packetsReordered,
+            long tsPacketsFiltered, long bufferCapacity, long slowestReaderLag, int readerCount,
+            long overwriteCount, long ingestWakeupCount, long readerWakeupCount) {
+        mUri = uri;
+        mPacketRate = packetRate;
+        mByteRate = byteRate;
+        mPacketsReceived = packetsReceived;
+        mPacketsLost = packetsLost;
+        mPacketsRecovered = packetsRecovered;
+        mPacketsReordered = packetsReordered;
+        mTsPacketsFiltered = tsPacketsFiltered;
+        mBufferCapacity = bufferCapacity;
+        mSlowestReaderLag = slowestReaderLag;
+        mReaderCount = readerCount;
+        mOverwriteCount = overwriteCount;
+        mIngestWakeupCount = ingestWakeupCount;
+        mReaderWakeupCount = readerWakeupCount;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * Returns the recent rate of RTP packets per second.
+     */
+    public long getPacketRate() {
+        return mPacketRate;
+    }
+
+    /**
+     * Returns the recent rate of payload bytes per second.
+     */
+    public long getByteRate() {
+        return mByteRate;
+    }
+
+    public long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    /**
+     * Returns the packets which were lost and could not be rebuilt from the FEC.
+     */
+    public long getPacketsLost() {
+        return mPacketsLost;
+    }
+
+    /**
+     * Returns the lost packets which were rebuilt from the FEC.
+     */
+    public long getPacketsRecovered() {
+        return mPacketsRecovered;
+    }
+
+    public long getPacketsReordered() {
+        return mPacketsReordered;
+    }
+
+    /**
+     * Returns how many TS packets of other programs were dropped before the circular buffer.
+     */
+    public long getTsPacketsFiltered() {
+        return mTsPacketsFiltered;
+    }
+
+    public long getBufferCapacity() {
+        return mBufferCapacity;
+    }
+
+    /**
+     * Returns how many bytes the slowest reader is behind the newest data, or 0 if there is no
+     * reader.
+     */
+    public long getSlowestReaderLag() {
+        return mSlowestReaderLag;
+    }
+
+    /**
+     * Returns the lag of the slowest reader in percent of the circular buffer. At 100 its data
+     * is being overwritten, unless it is kept in a time-shift buffer.
+     */
+    public int getBufferFillPercent() {
+        return (int) (mSlowestReaderLag * 100 / mBufferCapacity);
+    }
+
+    public int getReaderCount() {
+        return mReaderCount;
+    }
+
+    /**
+     * Returns how many reads failed because the data had already been overwritten.
+     */
+    public long getOverwriteCount() {
+        return mOverwriteCount;
+    }
+
+    /**
+     * Returns how many times the ingest thread woke up with data to receive.
+     */
+    public long getIngestWakeupCount() {
+        return mIngestWakeupCount;
+    }
+
+    /**
+     * Returns how many times the ingest thread woke up parked readers.
+     */
+    public long getReaderWakeupCount() {
+        return mReaderWakeupCount;
+    }
+
+    @Override
+    public String toString() {
+        return mUri + " packets/s=" + mPacketRate + " bytes/s=" + mByteRate
+                + " received=" + mPacketsReceived + " lost=" + mPacketsLost
+                + " recovered=" + mPacketsRecovered + " reordered=" + mPacketsReordered
+                + " filtered=" + mTsPacketsFiltered
+                + " readers=" + mReaderCount
+                + " fill=" + getBufferFillPercent() + "% lag=" + mSlowestReaderLag
+                + " overwrites=" + mOverwriteCount + " wakeups=" + mIngestWakeupCount
+                + " readerWakeups=" + mReaderWakeupCount;
+    }
+}
@@ -0,0 +1,323 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the stream on local storage for a time-shift window which is much longer than the
+ * in-memory {@link RingBuffer}. It is attached to the streamer as a {@link TsStreamer.Sink}.
+ * </p>
+ * The stream is appended to rolling segment files of {@link #SEGMENT_SIZE} bytes, which are
+ * deleted once they fall out of the window. Segments are written and read back with positional
+ * channel I/O rather than mapped, as a mapping would keep the address space and the blocks of a
+ * deleted segment until it is collected. Positions are the same absolute stream positions the
+ * ring buffer uses.
+ * </p>
+ * The ingest thread only copies the data into a small pool of buffers. Everything which touches
+ * the disk, from creating the directory to writing and deleting segments, runs on an I/O thread
+ * shared by all time-shift buffers, so a buffer which is released and a new one of the same
+ * stream do not race on the files. When the storage falls so far behind that the pool runs out,
+ * data is dropped and the window starts again after the gap.
+ */
+class TimeShiftBuffer implements TsStreamer.Sink {
+    private static final String TAG = "TimeShiftBuffer";
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    // Less than the smallest ring, so that what the ring has overwritten is already on the disk.
+    private static final int WRITE_BUFFER_SIZE = 512 * 1024;
+    private static final int WRITE_BUFFER_COUNT = 4;
+
+    private static final ExecutorService sIoExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final File mDirectory;
+    private final long mWindowSize;
+    private final Map<Long, RandomAccessFile> mSegmentFiles = new HashMap<>();
+    private final BlockingQueue<ByteBuffer> mFreeBuffers =
+            new ArrayBlockingQueue<>(WRITE_BUFFER_COUNT);
+    private volatile long mStartPosition;
+    private volatile long mWritePosition;
+    private volatile boolean mFailed;
+
+    // Used by the ingest thread.
+    private ByteBuffer mCurrentBuffer;
+    private long mCurrentBufferPosition;
+    private long mAppendPosition;
+    private int mAllocatedBuffers;
+    private boolean mDropping;
+
+    // Used by the I/O thread.
+    private FileChannel mWriteChannel;
+    private long mWriteSegmentIndex = -1;
+
+    /**
+     * @param directory where the segment files are kept; files left in it are removed
+     * @param windowSize how many bytes of the stream are kept
+     * @param startPosition stream position of the first byte which will be appended
+     */
+    TimeShiftBuffer(File directory, long windowSize, long startPosition) {
+        mDirectory = directory;
+        mWindowSize = Math.max(windowSize, 2L * SEGMENT_SIZE);
+        mStartPosition = startPosition;
+        mWritePosition = startPosition;
+        mAppendPosition = startPosition;
+        sIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                    Log.w(TAG, "Cannot create " + mDirectory);
+                }
+                deleteFiles();
+            }
+        });
+    }
+
+    /**
+     * Returns the oldest position which can be read.
+     */
+    long getStartPosition() {
+        return mStartPosition;
+    }
+
+    /**
+     * Returns the position up to which data can be read.
+     */
+    long getWritePosition() {
+        return mWritePosition;
+    }
+
+    /**
+     * Appends the remaining bytes of {@code data}. Never blocks.
+     */
+    @Override
+    public void onData(ByteBuffer data) {
+        if (mFailed) {
+            return;
+        }
+        while (data.hasRemaining()) {
+            if (mCurrentBuffer == null) {
+                mCurrentBuffer = obtainBuffer();
+                if (mCurrentBuffer == null) {
+                    mAppendPosition += data.remaining();
+                    data.position(data.limit());
+                    return;
+                }
+                mCurrentBufferPosition = mAppendPosition;
+            }
+            int length = Math.min(data.remaining(), mCurrentBuffer.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + length);
+            mCurrentBuffer.put(data);
+            data.limit(limit);
+            mAppendPosition += length;
+            if (!mCurrentBuffer.hasRemaining()) {
+                queueWrite(mCurrentBuffer, mCurrentBufferPosition);
+                mCurrentBuffer = null;
+            }
+        }
+    }
+
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null && mAllocatedBuffers < WRITE_BUFFER_COUNT) {
+            buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            mAllocatedBuffers++;
+        }
+        if (buffer == null) {
+            if (!mDropping) {
+                Log.w(TAG, "Storage is too slow, dropping time-shift data.");
+                mDropping = true;
+            }
+        } else {
+            mDropping = false;
+        }
+        return buffer;
+    }
+
+    private void queueWrite(final ByteBuffer buffer, final long position) {
+        sIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                buffer.flip();
+                if (!mFailed) {
+                    write(buffer, position);
+                }
+                buffer.clear();
+                mFreeBuffers.add(buffer);
+            }
+        });
+    }
+
+    /**
+     * Writes {@code data} from the stream position {@code position} to the segments. Must only
+     * be called from the I/O thread.
+     */
+    private void write(ByteBuffer data, long position) {
+        if (position != mWritePosition) {
+            // Data was dropped, what is before the gap cannot be read in one piece any more.
+            mStartPosition = position;
+            mWritePosition = position;
+        }
+        try {
+            while (data.hasRemaining()) {
+                long segmentIndex = mWritePosition / SEGMENT_SIZE;
+                if (segmentIndex != mWriteSegmentIndex) {
+                    openWriteSegment(segmentIndex);
+                }
+                int offset = (int) (mWritePosition % SEGMENT_SIZE);
+                int length = Math.min(data.remaining(), SEGMENT_SIZE - offset);
+                int limit = data.limit();
+                data.limit(data.position() + length);
+                long segmentPosition = offset;
+                while (data.hasRemaining()) {
+                    segmentPosition += mWriteChannel.write(data, segmentPosition);
+                }
+                data.limit(limit);
+                mWritePosition += length;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Time-shift buffer is disabled", e);
+            mFailed = true;
+        }
+    }
+
+    private void openWriteSegment(long segmentIndex) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getSegmentFile(segmentIndex), "rw");
+        mWriteChannel = file.getChannel();
+        mWriteSegmentIndex = segmentIndex;
+        long firstIndex = Math.max(0, (mWritePosition - mWindowSize) / SEGMENT_SIZE + 1);
+        if (firstIndex * SEGMENT_SIZE > mStartPosition) {
+            mStartPosition = firstIndex * SEGMENT_SIZE;
+        }
+        List<Long> oldIndices = new ArrayList<>();
+        synchronized (mSegmentFiles) {
+            mSegmentFiles.put(segmentIndex, file);
+            for (Long index : mSegmentFiles.keySet()) {
+                if (index < firstIndex) {
+                    oldIndices.add(index);
+                }
+            }
+        }
+        for (Long index : oldIndices) {
+            closeSegment(index);
+        }
+    }
+
+    private void closeSegment(long segmentIndex) {
+        RandomAccessFile file;
+        synchronized (mSegmentFiles) {
+            file = mSegmentFiles.remove(segmentIndex);
+        }
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error on closing segment " + segmentIndex, e);
+        }
+        if (!getSegmentFile(segmentIndex).delete()) {
+            Log.w(TAG, "Cannot delete segment " + segmentIndex);
+        }
+    }
+
+    private File getSegmentFile(long segmentIndex) {
+        return new File(mDirectory, segmentIndex + ".ts");
+    }
+
+    /**
+     * Copies {@code amount} bytes starting at the absolute position {@code pos}.
+     *
+     * @return {@code amount}, or -1 if the data is not in the window
+     */
+    int readAt(long pos, byte[] buffer, int offset, int amount) {
+        if (pos < mStartPosition || pos + amount > mWritePosition) {
+            Log.e(TAG, "Requested data is out of the time-shift window.");
+            return -1;
+        }
+        int read = 0;
+        while (read < amount) {
+            long position = pos + read;
+            RandomAccessFile file;
+            synchronized (mSegmentFiles) {
+                file = mSegmentFiles.get(position / SEGMENT_SIZE);
+            }
+            if (file == null) {
+                return -1;
+            }
+            int segmentOffset = (int) (position % SEGMENT_SIZE);
+            int length = Math.min(amount - read, SEGMENT_SIZE - segmentOffset);
+            try {
+                int bytesRead = file.getChannel().read(
+                        ByteBuffer.wrap(buffer, offset + read, length), segmentOffset);
+                if (bytesRead <= 0) {
+                    return -1;
+                }
+                read += bytesRead;
+            } catch (ClosedChannelException e) {
+                // The segment has just left the window.
+                return -1;
+            } catch (IOException e) {
+                Log.w(TAG, "Error on reading segment", e);
+                return -1;
+            }
+        }
+        return amount;
+    }
+
+    /**
+     * Stops appending, and closes and deletes all segment files once the data which is queued
+     * has been handled.
+     */
+    void release() {
+        mFailed = true;
+        mCurrentBuffer = null;
+        sIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Long> indices;
+                synchronized (mSegmentFiles) {
+                    indices = new ArrayList<>(mSegmentFiles.keySet());
+                }
+                for (Long index : indices) {
+                    closeSegment(index);
+                }
+                mWriteChannel = null;
+                deleteFiles();
+            }
+        });
+    }
+
+    private void deleteFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(TAG, "Cannot delete " + file);
+            }
+        }
+    }
+}
@@ -3,7 +3,49 @@ package com.peyo.rtptvinput.source;
 import com.google.android.exoplayer2.upstream.DataSource;
 
 public interface TsDataSource extends DataSource {
+    /** The multicast group was joined, or the socket bound. */
+    int MILESTONE_JOINED = 0;
+    /** The first RTP packet arrived. */
+    int MILESTONE_FIRST_PACKET = 1;
+    /** The first whole TS packet was found. */
+    int MILESTONE_FIRST_SYNC = 2;
+    /** The PAT and the PMT were parsed. */
+    int MILESTONE_PAT_PMT = 3;
+    /** The first random access point of the video arrived. */
+    int MILESTONE_FIRST_KEY_FRAME = 4;
+    int MILESTONE_COUNT = 5;
+
     long getBufferedPosition();
     long getLastReadPosition();
     void shiftStartPosition(long offset);
+
+    /**
+     * Returns the wall clock time of the oldest data which can still be read, or
+     * {@link com.google.android.exoplayer2.C#TIME_UNSET} if it is not known.
+     */
+    long getStartTimeMs();
+
+    /**
+     * Returns the wall clock time of the data last read, or
+     * {@link com.google.android.exoplayer2.C#TIME_UNSET} if it is not known.
+     */
+    long getLastReadTimeMs();
+
+    /**
+     * Returns the absolute stream position where reading can start to show {@code timeMs}, or
+     * {@link com.google.android.exoplayer2.C#POSITION_UNSET} if it is not known.
+     */
+    long getPositionForTime(long timeMs);
+
+    /**
+     * Returns how the stream is arriving from the network, or {@code null} if it is not known.
+     */
+    IngestStats getIngestStats();
+
+    /**
+     * Returns the {@link android.os.SystemClock#elapsedRealtime} when the stream first reached
+     * {@code milestone}, one of the {@code MILESTONE_*} constants, or
+     * {@link com.google.android.exoplayer2.C#TIME_UNSET} if it has not yet.
+     */
+    long getMilestoneTimeMs(int milestone);
 }
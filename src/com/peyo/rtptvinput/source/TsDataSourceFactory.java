@@ -8,27 +8,98 @@ import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.FileDataSource;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TsDataSourceFactory implements DataSource.Factory {
 
-    private static final Object sLock = new Object();
-    private static int sSequenceId;
     private final int mId;
+    private volatile long mStartPosition = C.POSITION_UNSET;
+    private volatile TsDataSource mLiveSource;
 
     private final TsStreamerManager mStreamManager = TsStreamerManager.getInstance();
 
     public static TsDataSourceFactory createSourceFactory() {
-        int id;
-        synchronized (sLock) {
-            id = ++sSequenceId;
-        }
-        return new TsDataSourceFactory(id);
+        return new TsDataSourceFactory(TsStreamerManager.getInstance().createSessionId());
     }
 
     private TsDataSourceFactory(int id) {
         mId = id;
     }
 
+    /**
+     * Returns the ingest metrics of every stream which is joined, by any session.
+     */
+    public static List<StreamerMetrics> getStreamerMetrics() {
+        return TsStreamerManager.getInstance().getMetrics();
+    }
+
+    /**
+     * Sets where the data sources created from now on start reading: the byte offset in a file,
+     * or the absolute position in a live stream. {@link C#POSITION_UNSET} starts at the beginning
+     * of a file and at the newest data of a live stream.
+     */
+    public void setStartPosition(long position) {
+        mStartPosition = position;
+    }
+
+    /**
+     * Keeps the streams of {@code uris} joined in the background, the one being played and then
+     * the most likely to be played next, so that switching to one of them is fast. An empty list
+     * releases them.
+     */
+    public void prepareStreams(List<String> uris) {
+        List<Uri> streamUris = new ArrayList<>();
+        for (String uri : uris) {
+            streamUris.add(Uri.parse(uri));
+        }
+        mStreamManager.prepareStreamers(streamUris);
+    }
+
+    /**
+     * Returns the wall clock time of the oldest data of the live stream being played, or
+     * {@link C#TIME_UNSET}.
+     */
+    public long getStartTimeMs() {
+        TsDataSource source = mLiveSource;
+        return source == null ? C.TIME_UNSET : source.getStartTimeMs();
+    }
+
+    /**
+     * Returns the wall clock time of the data of the live stream last read, or
+     * {@link C#TIME_UNSET}.
+     */
+    public long getLastReadTimeMs() {
+        TsDataSource source = mLiveSource;
+        return source == null ? C.TIME_UNSET : source.getLastReadTimeMs();
+    }
+
+    /**
+     * Returns how the live stream being played is arriving from the network, or {@code null}.
+     */
+    public IngestStats getIngestStats() {
+        TsDataSource source = mLiveSource;
+        return source == null ? null : source.getIngestStats();
+    }
+
+    /**
+     * Returns the position in the live stream being played where reading can start to show
+     * {@code timeMs}, or {@link C#POSITION_UNSET}.
+     */
+    public long getPositionForTime(long timeMs) {
+        TsDataSource source = mLiveSource;
+        return source == null ? C.POSITION_UNSET : source.getPositionForTime(timeMs);
+    }
+
+    /**
+     * Returns when the live stream being played reached {@code milestone}, one of the
+     * {@code TsDataSource.MILESTONE_*} constants, or {@link C#TIME_UNSET}.
+     */
+    public long getMilestoneTimeMs(int milestone) {
+        TsDataSource source = mLiveSource;
+        return source == null ? C.TIME_UNSET : source.getMilestoneTimeMs(milestone);
+    }
+
     @Override
     public DataSource createDataSource() {
         return new DataSourceImpl();
@@ -42,8 +113,15 @@ public class TsDataSourceFactory implements DataSource.Factory {
             String uri = dataSpec.uri.toString();
             if (uri.startsWith("file://")) {
                 dataSource = new FileDataSource(null);
-            } else if (uri.startsWith("udp://")) {
-                dataSource = mStreamManager.createDataSource(dataSpec.uri, mId);
+                long startPosition = mStartPosition;
+                if (startPosition > 0) {
+                    dataSpec = new DataSpec(dataSpec.uri,
+                            dataSpec.absoluteStreamPosition + startPosition, dataSpec.length,
+                            dataSpec.key, dataSpec.flags);
+                }
+            } else if (RtpStreamer.isStreamUri(dataSpec.uri)) {
+                dataSource = mStreamManager.createDataSource(dataSpec.uri, mId, mStartPosition);
+                mLiveSource = (TsDataSource) dataSource;
             } else {
                 return C.LENGTH_UNSET;
             }
@@ -65,6 +143,9 @@ public class TsDataSourceFactory implements DataSource.Factory {
             if (dataSource instanceof FileDataSource) {
                     dataSource.close();
             } else if (dataSource instanceof RtpStreamer.RtpDataSource) {
+                if (mLiveSource == dataSource) {
+                    mLiveSource = null;
+                }
                 mStreamManager.releaseDataSource((TsDataSource)dataSource, mId);
                 try {
                     dataSource.close();
@@ -99,5 +180,50 @@ public class TsDataSourceFactory implements DataSource.Factory {
             }
         }
 
+        @Override
+        public long getStartTimeMs() {
+            if (dataSource instanceof RtpStreamer.RtpDataSource) {
+                return ((TsDataSource)dataSource).getStartTimeMs();
+            } else {
+                return C.TIME_UNSET;
+            }
+        }
+
+        @Override
+        public long getLastReadTimeMs() {
+            if (dataSource instanceof RtpStreamer.RtpDataSource) {
+                return ((TsDataSource)dataSource).getLastReadTimeMs();
+            } else {
+                return C.TIME_UNSET;
+            }
+        }
+
+        @Override
+        public long getPositionForTime(long timeMs) {
+            if (dataSource instanceof RtpStreamer.RtpDataSource) {
+                return ((TsDataSource)dataSource).getPositionForTime(timeMs);
+            } else {
+                return C.POSITION_UNSET;
+            }
+        }
+
+        @Override
+        public IngestStats getIngestStats() {
+            if (dataSource instanceof RtpStreamer.RtpDataSource) {
+                return ((TsDataSource)dataSource).getIngestStats();
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public long getMilestoneTimeMs(int milestone) {
+            if (dataSource instanceof RtpStreamer.RtpDataSource) {
+                return ((TsDataSource)dataSource).getMilestoneTimeMs(milestone);
+            } else {
+                return C.TIME_UNSET;
+            }
+        }
+
     }
 }
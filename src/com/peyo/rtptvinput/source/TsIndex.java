@@ -0,0 +1,143 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Index of the random access points of a recording, kept in a sidecar file next to it.
+ * </p>
+ * The file has a magic number and a version followed by entries of a time, in milliseconds from
+ * the start of the recording, and the byte offset where playback can start to show that time.
+ * Entries are in increasing order of both, so a seek is a binary search.
+ */
+public class TsIndex {
+    private static final String TAG = "TsIndex";
+
+    public static final String FILE_EXTENSION = ".idx";
+    private static final int MAGIC = 0x54534958; // "TSIX"
+    private static final int VERSION = 1;
+
+    private final long[] mTimesMs;
+    private final long[] mPositions;
+
+    private TsIndex(long[] timesMs, long[] positions) {
+        mTimesMs = timesMs;
+        mPositions = positions;
+    }
+
+    /**
+     * Returns the index file of a recording.
+     */
+    public static File getIndexFile(File recording) {
+        String name = recording.getName();
+        if (name.endsWith(".ts")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return new File(recording.getParentFile(), name + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the index of a recording.
+     *
+     * @return the index, or {@code null} if there is no usable index
+     */
+    public static TsIndex read(File recording) {
+        File file = getIndexFile(recording);
+        if (!file.isFile()) {
+            return null;
+        }
+        int count = (int) ((file.length() - 8) / 16);
+        long[] timesMs = new long[Math.max(count, 0)];
+        long[] positions = new long[timesMs.length];
+        int read = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Unknown index format " + file);
+                return null;
+            }
+            for (; read < timesMs.length; read++) {
+                timesMs[read] = in.readLong();
+                positions[read] = in.readLong();
+            }
+        } catch (EOFException e) {
+            // The recording was not closed properly, use what is there.
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file, e);
+            return null;
+        }
+        if (read == 0) {
+            return null;
+        }
+        return new TsIndex(Arrays.copyOf(timesMs, read), Arrays.copyOf(positions, read));
+    }
+
+    public int size() {
+        return mTimesMs.length;
+    }
+
+    public long getTimeMs(int entry) {
+        return mTimesMs[entry];
+    }
+
+    public long getPosition(int entry) {
+        return mPositions[entry];
+    }
+
+    /**
+     * Returns the last entry at or before {@code timeMs}, or the first entry if there is none.
+     */
+    public int findEntry(long timeMs) {
+        int entry = Arrays.binarySearch(mTimesMs, timeMs);
+        if (entry < 0) {
+            entry = -entry - 2;
+        }
+        return Math.max(entry, 0);
+    }
+
+    /**
+     * Writes an index while the recording is written.
+     */
+    static class Writer {
+        private final DataOutputStream mOut;
+        private long mLastTimeMs = -1;
+
+        Writer(File recording) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(getIndexFile(recording))));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+        }
+
+        void add(long timeMs, long position) {
+            if (timeMs <= mLastTimeMs) {
+                return;
+            }
+            mLastTimeMs = timeMs;
+            try {
+                mOut.writeLong(timeMs);
+                mOut.writeLong(position);
+            } catch (IOException e) {
+                Log.w(TAG, "Error on writing index.", e);
+            }
+        }
+
+        void close() {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error on closing index.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cuts a byte stream into whole 188-byte TS packets.
+ * </p>
+ * The sync byte is only trusted once the byte a packet length after it is a sync byte too. Bytes
+ * before the first packet and packets whose sync byte is missing are dropped, and a packet which
+ * straddles two calls is carried over, so the downstream sink only ever sees whole packets
+ * starting with a sync byte.
+ */
+class TsPacketAligner implements TsStreamer.Sink {
+    private static final String TAG = "TsPacketAligner";
+
+    static final int PACKET_SIZE = 188;
+    static final byte SYNC_BYTE = 0x47;
+
+    private final TsStreamer.Sink mOutput;
+    private final byte[] mCarry = new byte[PACKET_SIZE];
+    private final ByteBuffer mCarryBuffer = ByteBuffer.wrap(mCarry);
+    private int mCarryLength;
+    private long mCarryPosition;
+    // Stream position of the byte at position 0 of the data being aligned.
+    private long mBasePosition;
+    private long mOutputPosition;
+    private boolean mSynced;
+    private long mBytesDropped;
+    private long mResyncCount;
+
+    /**
+     * @param output receives whole packets
+     */
+    TsPacketAligner(TsStreamer.Sink output) {
+        mOutput = output;
+    }
+
+    /**
+     * Forgets the partial packet and the sync, e.g. when a new stream starts.
+     */
+    void reset() {
+        mCarryLength = 0;
+        mSynced = false;
+    }
+
+    /**
+     * Returns the stream position of the data being passed to the output. It is only valid
+     * during the call to the output, and counts every byte this aligner has been given.
+     */
+    long getOutputPosition() {
+        return mOutputPosition;
+    }
+
+    @Override
+    public void onData(ByteBuffer data) {
+        mBasePosition -= data.position();
+        while (data.hasRemaining()) {
+            if (mCarryLength > 0) {
+                completeCarry(data);
+            } else if (mSynced) {
+                emitPackets(data);
+            } else {
+                findSync(data);
+            }
+        }
+        mBasePosition += data.position();
+    }
+
+    private void completeCarry(ByteBuffer data) {
+        int length = Math.min(PACKET_SIZE - mCarryLength, data.remaining());
+        data.get(mCarry, mCarryLength, length);
+        mCarryLength += length;
+        if (mCarryLength < PACKET_SIZE) {
+            return;
+        }
+        mCarryLength = 0;
+        if (data.hasRemaining() && data.get(data.position()) != SYNC_BYTE) {
+            // Either the carried packet or the one after it is broken, drop the former.
+            lostSync(PACKET_SIZE);
+            return;
+        }
+        mSynced = true;
+        mCarryBuffer.clear();
+        mOutputPosition = mCarryPosition;
+        mOutput.onData(mCarryBuffer);
+    }
+
+    private void emitPackets(ByteBuffer data) {
+        int start = data.position();
+        int end = start;
+        while (data.limit() - end >= PACKET_SIZE && data.get(end) == SYNC_BYTE) {
+            end += PACKET_SIZE;
+        }
+        if (end > start) {
+            int limit = data.limit();
+            data.limit(end);
+            mOutputPosition = mBasePosition + start;
+            mOutput.onData(data);
+            data.limit(limit).position(end);
+        }
+        if (!data.hasRemaining()) {
+            return;
+        }
+        if (data.get(end) == SYNC_BYTE) {
+            // The beginning of the next packet.
+            mCarryPosition = mBasePosition + end;
+            mCarryLength = data.remaining();
+            data.get(mCarry, 0, mCarryLength);
+        } else {
+            lostSync(0);
+        }
+    }
+
+    private void findSync(ByteBuffer data) {
+        int start = data.position();
+        int limit = data.limit();
+        int offset = start;
+        while (offset < limit) {
+            if (data.get(offset) == SYNC_BYTE
+                    && (offset + PACKET_SIZE >= limit
+                            || data.get(offset + PACKET_SIZE) == SYNC_BYTE)) {
+                break;
+            }
+            offset++;
+        }
+        mBytesDropped += offset - start;
+        data.position(offset);
+        if (offset >= limit) {
+            return;
+        }
+        if (offset + PACKET_SIZE < limit) {
+            mSynced = true;
+        } else {
+            // Can not be confirmed yet, the carry is checked against the next byte.
+            mCarryPosition = mBasePosition + offset;
+            mCarryLength = Math.min(PACKET_SIZE, limit - offset);
+            data.get(mCarry, 0, mCarryLength);
+        }
+    }
+
+    private void lostSync(int bytesDropped) {
+        mBytesDropped += bytesDropped;
+        mResyncCount++;
+        if (mSynced) {
+            Log.w(TAG, "Lost TS sync, " + mBytesDropped + " bytes dropped so far");
+        }
+        mSynced = false;
+    }
+
+    long getBytesDropped() {
+        return mBytesDropped;
+    }
+
+    long getResyncCount() {
+        return mResyncCount;
+    }
+}
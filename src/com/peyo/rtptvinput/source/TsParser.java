@@ -0,0 +1,238 @@
+package com.peyo.rtptvinput.source;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the random access points of the video stream of a transport stream.
+ * </p>
+ * Only the headers are looked at: the PAT and PMT to find the video and PCR PIDs, the PCR to keep
+ * a stream clock, and the start of each video PES, which is a random access point when the
+ * adaptation field says so or when it begins with an IDR picture (H.264, HEVC) or a sequence
+ * header or I picture (MPEG-2). Sections are expected to fit in a single packet.
+ */
+class TsParser {
+    static final int PAT_PID = 0;
+    static final int TABLE_ID_PAT = 0x00;
+    static final int TABLE_ID_PMT = 0x02;
+    private static final int STREAM_TYPE_MPEG1_VIDEO = 0x01;
+    private static final int STREAM_TYPE_MPEG2_VIDEO = 0x02;
+    private static final int STREAM_TYPE_H264 = 0x1b;
+    private static final int STREAM_TYPE_H265 = 0x24;
+    private static final long PCR_MODULO = 1L << 33;
+    // A PCR further from the previous one than this is a discontinuity, not elapsed time.
+    private static final long MAX_PCR_GAP = 10 * 90000;
+
+    interface Listener {
+        /**
+         * Called for each random access point of the video stream.
+         *
+         * @param timeUs stream time of the last PCR before it, counted from the first PCR
+         * @param position position of the PAT before it, where a demuxer can start
+         */
+        void onRandomAccessPoint(long timeUs, long position);
+    }
+
+    private final Listener mListener;
+    private int mPmtPid = -1;
+    private int mPcrPid = -1;
+    private int mVideoPid = -1;
+    private int mVideoStreamType = -1;
+    private long mLastPcr = -1;
+    private long mStreamTime;
+    private long mPatPosition = -1;
+    private long mReportedPatPosition = -1;
+
+    TsParser(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Parses the whole packets from the position to the limit of {@code data}, which is left
+     * unchanged.
+     *
+     * @param position stream position of the first byte of {@code data}
+     */
+    void parse(ByteBuffer data, long position) {
+        int start = data.position();
+        for (int offset = start; offset + TsPacketAligner.PACKET_SIZE <= data.limit();
+                offset += TsPacketAligner.PACKET_SIZE) {
+            parsePacket(data, offset, position + offset - start);
+        }
+    }
+
+    /**
+     * Returns whether the PAT and a PMT with a video stream have been parsed.
+     */
+    boolean hasProgram() {
+        return mVideoPid >= 0;
+    }
+
+    private void parsePacket(ByteBuffer data, int offset, long position) {
+        if (data.get(offset) != TsPacketAligner.SYNC_BYTE) {
+            return;
+        }
+        boolean unitStart = (data.get(offset + 1) & 0x40) != 0;
+        int pid = ((data.get(offset + 1) & 0x1f) << 8) | (data.get(offset + 2) & 0xff);
+        int adaptationFieldControl = (data.get(offset + 3) >> 4) & 0x03;
+        int end = offset + TsPacketAligner.PACKET_SIZE;
+        int payloadStart = offset + 4;
+        boolean randomAccess = false;
+        if ((adaptationFieldControl & 0x02) != 0) {
+            int length = data.get(offset + 4) & 0xff;
+            if (length > 0) {
+                int flags = data.get(offset + 5) & 0xff;
+                randomAccess = (flags & 0x40) != 0;
+                if ((flags & 0x10) != 0 && length >= 7 && pid == mPcrPid) {
+                    onPcr(readPcr(data, offset + 6));
+                }
+            }
+            payloadStart += 1 + length;
+        }
+        if ((adaptationFieldControl & 0x01) == 0 || payloadStart >= end || !unitStart) {
+            return;
+        }
+        if (pid == PAT_PID) {
+            mPatPosition = position;
+            parsePat(data, payloadStart, end);
+        } else if (pid == mPmtPid) {
+            parsePmt(data, payloadStart, end);
+        } else if (pid == mVideoPid && mPatPosition >= 0 && mLastPcr >= 0
+                && (randomAccess || isKeyFrame(data, payloadStart, end))
+                && mPatPosition != mReportedPatPosition) {
+            mReportedPatPosition = mPatPosition;
+            mListener.onRandomAccessPoint(mStreamTime * 1000 / 90, mPatPosition);
+        }
+    }
+
+    private static long readPcr(ByteBuffer data, int offset) {
+        return ((data.get(offset) & 0xffL) << 25) | ((data.get(offset + 1) & 0xffL) << 17)
+                | ((data.get(offset + 2) & 0xffL) << 9) | ((data.get(offset + 3) & 0xffL) << 1)
+                | ((data.get(offset + 4) & 0xffL) >> 7);
+    }
+
+    private void onPcr(long pcr) {
+        if (mLastPcr >= 0) {
+            long elapsed = (pcr - mLastPcr + PCR_MODULO) % PCR_MODULO;
+            if (elapsed < MAX_PCR_GAP) {
+                mStreamTime += elapsed;
+            }
+        }
+        mLastPcr = pcr;
+    }
+
+    /**
+     * Returns the offset of the section after the pointer field, or -1 if it is not a complete
+     * section of {@code tableId}. The section length is bound to {@code end}.
+     */
+    static int findSection(ByteBuffer data, int payloadStart, int end, int tableId) {
+        int section = payloadStart + 1 + (data.get(payloadStart) & 0xff);
+        if (section + 3 > end || (data.get(section) & 0xff) != tableId) {
+            return -1;
+        }
+        int length = ((data.get(section + 1) & 0x0f) << 8) | (data.get(section + 2) & 0xff);
+        return section + 3 + length > end ? -1 : section;
+    }
+
+    static int getSectionEnd(ByteBuffer data, int section) {
+        // Excludes the CRC.
+        return section + 3 + (((data.get(section + 1) & 0x0f) << 8)
+                | (data.get(section + 2) & 0xff)) - 4;
+    }
+
+    private void parsePat(ByteBuffer data, int payloadStart, int end) {
+        int section = findSection(data, payloadStart, end, TABLE_ID_PAT);
+        if (section < 0) {
+            return;
+        }
+        int sectionEnd = getSectionEnd(data, section);
+        for (int i = section + 8; i + 4 <= sectionEnd; i += 4) {
+            int programNumber = ((data.get(i) & 0xff) << 8) | (data.get(i + 1) & 0xff);
+            if (programNumber != 0) {
+                mPmtPid = ((data.get(i + 2) & 0x1f) << 8) | (data.get(i + 3) & 0xff);
+                return;
+            }
+        }
+    }
+
+    private void parsePmt(ByteBuffer data, int payloadStart, int end) {
+        int section = findSection(data, payloadStart, end, TABLE_ID_PMT);
+        if (section < 0 || section + 12 > end) {
+            return;
+        }
+        int sectionEnd = getSectionEnd(data, section);
+        mPcrPid = ((data.get(section + 8) & 0x1f) << 8) | (data.get(section + 9) & 0xff);
+        int programInfoLength = ((data.get(section + 10) & 0x0f) << 8)
+                | (data.get(section + 11) & 0xff);
+        for (int i = section + 12 + programInfoLength; i + 5 <= sectionEnd; ) {
+            int streamType = data.get(i) & 0xff;
+            int pid = ((data.get(i + 1) & 0x1f) << 8) | (data.get(i + 2) & 0xff);
+            if (streamType == STREAM_TYPE_MPEG1_VIDEO || streamType == STREAM_TYPE_MPEG2_VIDEO
+                    || streamType == STREAM_TYPE_H264 || streamType == STREAM_TYPE_H265) {
+                mVideoPid = pid;
+                mVideoStreamType = streamType;
+                return;
+            }
+            i += 5 + (((data.get(i + 3) & 0x0f) << 8) | (data.get(i + 4) & 0xff));
+        }
+    }
+
+    /**
+     * Looks for a key frame in the part of a PES which is in this packet.
+     */
+    private boolean isKeyFrame(ByteBuffer data, int payloadStart, int end) {
+        if (payloadStart + 9 > end || data.get(payloadStart) != 0
+                || data.get(payloadStart + 1) != 0 || data.get(payloadStart + 2) != 1) {
+            return false;
+        }
+        int i = payloadStart + 9 + (data.get(payloadStart + 8) & 0xff);
+        for (; i + 4 <= end; i++) {
+            if (data.get(i) != 0 || data.get(i + 1) != 0 || data.get(i + 2) != 1) {
+                continue;
+            }
+            int code = data.get(i + 3) & 0xff;
+            switch (mVideoStreamType) {
+                case STREAM_TYPE_H264: {
+                    int nalType = code & 0x1f;
+                    // IDR slice or the SPS in front of it.
+                    if (nalType == 5 || nalType == 7) {
+                        return true;
+                    }
+                    break;
+                }
+                case STREAM_TYPE_H265: {
+                    int nalType = (code >> 1) & 0x3f;
+                    // IRAP slices, or the VPS/SPS in front of them.
+                    if ((nalType >= 16 && nalType <= 21) || nalType == 32 || nalType == 33) {
+                        return true;
+                    }
+                    break;
+                }
+                default:
+                    if (code == 0xb3) {
+                        return true;
+                    }
+                    if (code == 0x00 && i + 6 <= end) {
+                        int pictureCodingType = (data.get(i + 5) >> 3) & 0x07;
+                        return pictureCodingType == 1;
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the CRC-32/MPEG-2 of a PSI section, which is not the one of
+     * {@link java.util.zip.CRC32}.
+     */
+    static long crc32Mpeg(byte[] data, int offset, int length) {
+        int crc = 0xffffffff;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xff) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+        }
+        return crc & 0xffffffffL;
+    }
+}
@@ -0,0 +1,225 @@
+package com.peyo.rtptvinput.source;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps only the TS packets of one program of a multi-program stream: the PAT, the CAT, the PMT
+ * of the program and the PIDs it lists. Other programs, data carousels, SI tables such as the
+ * EIT and null packets are dropped before they take room in the {@link RingBuffer}.
+ * </p>
+ * The PAT is rewritten to list the program alone, so that a demuxer does not wait for the PMTs
+ * of the dropped programs. The elementary streams are dropped until the PMT is known. Like
+ * {@link TsParser}, it expects the PAT and PMT sections to fit in a single packet, and keeps
+ * everything if they do not. Data which is not made of whole TS packets is kept as it is.
+ */
+class TsPidFilter implements RingBuffer.Filter {
+    private static final String TAG = "TsPidFilter";
+    private static final int PACKET_SIZE = TsPacketAligner.PACKET_SIZE;
+    private static final int CAT_PID = 1;
+    private static final int PID_COUNT = 0x2000;
+    // A PAT section with a single program: the header, one entry and the CRC.
+    private static final int SINGLE_PROGRAM_PAT_LENGTH = 5 + 4 + 4;
+
+    private final int mProgramNumber;
+    private final boolean[] mKeptPids = new boolean[PID_COUNT];
+    private final byte[] mPacket = new byte[PACKET_SIZE];
+    private final ByteBuffer mPacketBuffer = ByteBuffer.wrap(mPacket);
+    private int mSelectedProgramNumber = -1;
+    private int mPmtPid = -1;
+    private int mPmtVersion = -1;
+    private boolean mPassThrough;
+    private boolean mUnalignedWarned;
+    private volatile long mPacketsDropped;
+
+    /**
+     * @param programNumber the program to keep; the first one of the PAT is kept if it is not
+     *         there
+     */
+    TsPidFilter(int programNumber) {
+        mProgramNumber = programNumber;
+        resetPids();
+    }
+
+    private void resetPids() {
+        for (int i = 0; i < PID_COUNT; i++) {
+            mKeptPids[i] = false;
+        }
+        mKeptPids[TsParser.PAT_PID] = true;
+        mKeptPids[CAT_PID] = true;
+        if (mPmtPid >= 0) {
+            mKeptPids[mPmtPid] = true;
+        }
+        mPmtVersion = -1;
+    }
+
+    @Override
+    public int filter(RingBuffer ring, int offset, int length) {
+        if (mPassThrough || length % PACKET_SIZE != 0
+                || ring.getPending(offset) != TsPacketAligner.SYNC_BYTE) {
+            if (!mPassThrough && !mUnalignedWarned) {
+                mUnalignedWarned = true;
+                Log.w(TAG, "Data is not made of whole TS packets, it is kept unfiltered");
+            }
+            if (offset > 0) {
+                ring.movePending(offset, 0, length);
+            }
+            return length;
+        }
+        int kept = 0;
+        for (int from = offset; from < offset + length; from += PACKET_SIZE) {
+            int pid = ((ring.getPending(from + 1) & 0x1f) << 8)
+                    | (ring.getPending(from + 2) & 0xff);
+            boolean synced = ring.getPending(from) == TsPacketAligner.SYNC_BYTE;
+            if (synced && !mPassThrough && (pid == TsParser.PAT_PID || pid == mPmtPid)) {
+                ring.copyPending(from, mPacket, 0, PACKET_SIZE);
+                if (pid == TsParser.PAT_PID) {
+                    onPat();
+                } else {
+                    onPmt();
+                }
+                ring.putPending(kept, mPacket, 0, PACKET_SIZE);
+            } else if (!synced || mPassThrough || mKeptPids[pid]) {
+                if (from != kept) {
+                    ring.movePending(from, kept, PACKET_SIZE);
+                }
+            } else {
+                mPacketsDropped++;
+                continue;
+            }
+            kept += PACKET_SIZE;
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the offset of the payload of the packet in {@link #mPacket} if it starts a
+     * section, or -1.
+     */
+    private int getSectionPayloadStart() {
+        if ((mPacket[1] & 0x40) == 0 || (mPacket[3] & 0x10) == 0) {
+            return -1;
+        }
+        int payloadStart = 4;
+        if ((mPacket[3] & 0x20) != 0) {
+            payloadStart += 1 + (mPacket[4] & 0xff);
+        }
+        return payloadStart < PACKET_SIZE ? payloadStart : -1;
+    }
+
+    /**
+     * Returns whether the section in {@link #mPacket} whose payload starts at
+     * {@code payloadStart} is of {@code tableId}.
+     */
+    private boolean isTable(int payloadStart, int tableId) {
+        int section = payloadStart + 1 + (mPacket[payloadStart] & 0xff);
+        return section < PACKET_SIZE && (mPacket[section] & 0xff) == tableId;
+    }
+
+    /**
+     * Selects the program from the PAT in {@link #mPacket} and rewrites the PAT to list it alone.
+     */
+    private void onPat() {
+        int payloadStart = getSectionPayloadStart();
+        if (payloadStart < 0) {
+            return;
+        }
+        int section = TsParser.findSection(mPacketBuffer, payloadStart, PACKET_SIZE,
+                TsParser.TABLE_ID_PAT);
+        if (section < 0) {
+            if (isTable(payloadStart, TsParser.TABLE_ID_PAT)) {
+                passThrough("PAT does not fit in a packet");
+            }
+            return;
+        }
+        int sectionEnd = TsParser.getSectionEnd(mPacketBuffer, section);
+        int entry = -1;
+        int entryCount = 0;
+        for (int i = section + 8; i + 4 <= sectionEnd; i += 4) {
+            entryCount++;
+            int programNumber = ((mPacket[i] & 0xff) << 8) | (mPacket[i + 1] & 0xff);
+            if (programNumber == 0) {
+                continue;
+            }
+            if (entry < 0 || programNumber == mProgramNumber) {
+                entry = i;
+            }
+        }
+        if (entry < 0) {
+            return;
+        }
+        int programNumber = ((mPacket[entry] & 0xff) << 8) | (mPacket[entry + 1] & 0xff);
+        int pmtPid = ((mPacket[entry + 2] & 0x1f) << 8) | (mPacket[entry + 3] & 0xff);
+        if (pmtPid != mPmtPid || programNumber != mSelectedProgramNumber) {
+            if (programNumber != mProgramNumber) {
+                Log.w(TAG, "Program " + mProgramNumber + " is not in the PAT, keeping "
+                        + programNumber);
+            }
+            mSelectedProgramNumber = programNumber;
+            mPmtPid = pmtPid;
+            resetPids();
+        }
+        if (entryCount > 1) {
+            rewritePat(section, entry);
+        }
+    }
+
+    private void rewritePat(int section, int entry) {
+        System.arraycopy(mPacket, entry, mPacket, section + 8, 4);
+        mPacket[section + 1] = (byte) ((mPacket[section + 1] & 0xf0)
+                | (SINGLE_PROGRAM_PAT_LENGTH >> 8));
+        mPacket[section + 2] = (byte) SINGLE_PROGRAM_PAT_LENGTH;
+        int crcOffset = section + 3 + SINGLE_PROGRAM_PAT_LENGTH - 4;
+        mPacketBuffer.putInt(crcOffset, (int) TsParser.crc32Mpeg(mPacket, section,
+                crcOffset - section));
+        for (int i = crcOffset + 4; i < PACKET_SIZE; i++) {
+            mPacket[i] = (byte) 0xff;
+        }
+    }
+
+    /**
+     * Takes the PIDs of the program from the PMT in {@link #mPacket}.
+     */
+    private void onPmt() {
+        int payloadStart = getSectionPayloadStart();
+        if (payloadStart < 0) {
+            return;
+        }
+        int section = TsParser.findSection(mPacketBuffer, payloadStart, PACKET_SIZE,
+                TsParser.TABLE_ID_PMT);
+        if (section < 0 || section + 12 > PACKET_SIZE) {
+            if (isTable(payloadStart, TsParser.TABLE_ID_PMT)) {
+                passThrough("PMT does not fit in a packet");
+            }
+            return;
+        }
+        int programNumber = ((mPacket[section + 3] & 0xff) << 8) | (mPacket[section + 4] & 0xff);
+        int version = (mPacket[section + 5] >> 1) & 0x1f;
+        if (programNumber != mSelectedProgramNumber || version == mPmtVersion) {
+            return;
+        }
+        resetPids();
+        mPmtVersion = version;
+        int sectionEnd = TsParser.getSectionEnd(mPacketBuffer, section);
+        mKeptPids[((mPacket[section + 8] & 0x1f) << 8) | (mPacket[section + 9] & 0xff)] = true;
+        int programInfoLength = ((mPacket[section + 10] & 0x0f) << 8)
+                | (mPacket[section + 11] & 0xff);
+        for (int i = section + 12 + programInfoLength; i + 5 <= sectionEnd; ) {
+            mKeptPids[((mPacket[i + 1] & 0x1f) << 8) | (mPacket[i + 2] & 0xff)] = true;
+            i += 5 + (((mPacket[i + 3] & 0x0f) << 8) | (mPacket[i + 4] & 0xff));
+        }
+    }
+
+    private void passThrough(String reason) {
+        Log.w(TAG, reason + ", the stream is kept unfiltered");
+        mPassThrough = true;
+    }
+
+    /**
+     * Returns how many TS packets were dropped.
+     */
+    long getPacketsDropped() {
+        return mPacketsDropped;
+    }
+}
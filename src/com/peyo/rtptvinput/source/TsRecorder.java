@@ -1,80 +1,70 @@
 package com.peyo.rtptvinput.source;
 
-import android.media.tv.TvInputService;
 import android.net.Uri;
 import android.util.Log;
 
-import com.google.android.exoplayer2.upstream.DataSpec;
+import java.nio.ByteBuffer;
 
-import java.io.IOException;
-
-public class TsRecorder {
+/**
+ * Records a stream by consuming the shared ingest of its streamer. The streamer hands the newly
+ * published regions of its circular buffer to the recorder on the ingest thread, so there is no
+ * recording thread and no copy into an intermediate read buffer.
+ * </p>
+ * The data goes through a {@link TsPacketAligner}, so a recording always starts with a sync byte
+ * and consists of whole TS packets, even after a loss in the stream.
+ */
+public class TsRecorder implements TsStreamer.Sink {
     private static final String TAG = "TsRecorder";
 
     private final TsStreamWriter mTsStreamWriter;
+    private final TsStreamerManager mStreamManager = TsStreamerManager.getInstance();
+    private final TsPacketAligner mAligner;
+    private final int mSessionId;
+    private final Object mLock = new Object();
     private boolean mRecording;
-    private TsDataSource mTsSource;
-    private RecordingThread mRecordingThread;
+    private Uri mUri;
 
     public TsRecorder(TsStreamWriter writer) {
         mTsStreamWriter = writer;
-        mTsSource = (TsDataSource) TsDataSourceFactory.createSourceFactory().createDataSource();
+        mAligner = new TsPacketAligner(new TsStreamer.Sink() {
+            @Override
+            public void onData(ByteBuffer data) {
+                mTsStreamWriter.writeToFile(data);
+            }
+        });
+        mSessionId = mStreamManager.createSessionId();
     }
 
     public void startRecording(String addr) {
-        try {
-            mTsSource.open(new DataSpec(Uri.parse(addr)));
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
+        mUri = Uri.parse(addr);
+        synchronized (mLock) {
+            mAligner.reset();
+            mRecording = true;
         }
-        mTsSource.shiftStartPosition(mTsSource.getBufferedPosition());
-
-        mRecording = true;
-        mRecordingThread = new RecordingThread();
-        mRecordingThread.start();
+        mStreamManager.attachSink(mUri, mSessionId, this);
         Log.i(TAG, "Recording started");
     }
 
-    private class RecordingThread extends Thread {
-        @Override
-        public void run() {
-            byte[] dataBuffer = new byte[188 * 7];
-            while (true) {
-                if (!mRecording) {
-                    break;
-                }
-
-                int bytesWritten;
-                try {
-                    bytesWritten = mTsSource.read(dataBuffer, 0, dataBuffer.length);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    break;
-                }
-                //Log.i(TAG, "RecoridngThread got " + bytesWritten);
-                if (mTsStreamWriter != null) {
-                    mTsStreamWriter.writeToFile(dataBuffer, bytesWritten);
-                }
+    @Override
+    public void onData(ByteBuffer data) {
+        synchronized (mLock) {
+            if (mRecording && mTsStreamWriter != null) {
+                mAligner.onData(data);
             }
-            Log.i(TAG, "Recording stopped");
         }
     }
 
     public void stopRecording() {
-        mRecording = false;
-        try {
-            if (mRecordingThread != null) {
-                mRecordingThread.join();
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        synchronized (mLock) {
+            // After this no more data reaches the writer, even from a dispatch in progress.
+            mRecording = false;
         }
-        try {
-            mTsSource.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (mUri != null) {
+            mStreamManager.detachSink(mUri, mSessionId, this);
+            mUri = null;
         }
+        Log.i(TAG, "Recording stopped, " + mAligner.getBytesDropped() + " bytes dropped in "
+                + mAligner.getResyncCount() + " resyncs");
     }
 
 }
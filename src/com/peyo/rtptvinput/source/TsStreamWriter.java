@@ -28,13 +28,26 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Stores TS files to the disk
+ * </p>
+ * The caller's data is copied into a small pool of large buffers which are written out by a
+ * dedicated I/O thread, so a slow storage device does not stall the thread feeding the writer.
+ * When all the buffers are waiting for the device, the data is dropped and counted at once: the
+ * caller is the ingest thread, which must never block, as a stalled ingest loses the live stream
+ * of every reader and not only of the recording.
+ * </p>
+ * The data is expected in whole TS packets. A {@link TsIndex} of the random access points is
+ * written next to the file.
  */
 public class TsStreamWriter {
     private static final String TAG = "TsStreamWriter";
@@ -45,7 +58,46 @@ public class TsStreamWriter {
     private static final int MAX_INSTANCE_ID = 1000;
     private static final String SEPARATOR = "_";
 
+    /** Data is forced to the storage device when the file is closed. */
+    public static final int FSYNC_ON_CLOSE = 0;
+    /** Data is forced to the storage device periodically and when the file is closed. */
+    public static final int FSYNC_PERIODIC = 1;
+    /** Data is never forced to the storage device, this is left to the kernel. */
+    public static final int FSYNC_NEVER = 2;
+
+    // Writes of a multiple of the flash page size keep the file offsets page aligned, and as it
+    // is a multiple of the TS packet size too, data is only ever dropped in whole packets.
+    private static final int WRITE_BUFFER_SIZE = 47 * 4096 * 5;
+    private static final int WRITE_BUFFER_COUNT = 4;
+    private static final long DEFAULT_FSYNC_INTERVAL_MS = 10000;
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
     private FileOutputStream mFileOutputStream;
+    private FileChannel mFileChannel;
+    private TsParser mParser;
+    private TsIndex.Writer mIndexWriter;
+    private long mQueuedBytes;
+    private WriterThread mWriterThread;
+    private final BlockingQueue<ByteBuffer> mFreeBuffers =
+            new ArrayBlockingQueue<>(WRITE_BUFFER_COUNT);
+    private final BlockingQueue<ByteBuffer> mFilledBuffers =
+            new ArrayBlockingQueue<>(WRITE_BUFFER_COUNT + 1);
+    private ByteBuffer mCurrentBuffer;
+    private boolean mBuffersAllocated;
+    private int mFsyncPolicy = FSYNC_PERIODIC;
+    private long mFsyncIntervalMs = DEFAULT_FSYNC_INTERVAL_MS;
+
+    // Written by the I/O thread.
+    private volatile boolean mWriteFailed;
+    private volatile long mBytesWritten;
+    private volatile long mWriteCount;
+    private volatile long mTotalWriteNs;
+    private volatile long mMaxWriteNs;
+    private volatile long mFsyncCount;
+    private volatile long mMaxFsyncNs;
+    // Written by the caller of writeToFile().
+    private volatile long mDroppedBytes;
+    private boolean mDropping;
     private long mFileStartTimeMs;
     private String mFileName = null;
     private final String mDirectoryPath;
@@ -87,6 +139,18 @@ public class TsStreamWriter {
         mChannel = channel;
     }
 
+    /**
+     * Sets when the data is forced to the storage device. Takes effect on the next
+     * {@link #openFile()}.
+     *
+     * @param policy one of {@link #FSYNC_ON_CLOSE}, {@link #FSYNC_PERIODIC} or {@link #FSYNC_NEVER}
+     * @param intervalMs the period for {@link #FSYNC_PERIODIC}
+     */
+    public void setFsyncPolicy(int policy, long intervalMs) {
+        mFsyncPolicy = policy;
+        mFsyncIntervalMs = intervalMs;
+    }
+
     /**
      * Opens a file to store TS data.
      */
@@ -104,6 +168,51 @@ public class TsStreamWriter {
             Log.w(TAG, "Cannot open file: " + filePath, e);
         }
         mFileUri = Uri.parse("file://" + filePath);
+        if (mFileOutputStream != null) {
+            openIndex(new File(filePath));
+            startWriterThread();
+        }
+    }
+
+    private void openIndex(File file) {
+        mQueuedBytes = 0;
+        try {
+            mIndexWriter = new TsIndex.Writer(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot open index of " + file, e);
+            mIndexWriter = null;
+            mParser = null;
+            return;
+        }
+        final TsIndex.Writer indexWriter = mIndexWriter;
+        mParser = new TsParser(new TsParser.Listener() {
+            @Override
+            public void onRandomAccessPoint(long timeUs, long position) {
+                indexWriter.add(timeUs / 1000, position);
+            }
+        });
+    }
+
+    private void startWriterThread() {
+        if (!mBuffersAllocated) {
+            for (int i = 0; i < WRITE_BUFFER_COUNT; i++) {
+                mFreeBuffers.add(ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE));
+            }
+            mBuffersAllocated = true;
+        }
+        mWriteFailed = false;
+        mBytesWritten = 0;
+        mWriteCount = 0;
+        mTotalWriteNs = 0;
+        mMaxWriteNs = 0;
+        mFsyncCount = 0;
+        mMaxFsyncNs = 0;
+        mDroppedBytes = 0;
+        mDropping = false;
+        mFileChannel = mFileOutputStream.getChannel();
+        mWriterThread = new WriterThread(mFileChannel,
+                mFsyncPolicy == FSYNC_PERIODIC ? mFsyncIntervalMs : 0);
+        mWriterThread.start();
     }
 
     private String getTitleSeparator() {
@@ -125,6 +234,43 @@ public class TsStreamWriter {
         if (mFileOutputStream == null) {
             return;
         }
+        if (mCurrentBuffer != null) {
+            if (mCurrentBuffer.position() > 0) {
+                mFilledBuffers.add(mCurrentBuffer);
+            } else {
+                mFreeBuffers.add(mCurrentBuffer);
+            }
+            mCurrentBuffer = null;
+        }
+        // There is always room for the marker, as the buffers are never all filled at once.
+        mFilledBuffers.add(END_OF_STREAM);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mWriterThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mWriterThread = null;
+        if (mFsyncPolicy != FSYNC_NEVER && !mWriteFailed) {
+            try {
+                force(mFileChannel);
+            } catch (IOException e) {
+                Log.w(TAG, "Error on syncing file.", e);
+            }
+        }
+        Log.i(TAG, "Closing " + mFileName + ": " + getWriteStats());
+        mFileChannel = null;
+        if (mIndexWriter != null) {
+            mIndexWriter.close();
+            mIndexWriter = null;
+            mParser = null;
+        }
         try {
             mFileOutputStream.close();
             mFileName = null;
@@ -141,13 +287,141 @@ public class TsStreamWriter {
      * @param bytesWritten number of bytes written
      */
     public void writeToFile(byte[] buffer, int bytesWritten) {
+        writeToFile(ByteBuffer.wrap(buffer, 0, bytesWritten));
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to the file. The data is copied, so the buffer can
+     * be reused as soon as this returns.
+     *
+     * @param buffer the data to be written
+     */
+    public void writeToFile(ByteBuffer buffer) {
         if (mFileOutputStream == null) {
             return;
         }
-        try {
-            mFileOutputStream.write(buffer, 0, bytesWritten);
-        } catch (IOException e) {
-            Log.w(TAG, "Error on writing TS stream.", e);
+        while (buffer.hasRemaining()) {
+            if (mCurrentBuffer == null) {
+                mCurrentBuffer = obtainBuffer();
+                if (mCurrentBuffer == null) {
+                    mDroppedBytes += buffer.remaining();
+                    buffer.position(buffer.limit());
+                    return;
+                }
+            }
+            int length = Math.min(buffer.remaining(), mCurrentBuffer.remaining());
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + length);
+            if (mParser != null) {
+                mParser.parse(buffer, mQueuedBytes);
+            }
+            mQueuedBytes += length;
+            mCurrentBuffer.put(buffer);
+            buffer.limit(limit);
+            if (!mCurrentBuffer.hasRemaining()) {
+                mFilledBuffers.add(mCurrentBuffer);
+                mCurrentBuffer = null;
+            }
+        }
+    }
+
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            if (!mDropping) {
+                Log.w(TAG, "Storage is too slow, dropping TS stream.");
+                mDropping = true;
+            }
+        } else {
+            mDropping = false;
+        }
+        return buffer;
+    }
+
+    private void force(FileChannel channel) throws IOException {
+        long startNs = System.nanoTime();
+        channel.force(false);
+        long elapsedNs = System.nanoTime() - startNs;
+        mFsyncCount++;
+        if (elapsedNs > mMaxFsyncNs) {
+            mMaxFsyncNs = elapsedNs;
+        }
+    }
+
+    /**
+     * Returns a summary of the write latencies and dropped data of the current or last file.
+     */
+    public String getWriteStats() {
+        long writeCount = mWriteCount;
+        long averageWriteUs = writeCount == 0 ? 0 : mTotalWriteNs / writeCount / 1000;
+        return "written=" + mBytesWritten + " writes=" + writeCount
+                + " avgWriteUs=" + averageWriteUs + " maxWriteUs=" + mMaxWriteNs / 1000
+                + " fsyncs=" + mFsyncCount + " maxFsyncUs=" + mMaxFsyncNs / 1000
+                + " dropped=" + mDroppedBytes + (mWriteFailed ? " failed" : "");
+    }
+
+    /**
+     * Writes the filled buffers to the file and hands them back until the end of the stream.
+     */
+    private class WriterThread extends Thread {
+        private final FileChannel mChannel;
+        private final long mFsyncIntervalNs;
+
+        /**
+         * @param fsyncIntervalMs period of forcing the data to the device, or 0 for never
+         */
+        WriterThread(FileChannel channel, long fsyncIntervalMs) {
+            super("TsStreamWriter");
+            mChannel = channel;
+            mFsyncIntervalNs = fsyncIntervalMs * 1000000L;
+        }
+
+        @Override
+        public void run() {
+            long lastFsyncNs = System.nanoTime();
+            while (true) {
+                ByteBuffer buffer;
+                try {
+                    buffer = mFilledBuffers.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (buffer == END_OF_STREAM) {
+                    return;
+                }
+                buffer.flip();
+                if (!mWriteFailed) {
+                    try {
+                        write(buffer);
+                        if (mFsyncIntervalNs > 0
+                                && System.nanoTime() - lastFsyncNs >= mFsyncIntervalNs) {
+                            force(mChannel);
+                            lastFsyncNs = System.nanoTime();
+                        }
+                    } catch (IOException e) {
+                        // Keep recycling the buffers so that the caller does not drop the data.
+                        Log.w(TAG, "Error on writing TS stream.", e);
+                        mWriteFailed = true;
+                    }
+                }
+                buffer.clear();
+                mFreeBuffers.add(buffer);
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            long startNs = System.nanoTime();
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+            long elapsedNs = System.nanoTime() - startNs;
+            mBytesWritten += length;
+            mWriteCount++;
+            mTotalWriteNs += elapsedNs;
+            if (elapsedNs > mMaxWriteNs) {
+                mMaxWriteNs = elapsedNs;
+            }
         }
     }
 
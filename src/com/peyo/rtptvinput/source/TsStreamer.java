@@ -1,7 +1,27 @@
 package com.peyo.rtptvinput.source;
 
+import java.nio.ByteBuffer;
+
 public interface TsStreamer {
     void startStream();
     void stopStream();
-    TsDataSource createDataSource();
+    /**
+     * @param startPosition absolute stream position to start reading from, or
+     *         {@link com.google.android.exoplayer2.C#POSITION_UNSET} for the newest data
+     */
+    TsDataSource createDataSource(long startPosition);
+    void addSink(Sink sink);
+    void removeSink(Sink sink);
+
+    /**
+     * Consumes the stream on the ingest thread as soon as it is published, without a
+     * {@link TsDataSource} in between.
+     */
+    interface Sink {
+        /**
+         * Called with the next contiguous region of the stream. The remaining bytes of
+         * {@code data} are only valid during the call.
+         */
+        void onData(ByteBuffer data);
+    }
 }
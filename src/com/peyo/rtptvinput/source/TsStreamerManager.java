@@ -3,18 +3,28 @@ package com.peyo.rtptvinput.source;
 import android.net.Uri;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class TsStreamerManager {
     private static final String TAG = "TsStreamManager";
+    // Budget of the streamers which are kept running for a fast channel change, including the
+    // one of the channel being watched.
+    private static final int MAX_WARM_STREAMERS = 3;
+    private static final long MAX_WARM_BUFFER_BYTES = 96L * 1024 * 1024;
+    private static final long MAX_WARM_BITRATE = 60L * 1000 * 1000;
 
     private static TsStreamerManager sInstance;
     private final Object mCancelLock = new Object();
     private final StreamerFinder mStreamerFinder = new StreamerFinder();
     private final Map<TsDataSource, RtpStreamer> mSourceToStreamerMap = new HashMap<>();
+    private final Map<TsStreamer.Sink, TsStreamer> mSinkToStreamerMap = new HashMap<>();
+    private int mSessionSequenceId;
+    private final int mWarmSessionId = ++mSessionSequenceId;
+    private List<Uri> mWarmUris = new ArrayList<>();
 
     static synchronized TsStreamerManager getInstance() {
         if (sInstance == null) {
@@ -23,22 +33,22 @@ public class TsStreamerManager {
         return sInstance;
     }
 
-    synchronized TsDataSource createDataSource(Uri uri, int sessionId) {
+    /**
+     * Returns a new ID for a session which uses streamers.
+     */
+    synchronized int createSessionId() {
+        return ++mSessionSequenceId;
+    }
+
+    /**
+     * @param startPosition absolute stream position to start reading from, or
+     *         {@link com.google.android.exoplayer2.C#POSITION_UNSET} for the newest data
+     */
+    synchronized TsDataSource createDataSource(Uri uri, int sessionId, long startPosition) {
         Log.i(TAG, "createDataSource() " + uri + " " + sessionId);
+        RtpStreamer streamer = acquireStreamer(uri, sessionId);
         synchronized (mCancelLock) {
-            if (mStreamerFinder.containsLocked(uri)) {
-                mStreamerFinder.appendSessionLocked(uri, sessionId);
-                RtpStreamer streamer = (RtpStreamer) mStreamerFinder.getStreamerLocked(uri);
-                TsDataSource source = streamer.createDataSource();
-                mSourceToStreamerMap.put(source, streamer);
-                return source;
-            }
-        }
-        RtpStreamer streamer = new RtpStreamer(uri);
-        streamer.startStream();
-        synchronized (mCancelLock) {
-            mStreamerFinder.putLocked(uri, sessionId, streamer);
-            TsDataSource source = streamer.createDataSource();
+            TsDataSource source = streamer.createDataSource(startPosition);
             mSourceToStreamerMap.put(source, streamer);
             return source;
         }
@@ -53,36 +63,164 @@ public class TsStreamerManager {
             if (streamer == null) {
                 return;
             }
-            mStreamerFinder.removeSessionLocked(uri, sessionId);
-            if (mStreamerFinder.containsLocked(uri)) {
+            releaseStreamerLocked(uri, sessionId, streamer);
+        }
+    }
+
+    /**
+     * Attaches a sink to the streamer of {@code uri}, starting the streamer if needed.
+     */
+    synchronized void attachSink(Uri uri, int sessionId, TsStreamer.Sink sink) {
+        Log.i(TAG, "attachSink() " + uri + " " + sessionId);
+        RtpStreamer streamer = acquireStreamer(uri, sessionId);
+        synchronized (mCancelLock) {
+            streamer.addSink(sink);
+            mSinkToStreamerMap.put(sink, streamer);
+        }
+    }
+
+    synchronized void detachSink(Uri uri, int sessionId, TsStreamer.Sink sink) {
+        Log.i(TAG, "detachSink() " + uri + " " + sessionId);
+        synchronized (mCancelLock) {
+            TsStreamer streamer = mSinkToStreamerMap.remove(sink);
+            if (streamer == null) {
                 return;
             }
-            streamer.stopStream();
+            streamer.removeSink(sink);
+            releaseStreamerLocked(uri, sessionId, streamer);
+        }
+    }
+
+    /**
+     * Returns the metrics of every running streamer.
+     */
+    synchronized List<StreamerMetrics> getMetrics() {
+        List<StreamerMetrics> metrics = new ArrayList<>();
+        synchronized (mCancelLock) {
+            for (TsStreamer streamer : mStreamerFinder.getStreamersLocked()) {
+                metrics.add(((RtpStreamer) streamer).getMetrics());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Keeps the streamers of {@code uris} running, so that tuning to one of them can start from
+     * the data it has already buffered. The URIs are taken in order of preference as long as
+     * they fit in the budget of warm streamers, and the streamers which were kept warm for other
+     * URIs are released.
+     */
+    synchronized void prepareStreamers(List<Uri> uris) {
+        List<Uri> warmUris = new ArrayList<>();
+        long bufferBytes = 0;
+        long bitrate = 0;
+        for (Uri uri : uris) {
+            if (warmUris.size() == MAX_WARM_STREAMERS) {
+                break;
+            }
+            long streamBufferBytes = RtpStreamer.getBufferSize(uri);
+            long streamBitrate = RtpStreamer.getBitrate(uri);
+            if (warmUris.contains(uri) || bufferBytes + streamBufferBytes > MAX_WARM_BUFFER_BYTES
+                    || bitrate + streamBitrate > MAX_WARM_BITRATE) {
+                continue;
+            }
+            bufferBytes += streamBufferBytes;
+            bitrate += streamBitrate;
+            warmUris.add(uri);
+        }
+        synchronized (mCancelLock) {
+            for (Uri uri : mWarmUris) {
+                if (!warmUris.contains(uri)) {
+                    TsStreamer streamer = mStreamerFinder.getStreamerLocked(uri);
+                    if (streamer != null) {
+                        releaseStreamerLocked(uri, mWarmSessionId, streamer);
+                    }
+                }
+            }
+        }
+        for (Uri uri : warmUris) {
+            if (!mWarmUris.contains(uri)) {
+                acquireStreamer(uri, mWarmSessionId);
+            }
+        }
+        mWarmUris = warmUris;
+        Log.i(TAG, "prepareStreamers() " + warmUris);
+    }
+
+    private RtpStreamer acquireStreamer(Uri uri, int sessionId) {
+        synchronized (mCancelLock) {
+            if (mStreamerFinder.containsLocked(uri)) {
+                mStreamerFinder.appendSessionLocked(uri, sessionId);
+                RtpStreamer streamer = (RtpStreamer) mStreamerFinder.getStreamerLocked(uri);
+                updateTimeShiftLocked(uri, streamer);
+                return streamer;
+            }
+        }
+        RtpStreamer streamer = new RtpStreamer(uri);
+        streamer.startStream();
+        synchronized (mCancelLock) {
+            mStreamerFinder.putLocked(uri, sessionId, streamer);
+            updateTimeShiftLocked(uri, streamer);
+        }
+        return streamer;
+    }
+
+    // @GuardedBy("mCancelLock")
+    private void releaseStreamerLocked(Uri uri, int sessionId, TsStreamer streamer) {
+        mStreamerFinder.removeSessionLocked(uri, sessionId);
+        if (mStreamerFinder.containsLocked(uri)) {
+            updateTimeShiftLocked(uri, (RtpStreamer) streamer);
+            return;
         }
+        streamer.stopStream();
     }
 
+    /**
+     * Keeps a time-shift buffer only for streamers which are used by more than a warm-up.
+     */
+    // @GuardedBy("mCancelLock")
+    private void updateTimeShiftLocked(Uri uri, RtpStreamer streamer) {
+        streamer.setTimeShiftEnabled(mStreamerFinder.hasOtherSessionLocked(uri, mWarmSessionId));
+    }
+
+    /**
+     * Streamers by URI, with the sessions which use each of them. A session may hold several
+     * data sources of a streamer at a time, as a seek opens the new one before the old one is
+     * closed, so the streamer is only released once the last one of every session is.
+     */
     private class StreamerFinder {
-        private final Map<Uri, Set<Integer>> mSessions = new HashMap<>();
+        // Count of the data sources and sinks of each session.
+        private final Map<Uri, Map<Integer, Integer>> mSessions = new HashMap<>();
         private final Map<Uri, TsStreamer> mStreamers = new HashMap<>();
 
         // @GuardedBy("mCancelLock")
         private void putLocked(Uri uri, int sessionId, TsStreamer streamer) {
-            Set<Integer> sessions = new HashSet<>();
-            sessions.add(sessionId);
+            Map<Integer, Integer> sessions = new HashMap<>();
+            sessions.put(sessionId, 1);
             mSessions.put(uri, sessions);
             mStreamers.put(uri, streamer);
         }
 
         // @GuardedBy("mCancelLock")
         private void appendSessionLocked(Uri uri, int sessionId) {
-            if (mSessions.containsKey(uri)) {
-                mSessions.get(uri).add(sessionId);
+            Map<Integer, Integer> sessions = mSessions.get(uri);
+            if (sessions != null) {
+                Integer count = sessions.get(sessionId);
+                sessions.put(sessionId, count == null ? 1 : count + 1);
             }
         }
 
         // @GuardedBy("mCancelLock")
         private void removeSessionLocked(Uri uri, int sessionId) {
-            Set<Integer> sessions = mSessions.get(uri);
+            Map<Integer, Integer> sessions = mSessions.get(uri);
+            Integer count = sessions.get(sessionId);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                sessions.put(sessionId, count - 1);
+                return;
+            }
             sessions.remove(sessionId);
             if (sessions.size() == 0) {
                 mSessions.remove(uri);
@@ -90,6 +228,13 @@ public class TsStreamerManager {
             }
         }
 
+        // @GuardedBy("mCancelLock")
+        private boolean hasOtherSessionLocked(Uri uri, int sessionId) {
+            Map<Integer, Integer> sessions = mSessions.get(uri);
+            return sessions != null
+                    && (sessions.size() > 1 || !sessions.containsKey(sessionId));
+        }
+
         // @GuardedBy("mCancelLock")
         private boolean containsLocked(Uri uri) {
             return mSessions.containsKey(uri);
@@ -99,5 +244,10 @@ public class TsStreamerManager {
         private TsStreamer getStreamerLocked(Uri uri) {
             return mStreamers.containsKey(uri) ? mStreamers.get(uri) : null;
         }
+
+        // @GuardedBy("mCancelLock")
+        private Collection<TsStreamer> getStreamersLocked() {
+            return mStreamers.values();
+        }
     }
 }
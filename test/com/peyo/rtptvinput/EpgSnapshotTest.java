@@ -0,0 +1,141 @@
+package com.peyo.rtptvinput;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class EpgSnapshotTest {
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    // 2017-07-14 02:00:00 UTC.
+    private static final long START_MS = 1499997600000L;
+    private static final long CHANNEL_ID = 7;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static Program program(int hour, String title) {
+        return new Program.Builder()
+                .setTitle(title)
+                .setStartTimeUtcMillis(START_MS + hour * HOUR_MS)
+                .setEndTimeUtcMillis(START_MS + (hour + 1) * HOUR_MS)
+                .build();
+    }
+
+    private static EpgSnapshot.Entry entry(Program... programs) {
+        return EpgSnapshot.Entry.create(Arrays.asList(programs));
+    }
+
+    @Test
+    public void hasChanged_unknownChannel() {
+        EpgSnapshot snapshot = new EpgSnapshot();
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a")), START_MS));
+    }
+
+    @Test
+    public void hasChanged_samePrograms() {
+        EpgSnapshot snapshot = new EpgSnapshot();
+        snapshot.put(CHANNEL_ID, entry(program(0, "a"), program(1, "b")));
+        // In any order, as the channel id is not part of what is compared.
+        assertFalse(snapshot.hasChanged(CHANNEL_ID, entry(program(1, "b"), program(0, "a")),
+                START_MS));
+        assertTrue(snapshot.hasChanged(CHANNEL_ID + 1, entry(program(0, "a"), program(1, "b")),
+                START_MS));
+    }
+
+    @Test
+    public void hasChanged_addedChangedOrRemoved() {
+        EpgSnapshot snapshot = new EpgSnapshot();
+        snapshot.put(CHANNEL_ID, entry(program(0, "a"), program(1, "b")));
+        assertTrue(snapshot.hasChanged(CHANNEL_ID,
+                entry(program(0, "a"), program(1, "b"), program(2, "c")), START_MS));
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a"), program(1, "B")),
+                START_MS));
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a")), START_MS));
+        Program moved = new Program.Builder(program(1, "b"))
+                .setEndTimeUtcMillis(START_MS + 3 * HOUR_MS)
+                .build();
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a"), moved), START_MS));
+    }
+
+    @Test
+    public void hasChanged_ignoresProgramsWhichHaveEnded() {
+        EpgSnapshot snapshot = new EpgSnapshot();
+        snapshot.put(CHANNEL_ID, entry(program(0, "a"), program(1, "b")));
+        // The guide of the next sync no longer has the program which ended.
+        assertFalse(snapshot.hasChanged(CHANNEL_ID, entry(program(1, "b")), START_MS + HOUR_MS));
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(1, "b")), START_MS));
+    }
+
+    @Test
+    public void startSync_forgetsTheChannelsOnceADay() {
+        EpgSnapshot snapshot = new EpgSnapshot();
+        assertTrue(snapshot.startSync(START_MS, DAY_MS));
+        snapshot.put(CHANNEL_ID, entry(program(0, "a")));
+        assertFalse(snapshot.startSync(START_MS + HOUR_MS, DAY_MS));
+        assertFalse(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a")), START_MS));
+        assertTrue(snapshot.startSync(START_MS + DAY_MS, DAY_MS));
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a")), START_MS));
+        // Nor does a clock which went back trust what was pushed.
+        snapshot.put(CHANNEL_ID, entry(program(0, "a")));
+        assertTrue(snapshot.startSync(START_MS, DAY_MS));
+    }
+
+    @Test
+    public void write_andRead() throws Exception {
+        File file = new File(mFolder.getRoot(), "snapshot");
+        EpgSnapshot snapshot = new EpgSnapshot();
+        snapshot.startSync(START_MS, DAY_MS);
+        List<Program> programs = new ArrayList<>();
+        for (int hour = 0; hour < 24; hour++) {
+            programs.add(program(hour, "p" + hour));
+        }
+        snapshot.put(CHANNEL_ID, EpgSnapshot.Entry.create(programs));
+        snapshot.put(CHANNEL_ID + 1, entry(program(0, "a")));
+        snapshot.write(file);
+
+        EpgSnapshot read = EpgSnapshot.read(file);
+        assertFalse(read.startSync(START_MS + HOUR_MS, DAY_MS));
+        assertFalse(read.hasChanged(CHANNEL_ID, EpgSnapshot.Entry.create(programs), START_MS));
+        assertFalse(read.hasChanged(CHANNEL_ID + 1, entry(program(0, "a")), START_MS));
+        assertTrue(read.hasChanged(CHANNEL_ID + 2, entry(program(0, "a")), START_MS));
+    }
+
+    @Test
+    public void write_onlyWhenChanged() throws Exception {
+        File file = new File(mFolder.getRoot(), "snapshot");
+        EpgSnapshot snapshot = new EpgSnapshot();
+        snapshot.write(file);
+        assertFalse(file.exists());
+        snapshot.put(CHANNEL_ID, entry(program(0, "a")));
+        snapshot.write(file);
+        assertTrue(file.delete());
+        snapshot.write(file);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void read_ofAnUnusableFile_isEmpty() throws Exception {
+        File file = new File(mFolder.getRoot(), "snapshot");
+        assertTrue(EpgSnapshot.read(file).hasChanged(CHANNEL_ID, entry(program(0, "a")),
+                START_MS));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 'E', 'P', 'G', 'S', 0, 0, 0, 1, 0, 0 });
+        }
+        EpgSnapshot snapshot = EpgSnapshot.read(file);
+        assertTrue(snapshot.hasChanged(CHANNEL_ID, entry(program(0, "a")), START_MS));
+        assertTrue(snapshot.startSync(START_MS, DAY_MS));
+    }
+}
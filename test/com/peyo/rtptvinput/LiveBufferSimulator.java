@@ -0,0 +1,179 @@
+package com.peyo.rtptvinput;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a {@link NetworkTrace} into a model of the player, which buffers what has arrived and
+ * plays it out in real time with the thresholds of {@link LiveLoadControl}, to find how long a
+ * tune takes to start playing and how often it stalls afterwards.
+ * </p>
+ * The tune happens into a stream which is already warm, so its jitter and delay variation are
+ * known, and starts from the first datagram which arrives after it. Like
+ * {@link LiveLoadControl}, the thresholds follow both once a second, worked out the way the
+ * depacketizer does. Run it on recorded traces with
+ * {@code gradle -p jvm liveBuffer --args='bitrate trace.txt...'}.
+ */
+public class LiveBufferSimulator {
+    // RTP clock rate of MPEG-2 transport streams (RFC 2250).
+    private static final int CLOCK_RATE = 90000;
+    private static final long STATS_UPDATE_INTERVAL_US = TimeUnit.SECONDS.toMicros(1);
+    private static final long TUNE_INTERVAL_MS = 5000;
+    private static final int DELAY_WINDOW_SECONDS = 10;
+
+    /**
+     * What a tune looked like to the viewer.
+     */
+    public static class Result {
+        public long startMs = -1;
+        public int stalls;
+        public long stalledMs;
+
+        @Override
+        public String toString() {
+            return "start " + startMs + " ms, " + stalls + " stalls, " + stalledMs + " ms stalled";
+        }
+    }
+
+    /**
+     * Replays {@code trace} from {@code tuneMs} until its end with the thresholds of
+     * {@code preset}, raised for the jitter and delay variation unless {@code fixed}.
+     */
+    public static Result simulate(NetworkTrace trace, LiveBufferThresholds preset, boolean fixed,
+            long tuneMs) {
+        Result result = new Result();
+        long tuneUs = tuneMs * 1000;
+        long intervalUs = trace.getPacketIntervalUs();
+        double jitter = 0;
+        boolean hasTransit = false;
+        long lastTransit = 0;
+        LiveBufferThresholds thresholds = preset;
+        long lastStatsUpdateUs = -STATS_UPDATE_INTERVAL_US;
+        // Lowest and highest transit time of each second of the delay variation window.
+        long[] minTransits = new long[DELAY_WINDOW_SECONDS];
+        long[] maxTransits = new long[DELAY_WINDOW_SECONDS];
+        Arrays.fill(minTransits, Long.MAX_VALUE);
+        Arrays.fill(maxTransits, Long.MIN_VALUE);
+        long transitSecond = 0;
+
+        boolean tuned = false;
+        boolean started = false;
+        boolean playing = false;
+        // Media positions from the first datagram after the tune, and the time of the last step.
+        long bufferedUs = 0;
+        long playheadUs = 0;
+        long lastUs = 0;
+        long stallStartUs = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long arrivalUs = trace.getArrivalUs(i);
+            // The interarrival jitter of RFC 3550, as the depacketizer computes it.
+            long transit = arrivalUs * CLOCK_RATE / 1000000
+                    - trace.getIndex(i) * intervalUs * CLOCK_RATE / 1000000;
+            if (hasTransit) {
+                jitter += (Math.abs(transit - lastTransit) - jitter) / 16;
+            }
+            lastTransit = transit;
+            hasTransit = true;
+            long second = arrivalUs / 1000000;
+            for (long t = Math.max(transitSecond + 1, second - DELAY_WINDOW_SECONDS + 1);
+                    t <= second; t++) {
+                minTransits[(int) (t % DELAY_WINDOW_SECONDS)] = Long.MAX_VALUE;
+                maxTransits[(int) (t % DELAY_WINDOW_SECONDS)] = Long.MIN_VALUE;
+            }
+            transitSecond = second;
+            int slot = (int) (second % DELAY_WINDOW_SECONDS);
+            minTransits[slot] = Math.min(minTransits[slot], transit);
+            maxTransits[slot] = Math.max(maxTransits[slot], transit);
+            if (!fixed && arrivalUs - lastStatsUpdateUs >= STATS_UPDATE_INTERVAL_US) {
+                lastStatsUpdateUs = arrivalUs;
+                long minTransit = Long.MAX_VALUE;
+                long maxTransit = Long.MIN_VALUE;
+                for (int j = 0; j < DELAY_WINDOW_SECONDS; j++) {
+                    minTransit = Math.min(minTransit, minTransits[j]);
+                    maxTransit = Math.max(maxTransit, maxTransits[j]);
+                }
+                thresholds = preset.forStats((long) (jitter * 1000000 / CLOCK_RATE),
+                        (maxTransit - minTransit) * 1000000 / CLOCK_RATE);
+            }
+            if (arrivalUs < tuneUs) {
+                continue;
+            }
+            if (!tuned) {
+                tuned = true;
+                lastUs = arrivalUs;
+            }
+
+            if (playing) {
+                playheadUs += arrivalUs - lastUs;
+                if (playheadUs > bufferedUs) {
+                    stallStartUs = arrivalUs - (playheadUs - bufferedUs);
+                    playheadUs = bufferedUs;
+                    playing = false;
+                    result.stalls++;
+                }
+            }
+            lastUs = arrivalUs;
+            bufferedUs += intervalUs;
+            if (!playing) {
+                long thresholdMs = started ? thresholds.getBufferForPlaybackAfterRebufferMs()
+                        : thresholds.getBufferForPlaybackMs();
+                if (bufferedUs - playheadUs >= thresholdMs * 1000) {
+                    playing = true;
+                    if (!started) {
+                        started = true;
+                        result.startMs = (arrivalUs - tuneUs) / 1000;
+                    } else {
+                        result.stalledMs += (arrivalUs - stallStartUs) / 1000;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tunes into {@code trace} every {@link #TUNE_INTERVAL_MS}, each tune playing to its end,
+     * and adds up the results.
+     */
+    public static Result simulateTunes(NetworkTrace trace, LiveBufferThresholds preset,
+            boolean fixed) {
+        Result total = new Result();
+        long durationMs = trace.getArrivalUs(trace.size() - 1) / 1000;
+        int tunes = 0;
+        long startMs = 0;
+        for (long tuneMs = TUNE_INTERVAL_MS; tuneMs < durationMs - TUNE_INTERVAL_MS;
+                tuneMs += TUNE_INTERVAL_MS) {
+            Result result = simulate(trace, preset, fixed, tuneMs);
+            startMs += result.startMs;
+            total.stalls += result.stalls;
+            total.stalledMs += result.stalledMs;
+            tunes++;
+        }
+        // The mean start time of the tunes, with the stalls of all of them.
+        total.startMs = tunes == 0 ? -1 : startMs / tunes;
+        return total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LiveBufferSimulator bitrate trace.txt...");
+            System.exit(2);
+        }
+        long bitrate = Long.parseLong(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            print(NetworkTrace.read(args[i], bitrate));
+        }
+    }
+
+    static void print(NetworkTrace trace) {
+        System.out.println(trace.getName());
+        System.out.println("  default fixed:      "
+                + simulateTunes(trace, LiveBufferThresholds.DEFAULT, true));
+        System.out.println("  default:            "
+                + simulateTunes(trace, LiveBufferThresholds.DEFAULT, false));
+        System.out.println("  low latency fixed:  "
+                + simulateTunes(trace, LiveBufferThresholds.LOW_LATENCY, true));
+        System.out.println("  low latency:        "
+                + simulateTunes(trace, LiveBufferThresholds.LOW_LATENCY, false));
+    }
+}
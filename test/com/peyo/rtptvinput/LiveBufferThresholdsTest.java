@@ -0,0 +1,78 @@
+package com.peyo.rtptvinput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.peyo.rtptvinput.LiveBufferSimulator.Result;
+
+import org.junit.Test;
+
+public class LiveBufferThresholdsTest {
+    private static final long BITRATE = 20000000;
+    private static final long DURATION_MS = 120000;
+
+    // Network paths from a wired LAN to a link which holds the stream back for up to 400 ms.
+    private static final NetworkTrace LAN =
+            NetworkTrace.generate("lan", BITRATE, DURATION_MS, 1000, 100, 0, 0, 1);
+    private static final NetworkTrace WIFI =
+            NetworkTrace.generate("wifi", BITRATE, DURATION_MS, 2000, 2000, 2000, 150, 2);
+    private static final NetworkTrace CONGESTED =
+            NetworkTrace.generate("congested", BITRATE, DURATION_MS, 5000, 20000, 10000, 400, 3);
+    private static final NetworkTrace JITTERY =
+            NetworkTrace.generate("jittery", BITRATE, DURATION_MS, 5000, 30000, 0, 0, 4);
+
+    @Test
+    public void forStats_steadyStreamKeepsThePreset() {
+        LiveBufferThresholds thresholds = LiveBufferThresholds.LOW_LATENCY.forStats(1000, 10000);
+        assertEquals(150, thresholds.getBufferForPlaybackMs());
+        assertEquals(500, thresholds.getBufferForPlaybackAfterRebufferMs());
+        assertEquals(1000, thresholds.getMinBufferMs());
+        assertEquals(2000, thresholds.getMaxBufferMs());
+    }
+
+    @Test
+    public void forStats_coversTheDelayVariation() {
+        LiveBufferThresholds thresholds = LiveBufferThresholds.LOW_LATENCY.forStats(2000, 300000);
+        assertEquals(600, thresholds.getBufferForPlaybackMs());
+        assertEquals(1200, thresholds.getBufferForPlaybackAfterRebufferMs());
+        assertEquals(1200, thresholds.getMinBufferMs());
+        assertEquals(2400, thresholds.getMaxBufferMs());
+    }
+
+    @Test
+    public void forStats_coversTheJitter() {
+        LiveBufferThresholds thresholds = LiveBufferThresholds.DEFAULT.forStats(200000, 0);
+        assertEquals(800, thresholds.getBufferForPlaybackMs());
+        assertEquals(1600, thresholds.getBufferForPlaybackAfterRebufferMs());
+        assertEquals(3000, thresholds.getMinBufferMs());
+        assertEquals(6000, thresholds.getMaxBufferMs());
+    }
+
+    @Test
+    public void lowLatency_doesNotStallOnAnyTrace() {
+        for (NetworkTrace trace : new NetworkTrace[] { LAN, WIFI, CONGESTED, JITTERY }) {
+            Result adaptive =
+                    LiveBufferSimulator.simulateTunes(trace, LiveBufferThresholds.LOW_LATENCY, false);
+            Result fixed =
+                    LiveBufferSimulator.simulateTunes(trace, LiveBufferThresholds.DEFAULT, true);
+            assertEquals(trace.getName() + ": " + adaptive, 0, adaptive.stalls);
+            assertTrue(trace.getName() + ": " + adaptive + " vs " + fixed,
+                    adaptive.startMs < fixed.startMs);
+        }
+    }
+
+    @Test
+    public void lowLatency_startsAtThePresetOnALan() {
+        Result result =
+                LiveBufferSimulator.simulateTunes(LAN, LiveBufferThresholds.LOW_LATENCY, false);
+        assertTrue(result.toString(), result.startMs > 140 && result.startMs < 200);
+    }
+
+    @Test
+    public void lowLatencyFixed_stallsOnABurstyPath() {
+        assertTrue(LiveBufferSimulator.simulateTunes(CONGESTED, LiveBufferThresholds.LOW_LATENCY,
+                true).stalls > 0);
+        assertTrue(LiveBufferSimulator.simulateTunes(JITTERY, LiveBufferThresholds.LOW_LATENCY,
+                true).stalls > 0);
+    }
+}
@@ -0,0 +1,136 @@
+package com.peyo.rtptvinput;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Arrival times of the datagrams of a constant bitrate stream, as seen by the receiver.
+ * </p>
+ * A trace is either recorded, from the output of
+ * {@code tshark -r capture.pcap -d udp.port==1234,rtp -T fields -e frame.time_relative -e rtp.seq},
+ * or generated for a kind of network path.
+ */
+public class NetworkTrace {
+    private static final int SEQUENCE_MODULO = 1 << 16;
+
+    private final String mName;
+    private final long mPacketIntervalUs;
+    // Arrival time and index in the stream of each datagram, by arrival.
+    private final long[] mArrivalUs;
+    private final long[] mIndices;
+
+    private NetworkTrace(String name, long packetIntervalUs, long[] arrivalUs, long[] indices) {
+        mName = name;
+        mPacketIntervalUs = packetIntervalUs;
+        mArrivalUs = arrivalUs;
+        mIndices = indices;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the media duration carried by a datagram.
+     */
+    public long getPacketIntervalUs() {
+        return mPacketIntervalUs;
+    }
+
+    public int size() {
+        return mArrivalUs.length;
+    }
+
+    public long getArrivalUs(int i) {
+        return mArrivalUs[i];
+    }
+
+    /**
+     * Returns the index of the {@code i}-th datagram to arrive in the stream, which is when it
+     * was sent in units of {@link #getPacketIntervalUs}.
+     */
+    public long getIndex(int i) {
+        return mIndices[i];
+    }
+
+    /**
+     * Reads a trace of {@code bitrate} from lines of the arrival time in seconds and the RTP
+     * sequence number.
+     */
+    public static NetworkTrace read(String fileName, long bitrate) throws IOException {
+        long[] arrivalUs = new long[1024];
+        long[] indices = new long[1024];
+        int count = 0;
+        long index = -1;
+        int lastSequence = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 2 || fields[1].isEmpty()) {
+                    continue;
+                }
+                int sequence = Integer.parseInt(fields[1]);
+                if (index < 0) {
+                    index = 0;
+                } else {
+                    int distance = (sequence - lastSequence + SEQUENCE_MODULO) % SEQUENCE_MODULO;
+                    index += distance >= SEQUENCE_MODULO / 2 ? distance - SEQUENCE_MODULO : distance;
+                }
+                lastSequence = sequence;
+                if (count == arrivalUs.length) {
+                    arrivalUs = Arrays.copyOf(arrivalUs, count * 2);
+                    indices = Arrays.copyOf(indices, count * 2);
+                }
+                arrivalUs[count] = (long) (Double.parseDouble(fields[0]) * 1000000);
+                indices[count] = index;
+                count++;
+            }
+        }
+        return new NetworkTrace(fileName, getPacketIntervalUs(bitrate),
+                Arrays.copyOf(arrivalUs, count), Arrays.copyOf(indices, count));
+    }
+
+    private static long getPacketIntervalUs(long bitrate) {
+        return 7 * 188 * 8 * 1000000L / bitrate;
+    }
+
+    /**
+     * Generates a trace of {@code durationMs} at {@code bitrate} through a path which delays each
+     * datagram by {@code baseDelayUs} plus exponentially distributed queueing of mean
+     * {@code meanQueueingUs}. Every {@code holdIntervalMs} on average, the path holds back
+     * everything for up to {@code maxHoldMs}, as Wi-Fi power save or a congested link does, and
+     * then lets it go at once. Datagrams are not reordered.
+     */
+    public static NetworkTrace generate(String name, long bitrate, long durationMs,
+            long baseDelayUs, long meanQueueingUs, long holdIntervalMs, long maxHoldMs,
+            long seed) {
+        Random random = new Random(seed);
+        long intervalUs = getPacketIntervalUs(bitrate);
+        int count = (int) (durationMs * 1000 / intervalUs);
+        long[] arrivalUs = new long[count];
+        long[] indices = new long[count];
+        long holdUntilUs = -1;
+        long lastArrivalUs = 0;
+        for (int i = 0; i < count; i++) {
+            long sentUs = i * intervalUs;
+            if (holdIntervalMs > 0 && sentUs > holdUntilUs
+                    && random.nextDouble() < (double) intervalUs / (holdIntervalMs * 1000)) {
+                holdUntilUs = sentUs + (long) (random.nextDouble() * maxHoldMs * 1000);
+            }
+            long arrival = sentUs + baseDelayUs
+                    + (long) (-Math.log(1 - random.nextDouble()) * meanQueueingUs);
+            if (arrival < holdUntilUs + baseDelayUs) {
+                arrival = holdUntilUs + baseDelayUs;
+            }
+            arrival = Math.max(arrival, lastArrivalUs);
+            arrivalUs[i] = arrival;
+            indices[i] = i;
+            lastArrivalUs = arrival;
+        }
+        return new NetworkTrace(name, intervalUs, arrivalUs, indices);
+    }
+}
@@ -0,0 +1,72 @@
+package com.peyo.rtptvinput;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates an XMLTV guide for the tests and the benchmarks: the channels first, then the
+ * programmes of each channel back to back, from 15 minutes to 2 hours long.
+ */
+public class XmlTvGenerator {
+    private static final long MIN_PROGRAM_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyyMMddHHmmss Z",
+            Locale.US);
+
+    public XmlTvGenerator() {
+        mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    public static String getChannelId(int channel) {
+        return "channel" + channel + ".example.com";
+    }
+
+    /**
+     * Returns a guide of {@code channelCount} channels with programmes from {@code startMs} for
+     * {@code days}, the same for the same {@code seed}.
+     */
+    public byte[] generate(int channelCount, int days, long startMs, long seed) {
+        Random random = new Random(seed);
+        long endMs = startMs + TimeUnit.DAYS.toMillis(days);
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<tv>\n");
+        for (int channel = 0; channel < channelCount; channel++) {
+            xml.append("  <channel id=\"").append(getChannelId(channel)).append("\">\n")
+                    .append("    <display-name>Channel ").append(channel)
+                    .append("</display-name>\n")
+                    .append("    <display-number>").append(channel + 1)
+                    .append("</display-number>\n")
+                    .append("    <service-id>").append(channel + 1).append("</service-id>\n")
+                    .append("  </channel>\n");
+        }
+        for (int channel = 0; channel < channelCount; channel++) {
+            int program = 0;
+            for (long timeMs = startMs; timeMs < endMs; program++) {
+                long durationMs = MIN_PROGRAM_MS * (1 + random.nextInt(8));
+                appendProgram(xml, channel, program, timeMs, timeMs + durationMs);
+                timeMs += durationMs;
+            }
+        }
+        xml.append("</tv>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void appendProgram(StringBuilder xml, int channel, int program, long startMs,
+            long endMs) {
+        xml.append("  <programme start=\"").append(mDateFormat.format(new Date(startMs)))
+                .append("\" stop=\"").append(mDateFormat.format(new Date(endMs)))
+                .append("\" channel=\"").append(getChannelId(channel)).append("\">\n")
+                .append("    <title>Program ").append(program).append(" of channel ")
+                .append(channel).append("</title>\n")
+                .append("    <desc>What happens in program ").append(program)
+                .append(", which runs for ").append((endMs - startMs) / 60000)
+                .append(" minutes.</desc>\n")
+                .append("    <category>Entertainment</category>\n")
+                .append("  </programme>\n");
+    }
+}
@@ -0,0 +1,160 @@
+package com.peyo.rtptvinput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import com.peyo.rtptvinput.XmlTvParser.TvListing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class XmlTvParserTest {
+    // 2017-07-14 02:40:00 UTC.
+    private static final long START_MS = 1500000000000L;
+
+    private static TvListing parse(String xml) throws Exception {
+        return XmlTvParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String channel(String id, int number) {
+        return "<channel id=\"" + id + "\"><display-name>" + id + "</display-name>"
+                + "<display-number>" + number + "</display-number>"
+                + "<service-id>" + number + "</service-id></channel>\n";
+    }
+
+    private static String program(String channelId, String start, String stop, String title) {
+        return "<programme start=\"" + start + " +0000\" stop=\"" + stop + " +0000\" channel=\""
+                + channelId + "\"><title>" + title + "</title></programme>\n";
+    }
+
+    private static String getTitles(List<Program> programs) {
+        StringBuilder titles = new StringBuilder();
+        for (Program program : programs) {
+            titles.append(titles.length() > 0 ? "," : "").append(program.getTitle());
+        }
+        return titles.toString();
+    }
+
+    @Test
+    public void parse_groupsProgramsByChannel() throws Exception {
+        byte[] guide = new XmlTvGenerator().generate(20, 2, START_MS, 1);
+        final int[] parsedPrograms = new int[1];
+        XmlTvParser.parse(new ByteArrayInputStream(guide), 0, Long.MAX_VALUE,
+                new XmlTvParser.Listener() {
+                    @Override
+                    public void onChannel(Channel channel) {
+                    }
+
+                    @Override
+                    public void onProgram(Program program) {
+                        parsedPrograms[0]++;
+                    }
+                });
+
+        TvListing listing = XmlTvParser.parse(new ByteArrayInputStream(guide));
+        assertEquals(20, listing.getChannels().size());
+        assertEquals(parsedPrograms[0], listing.getAllPrograms().size());
+        for (int i = 0; i < 20; i++) {
+            Channel channel = listing.getChannels().get(i);
+            assertEquals("Channel " + i, channel.getDisplayName());
+            List<Program> programs = listing.getPrograms(channel);
+            assertEquals(START_MS, programs.get(0).getStartTimeUtcMillis());
+            assertTrue(programs.get(programs.size() - 1).getEndTimeUtcMillis()
+                    >= START_MS + TimeUnit.DAYS.toMillis(2));
+            for (int j = 0; j < programs.size(); j++) {
+                assertEquals("Program " + j + " of channel " + i, programs.get(j).getTitle());
+                assertEquals(channel.getId(), programs.get(j).getChannelId());
+                if (j > 0) {
+                    assertEquals(programs.get(j - 1).getEndTimeUtcMillis(),
+                            programs.get(j).getStartTimeUtcMillis());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parse_interleavedPrograms() throws Exception {
+        TvListing listing = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<tv>\n"
+                + channel("a", 1) + channel("b", 2) + channel("c", 3)
+                + program("b", "20170714030000", "20170714040000", "b2")
+                + program("a", "20170714020000", "20170714030000", "a1")
+                + program("unknown", "20170714020000", "20170714030000", "x")
+                + program("b", "20170714020000", "20170714030000", "b1")
+                + program("a", "20170714030000", "20170714040000", "a2")
+                + "</tv>\n");
+
+        List<Channel> channels = listing.getChannels();
+        assertEquals(3, channels.size());
+        assertEquals("a1,a2", getTitles(listing.getPrograms(channels.get(0))));
+        assertEquals("b1,b2", getTitles(listing.getPrograms(channels.get(1))));
+        assertEquals(0, listing.getPrograms(channels.get(2)).size());
+        // The program of a channel which is not in the guide is dropped.
+        assertEquals(4, listing.getAllPrograms().size());
+    }
+
+    @Test
+    public void parse_skipsProgramsOutsideTheWindow() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<tv>\n" + channel("a", 1)
+                + program("a", "20170714010000", "20170714024000", "over")
+                + program("a", "20170714020000", "20170714030000", "on")
+                + program("a", "20170714030000", "20170714040000", "next")
+                + program("a", "20170714040000", "20170714050000", "later")
+                + "</tv>\n";
+        TvListing listing = XmlTvParser.parse(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), START_MS,
+                START_MS + TimeUnit.HOURS.toMillis(1));
+        assertEquals("on,next", getTitles(listing.getPrograms(listing.getChannels().get(0))));
+    }
+
+    @Test
+    public void getPrograms_inAWindow() throws Exception {
+        TvListing listing = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<tv>\n"
+                + channel("a", 1)
+                + program("a", "20170714050000", "20170714060000", "atEnd")
+                + program("a", "20170714033000", "20170714043000", "within")
+                + program("a", "20170714010000", "20170714030000", "atStart")
+                + program("a", "20170714000000", "20170714060000", "over")
+                + program("a", "20170714023000", "20170714024500", "inOver")
+                + program("a", "20170714020000", "20170714033000", "on")
+                + "</tv>\n");
+        Channel channel = listing.getChannels().get(0);
+        // From 03:00 to 05:00.
+        long startMs = START_MS + TimeUnit.MINUTES.toMillis(20);
+        long endMs = startMs + TimeUnit.HOURS.toMillis(2);
+        // A program which ends at the start, or starts at the end, is not in the window.
+        assertEquals("over,on,within", getTitles(listing.getPrograms(channel, startMs, endMs)));
+        // A short program after a long one.
+        assertEquals("over,atStart,on,inOver",
+                getTitles(listing.getPrograms(channel, startMs - TimeUnit.MINUTES.toMillis(20),
+                        startMs - TimeUnit.MINUTES.toMillis(15))));
+        assertEquals("over", getTitles(listing.getPrograms(channel, endMs - 1, endMs)));
+        assertEquals("", getTitles(listing.getPrograms(channel,
+                endMs + TimeUnit.HOURS.toMillis(1), endMs + TimeUnit.HOURS.toMillis(2))));
+        assertEquals(6, listing.getPrograms(channel, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void getPrograms_ofARepeatingChannel() throws Exception {
+        TvListing listing = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<tv>\n"
+                + channel("a", 1).replace("<channel ", "<channel repeat-programs=\"true\" ")
+                + program("a", "20170714020000", "20170714030000", "first")
+                + program("a", "20170714030000", "20170714040000", "second")
+                + "</tv>\n");
+        // Its programs are shifted into any window.
+        long startMs = START_MS + TimeUnit.DAYS.toMillis(1);
+        assertEquals("first,second", getTitles(listing.getPrograms(listing.getChannels().get(0),
+                startMs, startMs + TimeUnit.HOURS.toMillis(1))));
+    }
+
+    @Test(expected = XmlTvParser.XmlTvParseException.class)
+    public void parse_notXmlTv() throws Exception {
+        parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<html></html>\n");
+    }
+}
@@ -0,0 +1,107 @@
+package com.peyo.rtptvinput.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends datagrams to a streamer bound on the loopback interface, so that the tests and the
+ * benchmarks go through the real ingest thread.
+ */
+public class LoopbackSender implements Closeable {
+    private static final long POLL_INTERVAL_MS = 1;
+    private static final long FIRST_PACKET_TIMEOUT_MS = 100;
+    private static final int MAX_FIRST_PACKET_ATTEMPTS = 50;
+
+    private final DatagramChannel mChannel;
+
+    public LoopbackSender(int port) throws IOException {
+        mChannel = DatagramChannel.open();
+        mChannel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Returns a UDP port of the loopback interface which nothing is bound to.
+     */
+    public static int findFreePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Returns the URI of a stream of {@code scheme} on {@code port} of the loopback interface,
+     * with the given query, which may be empty.
+     */
+    public static String getUri(String scheme, int port, String query) {
+        return scheme + "://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port
+                + (query.isEmpty() ? "" : "?" + query);
+    }
+
+    public void send(byte[] datagram) throws IOException {
+        send(datagram, 0, datagram.length);
+    }
+
+    public void send(byte[] datagram, int offset, int length) throws IOException {
+        mChannel.write(ByteBuffer.wrap(datagram, offset, length));
+    }
+
+    /**
+     * Sends {@code datagram} until {@code streamer} has received it. The streamer connects to the
+     * sender on its first datagram, and the JDK drops what is queued on the socket then, so more
+     * should only be sent after this.
+     */
+    public void sendFirst(RtpStreamer streamer, byte[] datagram)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < MAX_FIRST_PACKET_ATTEMPTS; i++) {
+            send(datagram);
+            if (awaitPacketsReceived(streamer, 1, FIRST_PACKET_TIMEOUT_MS)) {
+                return;
+            }
+        }
+        throw new IOException("Streamer does not receive");
+    }
+
+    /**
+     * Waits until {@code streamer} has received {@code count} datagrams.
+     *
+     * @return whether it did within {@code timeoutMs}
+     */
+    public static boolean awaitPacketsReceived(RtpStreamer streamer, long count, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (streamer.getMetrics().getPacketsReceived() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the published data of {@code streamer} reaches {@code position}.
+     *
+     * @return whether it did within {@code timeoutMs}
+     */
+    public static boolean awaitBufferedPosition(RtpStreamer streamer, long position,
+            long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (streamer.getBufferedPosition() < position) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,203 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(Parameterized.class)
+public class RingBufferTest {
+    private static final int CAPACITY = 8192;
+    private static final int MAX_PENDING_LENGTH = 2048;
+
+    private final int mStorage;
+
+    @Parameters(name = "storage={0}")
+    public static Collection<Object[]> getStorages() {
+        return Arrays.asList(new Object[][] {
+                { RingBuffer.STORAGE_HEAP },
+                { RingBuffer.STORAGE_DIRECT },
+                { RingBuffer.STORAGE_MAPPED_FILE },
+        });
+    }
+
+    public RingBufferTest(int storage) {
+        mStorage = storage;
+    }
+
+    private RingBuffer createRing() throws Exception {
+        return new RingBuffer(RingBuffer.allocate(mStorage, CAPACITY), MAX_PENDING_LENGTH);
+    }
+
+    private static byte[] createData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i * 7);
+        }
+        return data;
+    }
+
+    /**
+     * Writes and publishes {@code length} bytes, so that the next write starts there.
+     */
+    private static void advance(RingBuffer ring, int length) {
+        byte[] data = new byte[MAX_PENDING_LENGTH];
+        for (int written = 0; written < length; written += data.length) {
+            ring.write(data, 0, Math.min(data.length, length - written));
+            ring.publish();
+        }
+    }
+
+    @Test
+    public void readAt_acrossTheEnd() throws Exception {
+        RingBuffer ring = createRing();
+        advance(ring, CAPACITY - 100);
+        byte[] data = createData(1000, 1);
+        ring.write(data, 0, data.length);
+        ring.publish();
+
+        byte[] read = new byte[data.length];
+        assertEquals(data.length, ring.createReader().readAt(CAPACITY - 100, read, 0, read.length));
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void readAt_overwritten() throws Exception {
+        RingBuffer ring = createRing();
+        advance(ring, CAPACITY);
+
+        byte[] read = new byte[100];
+        assertTrue(ring.isOverwritten(0));
+        assertEquals(-1, ring.createReader().readAt(0, read, 0, read.length));
+        assertEquals(1, ring.getOverwriteCount());
+        assertFalse(ring.isOverwritten(ring.getStartPosition()));
+        assertEquals(read.length,
+                ring.createReader().readAt(ring.getStartPosition(), read, 0, read.length));
+    }
+
+    @Test
+    public void readAt_waitsForPublish() throws Exception {
+        final RingBuffer ring = createRing();
+        final byte[] read = new byte[100];
+        final AtomicInteger result = new AtomicInteger();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                result.set(ring.createReader().readAt(0, read, 0, read.length));
+            }
+        };
+        reader.start();
+        byte[] data = createData(read.length, 2);
+        ring.write(data, 0, data.length);
+        Thread.sleep(50);
+        assertTrue(reader.isAlive());
+
+        ring.publish();
+        reader.join(1000);
+        assertEquals(read.length, result.get());
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void readAt_closed() throws Exception {
+        final RingBuffer ring = createRing();
+        final AtomicInteger result = new AtomicInteger();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                result.set(ring.createReader().readAt(0, new byte[100], 0, 100));
+            }
+        };
+        reader.start();
+        Thread.sleep(50);
+        ring.close();
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        assertEquals(-1, result.get());
+    }
+
+    @Test
+    public void commit_dropsTheHeader() throws Exception {
+        RingBuffer ring = createRing();
+        advance(ring, CAPACITY - 10);
+        byte[] datagram = createData(12 + 1316, 3);
+        ByteBuffer[] regions = new ByteBuffer[2];
+        ring.getWritableRegions(regions, 0, datagram.length);
+        regions[0].put(datagram, 0, regions[0].remaining());
+        regions[1].put(datagram, datagram.length - regions[1].remaining(),
+                regions[1].remaining());
+        ring.commit(12, 1316);
+        ring.publish();
+
+        byte[] read = new byte[1316];
+        ring.createReader().readAt(CAPACITY - 10, read, 0, read.length);
+        assertArrayEquals(Arrays.copyOfRange(datagram, 12, datagram.length), read);
+        assertEquals(CAPACITY - 10 + 1316, ring.getWritePosition());
+    }
+
+    @Test
+    public void movePending_overlappingAcrossTheEnd() throws Exception {
+        RingBuffer ring = createRing();
+        advance(ring, CAPACITY - 1000);
+        byte[] data = createData(MAX_PENDING_LENGTH, 4);
+        ring.putPending(0, data, 0, data.length);
+
+        ring.movePending(188, 0, 1800);
+        byte[] moved = new byte[1800];
+        ring.copyPending(0, moved, 0, moved.length);
+        assertArrayEquals(Arrays.copyOfRange(data, 188, 188 + 1800), moved);
+    }
+
+    @Test
+    public void movePending_longerThanAChunk() throws Exception {
+        int length = 6000;
+        RingBuffer ring = new RingBuffer(RingBuffer.allocate(mStorage, CAPACITY), 7000);
+        advance(ring, 3000);
+        byte[] data = createData(length + 12, 5);
+        ring.putPending(0, data, 0, data.length);
+
+        ring.movePending(12, 0, length);
+        byte[] moved = new byte[length];
+        ring.copyPending(0, moved, 0, length);
+        assertArrayEquals(Arrays.copyOfRange(data, 12, data.length), moved);
+    }
+
+    @Test
+    public void commit_filter() throws Exception {
+        RingBuffer ring = createRing();
+        advance(ring, CAPACITY - 300);
+        // Keeps every other 100 bytes.
+        ring.setFilter(new RingBuffer.Filter() {
+            @Override
+            public int filter(RingBuffer ring, int offset, int length) {
+                int kept = 0;
+                for (int from = offset; from < offset + length; from += 200) {
+                    ring.movePending(from, kept, 100);
+                    kept += 100;
+                }
+                return kept;
+            }
+        });
+        byte[] data = createData(12 + 800, 6);
+        ring.putPending(0, data, 0, data.length);
+        ring.commit(12, 800);
+        ring.publish();
+
+        byte[] read = new byte[400];
+        ring.createReader().readAt(CAPACITY - 300, read, 0, read.length);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(Arrays.copyOfRange(data, 12 + i * 200, 12 + i * 200 + 100),
+                    Arrays.copyOfRange(read, i * 100, i * 100 + 100));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+public class RtpDepacketizerTest {
+    private static final int WINDOW_SIZE = 8;
+    private static final int PAYLOAD_SIZE = TsStreamGenerator.PACKET_SIZE;
+
+    private RingBuffer mRing;
+    private RtpDepacketizer mDepacketizer;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(RtpDepacketizer.FIXED_HEADER_SIZE);
+    private final ByteArrayOutputStream mExpected = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws Exception {
+        mRing = new RingBuffer(RingBuffer.allocate(RingBuffer.STORAGE_HEAP, 1024 * 1024),
+                // The packet and every held one may be written before a publish.
+                (WINDOW_SIZE + 2) * PAYLOAD_SIZE);
+        mDepacketizer = new RtpDepacketizer(mRing, WINDOW_SIZE, PAYLOAD_SIZE);
+    }
+
+    private static byte[] createPayload(int sequence) {
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (sequence * 31 + sequence / 256 + i);
+        }
+        return payload;
+    }
+
+    /**
+     * Passes the packet {@code sequence} in the way the streamer does, with its payload in the
+     * writable region of the ring.
+     */
+    private void receive(int sequence) {
+        sequence &= 0xffff;
+        byte[] payload = createPayload(sequence);
+        mRing.putPending(0, payload, 0, payload.length);
+        mHeader.clear();
+        mHeader.put((byte) 0x80).put((byte) 33).putShort((short) sequence).putInt(sequence * 3600)
+                .putInt(0x12345678);
+        mDepacketizer.onPacket(mHeader, payload.length, System.nanoTime());
+        mRing.publish();
+    }
+
+    private void receive(int from, int to) {
+        for (int sequence = from; sequence < to; sequence++) {
+            receive(sequence);
+        }
+    }
+
+    private void expect(int from, int to) {
+        for (int sequence = from; sequence < to; sequence++) {
+            byte[] payload = createPayload(sequence & 0xffff);
+            mExpected.write(payload, 0, payload.length);
+        }
+    }
+
+    private void assertOutput() {
+        byte[] expected = mExpected.toByteArray();
+        assertEquals(expected.length, mRing.getWritePosition());
+        byte[] output = new byte[expected.length];
+        mRing.createReader().readAt(0, output, 0, output.length);
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void inOrder_acrossTheWrap() {
+        receive(65530, 65536 + 10);
+        expect(65530, 65536 + 10);
+        assertOutput();
+        assertEquals(0, mDepacketizer.getPacketsLost());
+    }
+
+    @Test
+    public void reordered() {
+        receive(1);
+        receive(3);
+        receive(4);
+        receive(2);
+        receive(5);
+        expect(1, 6);
+        assertOutput();
+        assertEquals(1, mDepacketizer.getPacketsReordered());
+        assertEquals(0, mDepacketizer.getPacketsLost());
+    }
+
+    @Test
+    public void reordered_acrossTheWrap() {
+        receive(65534);
+        receive(0);
+        receive(65535);
+        receive(1);
+        expect(65534, 65536 + 2);
+        assertOutput();
+        assertEquals(0, mDepacketizer.getPacketsLost());
+    }
+
+    @Test
+    public void gapLargerThanTheWindow() {
+        receive(100, 110);
+        receive(112);
+        receive(600, 610);
+        expect(100, 110);
+        expect(112, 113);
+        expect(600, 610);
+        assertOutput();
+        assertEquals(2 + 600 - 113, mDepacketizer.getPacketsLost());
+    }
+
+    @Test
+    public void lateAndDuplicated() {
+        receive(1);
+        receive(3, 3 + WINDOW_SIZE);
+        receive(2);
+        receive(5);
+        expect(1, 2);
+        expect(3, 3 + WINDOW_SIZE);
+        assertOutput();
+        assertEquals(1, mDepacketizer.getPacketsLost());
+        assertEquals(1, mDepacketizer.getPacketsLate());
+        assertEquals(1, mDepacketizer.getPacketsDuplicated());
+    }
+
+    @Test(timeout = 5000)
+    public void restart_backwards() {
+        receive(10000, 10101);
+        receive(100, 200);
+        receive(30000, 30100);
+        expect(10000, 10101);
+        expect(100, 200);
+        expect(30000, 30100);
+        assertOutput();
+        assertEquals(0, mDepacketizer.getPacketsLost());
+    }
+
+    @Test(timeout = 5000)
+    public void restart_withHeldPackets() {
+        receive(5);
+        receive(7);
+        receive(40000, 40010);
+        expect(5, 6);
+        expect(7, 8);
+        expect(40000, 40010);
+        assertOutput();
+        assertEquals(1, mDepacketizer.getPacketsLost());
+        // Sequence numbers from before the restart are not taken for late packets.
+        receive(6);
+        assertEquals(0, mDepacketizer.getPacketsLate());
+    }
+}
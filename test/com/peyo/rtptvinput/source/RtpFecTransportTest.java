@@ -0,0 +1,220 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class RtpFecTransportTest {
+    // A matrix of 4 columns by 4 rows, whose packets the reorder window covers.
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 4;
+    private static final int WINDOW_SIZE = 32;
+    private static final int MAX_PAYLOAD_SIZE = 7 * TsStreamGenerator.PACKET_SIZE;
+    private static final int MAX_PACKET_SIZE =
+            RtpDepacketizer.FIXED_HEADER_SIZE + MAX_PAYLOAD_SIZE;
+    private static final int FEC_HEADER_SIZE = 16;
+    private static final int PAYLOAD_TYPE = 33;
+    private static final int SSRC = 0x12345678;
+
+    private RingBuffer mRing;
+    private RtpDepacketizer mDepacketizer;
+    private RtpFecTransport mTransport;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(RtpDepacketizer.FIXED_HEADER_SIZE);
+    private final ByteArrayOutputStream mExpected = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws Exception {
+        mRing = new RingBuffer(RingBuffer.allocate(RingBuffer.STORAGE_HEAP, 1024 * 1024),
+                // The packet and every held one may be written before a publish.
+                (WINDOW_SIZE + 2) * MAX_PAYLOAD_SIZE);
+        mDepacketizer = new RtpDepacketizer(mRing, WINDOW_SIZE, MAX_PAYLOAD_SIZE);
+        mTransport = new RtpFecTransport(mDepacketizer, mRing, MAX_PACKET_SIZE);
+    }
+
+    /**
+     * Returns the payload of the packet {@code sequence}, of a length which varies so that its
+     * recovery is covered too.
+     */
+    private static byte[] createPayload(int sequence) {
+        byte[] payload = new byte[(1 + sequence % 7) * TsStreamGenerator.PACKET_SIZE];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (sequence * 31 + sequence / 256 + i);
+        }
+        return payload;
+    }
+
+    private static int getTimestamp(int sequence) {
+        return sequence * 3600;
+    }
+
+    /**
+     * Passes the packet {@code sequence} in the way the streamer does, with its payload in the
+     * writable region of the ring.
+     */
+    private void receive(int sequence) {
+        byte[] payload = createPayload(sequence);
+        mRing.putPending(0, payload, 0, payload.length);
+        mHeader.clear();
+        mHeader.put((byte) 0x80).put((byte) PAYLOAD_TYPE).putShort((short) sequence)
+                .putInt(getTimestamp(sequence)).putInt(SSRC);
+        mTransport.onPacket(mHeader, payload.length, System.nanoTime());
+        mRing.publish();
+    }
+
+    /**
+     * Passes the packets of the matrix from {@code base} which are not {@code lost}.
+     */
+    private void receiveMatrix(int base, Integer... lost) {
+        Set<Integer> lostSequences = new HashSet<>(Arrays.asList(lost));
+        for (int sequence = base; sequence < base + COLUMNS * ROWS; sequence++) {
+            if (!lostSequences.contains(sequence)) {
+                receive(sequence);
+            }
+        }
+    }
+
+    /**
+     * Passes the FEC packet which protects {@code count} packets from {@code base}, every
+     * {@code offset}, as SMPTE 2022-1 builds it.
+     */
+    private void receiveFec(int base, int offset, int count) {
+        int lengthRecovery = 0;
+        int timestampRecovery = 0;
+        byte[] payloadRecovery = new byte[MAX_PAYLOAD_SIZE];
+        int payloadLength = 0;
+        for (int i = 0; i < count; i++) {
+            int sequence = base + i * offset;
+            byte[] payload = createPayload(sequence);
+            lengthRecovery ^= payload.length;
+            timestampRecovery ^= getTimestamp(sequence);
+            for (int j = 0; j < payload.length; j++) {
+                payloadRecovery[j] ^= payload[j];
+            }
+            payloadLength = Math.max(payloadLength, payload.length);
+        }
+        ByteBuffer packet = ByteBuffer.allocate(
+                RtpDepacketizer.FIXED_HEADER_SIZE + FEC_HEADER_SIZE + payloadLength);
+        packet.put((byte) 0x80).put((byte) 96).putShort((short) 0).putInt(0).putInt(0);
+        packet.putShort((short) base).putShort((short) lengthRecovery)
+                // All payload types are the same, so they cancel out.
+                .put((byte) 0x80).put((byte) 0).putShort((short) 0)
+                .putInt(timestampRecovery)
+                .put((byte) (offset == 1 ? 0x40 : 0)).put((byte) offset).put((byte) count)
+                .put((byte) 0);
+        packet.put(payloadRecovery, 0, payloadLength);
+        packet.flip();
+        mTransport.onFecPacket(packet);
+        mRing.publish();
+    }
+
+    private void receiveColumnFec(int base, int column) {
+        receiveFec(base + column, COLUMNS, ROWS);
+    }
+
+    private void receiveRowFec(int base, int row) {
+        receiveFec(base + row * COLUMNS, 1, COLUMNS);
+    }
+
+    private void expect(int from, int to) {
+        for (int sequence = from; sequence < to; sequence++) {
+            byte[] payload = createPayload(sequence);
+            mExpected.write(payload, 0, payload.length);
+        }
+    }
+
+    private void assertOutput() {
+        byte[] expected = mExpected.toByteArray();
+        assertEquals(expected.length, mRing.getWritePosition());
+        byte[] output = new byte[expected.length];
+        mRing.createReader().readAt(0, output, 0, output.length);
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void rowFec_recoversASingleLoss() {
+        receiveMatrix(100, 105);
+        receiveRowFec(100, 1);
+        expect(100, 116);
+        assertOutput();
+        assertEquals(1, mTransport.getPacketsRecovered());
+        assertEquals(0, mTransport.getPacketsLost());
+    }
+
+    @Test
+    public void columnFec_recoversABurst() {
+        // A whole row, which no row FEC packet can rebuild.
+        receiveMatrix(100, 104, 105, 106, 107);
+        receiveRowFec(100, 1);
+        for (int column = 0; column < COLUMNS; column++) {
+            receiveColumnFec(100, column);
+        }
+        expect(100, 116);
+        assertOutput();
+        assertEquals(4, mTransport.getPacketsRecovered());
+    }
+
+    @Test
+    public void bothDimensions_recoverWhatNeitherCanAlone() {
+        // Two losses in row 1 and two in column 1, whose FEC packets come first and wait.
+        receiveMatrix(100, 105, 106, 109);
+        receiveRowFec(100, 1);
+        receiveColumnFec(100, 1);
+        receiveColumnFec(100, 2);
+        expect(100, 116);
+        assertOutput();
+        assertEquals(3, mTransport.getPacketsRecovered());
+    }
+
+    @Test
+    public void lastPacket_waitsForALaterOne() {
+        // Whether the newest packet is lost or late is only known when a later one arrives.
+        receiveMatrix(100, 115);
+        receiveRowFec(100, 3);
+        expect(100, 115);
+        assertOutput();
+        receive(116);
+        expect(115, 117);
+        assertOutput();
+        assertEquals(1, mTransport.getPacketsRecovered());
+    }
+
+    @Test
+    public void acrossTheWrap() {
+        // The second row runs from 65534 to 1.
+        int base = 65536 - 6;
+        receiveMatrix(base, 65533, 65536);
+        receiveRowFec(base, 0);
+        receiveRowFec(base, 1);
+        expect(base, base + COLUMNS * ROWS);
+        assertOutput();
+        assertEquals(2, mTransport.getPacketsRecovered());
+    }
+
+    @Test
+    public void tooManyLosses_areLost() {
+        // A square of four losses leaves two missing in every row and column it touches.
+        receiveMatrix(100, 105, 106, 109, 110);
+        receiveRowFec(100, 1);
+        receiveRowFec(100, 2);
+        receiveColumnFec(100, 1);
+        receiveColumnFec(100, 2);
+        assertEquals(0, mTransport.getPacketsRecovered());
+        // Until the reorder window gives up on them.
+        for (int sequence = 116; sequence < 116 + WINDOW_SIZE; sequence++) {
+            receive(sequence);
+        }
+        expect(100, 105);
+        expect(107, 109);
+        expect(111, 116 + WINDOW_SIZE);
+        assertOutput();
+        assertEquals(4, mTransport.getPacketsLost());
+    }
+}
@@ -0,0 +1,601 @@
+package com.peyo.rtptvinput.source;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-test tool which sends transport streams as paced RTP, the way a headend does, so that
+ * ingest, fan-out and recording can be exercised without one. It is not part of the app, and runs
+ * on the plain JVM build:
+ * <pre>
+ * gradle -p jvm replay \
+ *     --args='--channels 4 --address 239.0.0.1 --port 1234 --loss 0.1 --jitter 20 recording.ts'
+ * </pre>
+ * Each channel goes to the next address, and plays the next file if several are given. Without
+ * a file, a synthetic stream with a PAT, a PMT, PCRs and a key frame every second is sent.
+ * Datagrams carry 7 TS packets behind a 12-byte RTP header, as {@link RtpStreamer} expects for
+ * an {@code rtp://} stream, or without a header with {@code --raw} for a {@code udp://} one.
+ * </p>
+ * Loss and reorder are percentages of the datagrams. Jitter delays each datagram by up to the
+ * given milliseconds without reordering, as on a queueing network path. {@code --fec 10x5} adds
+ * SMPTE 2022-1 FEC over matrices of 10 columns and 5 rows, the column FEC to the media port + 2
+ * and the row FEC to the media port + 4. The FEC itself is not impaired.
+ */
+public class RtpReplaySender {
+    private static final int TS_PACKET_SIZE = TsPacketAligner.PACKET_SIZE;
+    private static final int TS_PACKETS_PER_DATAGRAM = 7;
+    private static final int PAYLOAD_SIZE = TS_PACKET_SIZE * TS_PACKETS_PER_DATAGRAM;
+    private static final int RTP_HEADER_SIZE = RtpDepacketizer.FIXED_HEADER_SIZE;
+    // MPEG-2 transport stream (RFC 3551).
+    private static final int PAYLOAD_TYPE_MP2T = 33;
+    private static final long DEFAULT_BITRATE = 20 * 1000 * 1000;
+    // How much of a file is looked at to estimate its bitrate from the PCR.
+    private static final int BITRATE_PROBE_SIZE = 32 * 1024 * 1024;
+    private static final long REPORT_INTERVAL_MS = 5000;
+
+    private String mAddress = "239.0.0.1";
+    private int mPort = 1234;
+    private int mChannelCount = 1;
+    private long mBitrate;
+    private double mLossPercent;
+    private double mReorderPercent;
+    private long mJitterMs;
+    private int mTtl = 1;
+    private String mInterface;
+    private boolean mLoop = true;
+    private boolean mRaw;
+    private long mSeed = System.nanoTime();
+    private int mFecColumns;
+    private int mFecRows;
+    private final List<File> mFiles = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        RtpReplaySender sender = new RtpReplaySender();
+        try {
+            sender.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: RtpReplaySender [--channels n] [--address ip] [--port n]"
+                    + " [--bitrate bps] [--loss %] [--reorder %] [--jitter ms] [--ttl n]"
+                    + " [--interface name] [--once] [--raw] [--fec columnsxrows] [--seed n]"
+                    + " [file.ts...]");
+            System.exit(2);
+        }
+        sender.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                mFiles.add(new File(arg));
+                continue;
+            }
+            if (arg.equals("--once")) {
+                mLoop = false;
+                continue;
+            }
+            if (arg.equals("--raw")) {
+                mRaw = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--channels":
+                        mChannelCount = Integer.parseInt(value);
+                        break;
+                    case "--address":
+                        mAddress = value;
+                        break;
+                    case "--port":
+                        mPort = Integer.parseInt(value);
+                        break;
+                    case "--bitrate":
+                        mBitrate = Long.parseLong(value);
+                        break;
+                    case "--loss":
+                        mLossPercent = Double.parseDouble(value);
+                        break;
+                    case "--reorder":
+                        mReorderPercent = Double.parseDouble(value);
+                        break;
+                    case "--jitter":
+                        mJitterMs = Long.parseLong(value);
+                        break;
+                    case "--ttl":
+                        mTtl = Integer.parseInt(value);
+                        break;
+                    case "--interface":
+                        mInterface = value;
+                        break;
+                    case "--seed":
+                        mSeed = Long.parseLong(value);
+                        break;
+                    case "--fec":
+                        String[] matrix = value.split("x");
+                        if (matrix.length != 2) {
+                            throw new NumberFormatException();
+                        }
+                        mFecColumns = Integer.parseInt(matrix[0]);
+                        mFecRows = Integer.parseInt(matrix[1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value of " + arg + ": " + value);
+            }
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        byte[] baseAddress = InetAddress.getByName(mAddress).getAddress();
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < mChannelCount; i++) {
+            byte[] address = baseAddress.clone();
+            address[address.length - 1] += i;
+            File file = mFiles.isEmpty() ? null : mFiles.get(i % mFiles.size());
+            Channel channel = new Channel(i, new InetSocketAddress(
+                    InetAddress.getByAddress(address), mPort), file, new Random(mSeed + i));
+            channels.add(channel);
+        }
+        for (Channel channel : channels) {
+            channel.start();
+        }
+        while (true) {
+            boolean running = false;
+            for (Channel channel : channels) {
+                channel.join(REPORT_INTERVAL_MS / channels.size());
+                running |= channel.isAlive();
+            }
+            for (Channel channel : channels) {
+                System.out.println(channel.getReport());
+            }
+            if (!running) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Estimates the bitrate of a transport stream file from the PCR of its first random access
+     * points.
+     */
+    private static long estimateBitrate(File file) throws IOException {
+        final long[] firstPoint = { -1, 0 };
+        final long[] lastPoint = { -1, 0 };
+        TsParser parser = new TsParser(new TsParser.Listener() {
+            @Override
+            public void onRandomAccessPoint(long timeUs, long position) {
+                if (firstPoint[0] < 0) {
+                    firstPoint[0] = timeUs;
+                    firstPoint[1] = position;
+                }
+                lastPoint[0] = timeUs;
+                lastPoint[1] = position;
+            }
+        });
+        byte[] data = new byte[TS_PACKET_SIZE * 1024];
+        long position = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            while (position < BITRATE_PROBE_SIZE) {
+                int length = readFully(in, data);
+                if (length < TS_PACKET_SIZE) {
+                    break;
+                }
+                parser.parse(ByteBuffer.wrap(data, 0, length), position);
+                position += length;
+            }
+        }
+        long durationUs = lastPoint[0] - firstPoint[0];
+        if (firstPoint[0] < 0 || durationUs <= 0) {
+            return DEFAULT_BITRATE;
+        }
+        return (lastPoint[1] - firstPoint[1]) * 8 * TimeUnit.SECONDS.toMicros(1) / durationUs;
+    }
+
+    /**
+     * Reads whole TS packets until {@code data} is full or the stream ends.
+     */
+    private static int readFully(InputStream in, byte[] data) throws IOException {
+        int length = 0;
+        while (length < data.length) {
+            int read = in.read(data, length, data.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length - length % TS_PACKET_SIZE;
+    }
+
+    private class Channel extends Thread {
+        private final int mIndex;
+        private final InetSocketAddress mDestination;
+        private final File mFile;
+        private final Random mRandom;
+        private final int mSsrc;
+        private final FecEncoder mFecEncoder;
+        private final byte[] mHeldDatagram = new byte[RTP_HEADER_SIZE + PAYLOAD_SIZE];
+        private int mHeldLength;
+        private int mSequence;
+        private long mStartNs;
+        private long mLastSendNs;
+        private volatile long mSentCount;
+        private volatile long mDroppedCount;
+        private volatile long mReorderedCount;
+        private volatile long mBytesSent;
+
+        Channel(int index, InetSocketAddress destination, File file, Random random) {
+            super("RtpReplaySender-" + index);
+            mIndex = index;
+            mDestination = destination;
+            mFile = file;
+            mRandom = random;
+            mSsrc = random.nextInt();
+            mSequence = random.nextInt(1 << 16);
+            mFecEncoder = mFecColumns > 0 && mFecRows > 0 && !mRaw
+                    ? new FecEncoder(mFecColumns, mFecRows,
+                            new InetSocketAddress(destination.getAddress(),
+                                    destination.getPort() + 2),
+                            new InetSocketAddress(destination.getAddress(),
+                                    destination.getPort() + 4))
+                    : null;
+        }
+
+        @Override
+        public void run() {
+            try (MulticastSocket socket = new MulticastSocket()) {
+                socket.setTimeToLive(mTtl);
+                // So that receivers on this host get the stream too.
+                socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+                if (mInterface != null) {
+                    socket.setNetworkInterface(NetworkInterface.getByName(mInterface));
+                }
+                long bitrate = mBitrate > 0 ? mBitrate
+                        : mFile != null ? estimateBitrate(mFile) : DEFAULT_BITRATE;
+                System.out.println("Channel " + mIndex + " to " + mDestination + " at "
+                        + bitrate + " bps from " + (mFile != null ? mFile : "a synthetic stream"));
+                mStartNs = System.nanoTime();
+                if (mFile != null) {
+                    do {
+                        replayFile(socket, bitrate);
+                    } while (mLoop);
+                } else {
+                    sendSyntheticStream(socket, bitrate);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void replayFile(MulticastSocket socket, long bitrate)
+                throws IOException, InterruptedException {
+            byte[] payload = new byte[PAYLOAD_SIZE];
+            try (InputStream in = new FileInputStream(mFile)) {
+                int length;
+                while ((length = readFully(in, payload)) > 0) {
+                    send(socket, payload, length, bitrate);
+                }
+            }
+        }
+
+        private void sendSyntheticStream(MulticastSocket socket, long bitrate)
+                throws IOException, InterruptedException {
+            SyntheticStream stream = new SyntheticStream(bitrate);
+            byte[] payload = new byte[PAYLOAD_SIZE];
+            while (true) {
+                for (int i = 0; i < TS_PACKETS_PER_DATAGRAM; i++) {
+                    stream.nextPacket(payload, i * TS_PACKET_SIZE);
+                }
+                send(socket, payload, PAYLOAD_SIZE, bitrate);
+            }
+        }
+
+        /**
+         * Sends a datagram when it is due at {@code bitrate}, with the impairments applied.
+         */
+        private void send(MulticastSocket socket, byte[] payload, int length, long bitrate)
+                throws IOException, InterruptedException {
+            long dueNs = mStartNs + mBytesSent * 8 * TimeUnit.SECONDS.toNanos(1) / bitrate;
+            if (mJitterMs > 0) {
+                dueNs += (long) (mRandom.nextDouble() * TimeUnit.MILLISECONDS.toNanos(mJitterMs));
+            }
+            // A queue delays the datagrams behind a late one, it does not reorder them.
+            dueNs = Math.max(dueNs, mLastSendNs);
+            long waitNs = dueNs - System.nanoTime();
+            if (waitNs > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNs);
+            }
+            mLastSendNs = dueNs;
+            mBytesSent += length;
+
+            int headerSize = mRaw ? 0 : RTP_HEADER_SIZE;
+            byte[] datagram = new byte[headerSize + length];
+            if (!mRaw) {
+                writeHeader(datagram, dueNs);
+            }
+            System.arraycopy(payload, 0, datagram, headerSize, length);
+            mSequence = (mSequence + 1) & 0xffff;
+            if (mFecEncoder != null) {
+                mFecEncoder.add(socket, datagram);
+            }
+            if (mRandom.nextDouble() * 100 < mLossPercent) {
+                mDroppedCount++;
+                return;
+            }
+            if (mHeldLength == 0 && mRandom.nextDouble() * 100 < mReorderPercent) {
+                // Sent after the next datagram.
+                System.arraycopy(datagram, 0, mHeldDatagram, 0, datagram.length);
+                mHeldLength = datagram.length;
+                mReorderedCount++;
+                return;
+            }
+            sendDatagram(socket, datagram, datagram.length);
+            if (mHeldLength > 0) {
+                sendDatagram(socket, mHeldDatagram, mHeldLength);
+                mHeldLength = 0;
+            }
+        }
+
+        private void writeHeader(byte[] datagram, long sendNs) {
+            long timestamp = (sendNs - mStartNs) / 1000 * 9 / 100;
+            ByteBuffer header = ByteBuffer.wrap(datagram, 0, RTP_HEADER_SIZE);
+            header.put((byte) 0x80);
+            header.put((byte) PAYLOAD_TYPE_MP2T);
+            header.putShort((short) mSequence);
+            header.putInt((int) timestamp);
+            header.putInt(mSsrc);
+        }
+
+        private void sendDatagram(MulticastSocket socket, byte[] datagram, int length)
+                throws IOException {
+            socket.send(new DatagramPacket(datagram, length, mDestination));
+            mSentCount++;
+        }
+
+        String getReport() {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNs);
+            return "Channel " + mIndex + " sent=" + mSentCount + " dropped=" + mDroppedCount
+                    + " reordered=" + mReorderedCount + " bps="
+                    + (elapsedMs > 0 ? mBytesSent * 8 * 1000 / elapsedMs : 0);
+        }
+    }
+
+    /**
+     * Computes the column and row FEC of SMPTE 2022-1 over the media packets, which XOR the
+     * payloads, their lengths, payload types and timestamps of each column and row of a matrix.
+     */
+    private static class FecEncoder {
+        private static final int FEC_HEADER_SIZE = 16;
+        private static final int PAYLOAD_TYPE_FEC = 96;
+
+        private final int mColumns;
+        private final int mRows;
+        private final InetSocketAddress mColumnDestination;
+        private final InetSocketAddress mRowDestination;
+        private final Group[] mColumnGroups;
+        private final Group mRowGroup = new Group();
+        private int mIndex;
+        private int mColumnSequence;
+        private int mRowSequence;
+
+        FecEncoder(int columns, int rows, InetSocketAddress columnDestination,
+                InetSocketAddress rowDestination) {
+            mColumns = columns;
+            mRows = rows;
+            mColumnDestination = columnDestination;
+            mRowDestination = rowDestination;
+            mColumnGroups = new Group[columns];
+            for (int i = 0; i < columns; i++) {
+                mColumnGroups[i] = new Group();
+            }
+        }
+
+        /**
+         * Adds the next media packet, and sends the FEC of the row or the matrix it completes.
+         */
+        void add(MulticastSocket socket, byte[] packet) throws IOException {
+            int column = mIndex % mColumns;
+            if (column == 0) {
+                mRowGroup.clear();
+            }
+            if (mIndex < mColumns) {
+                mColumnGroups[column].clear();
+            }
+            mRowGroup.add(packet);
+            mColumnGroups[column].add(packet);
+            if (column == mColumns - 1) {
+                send(socket, mRowGroup, 1, mColumns, true, mRowSequence++, mRowDestination);
+            }
+            if (++mIndex == mColumns * mRows) {
+                for (Group group : mColumnGroups) {
+                    send(socket, group, mColumns, mRows, false, mColumnSequence++,
+                            mColumnDestination);
+                }
+                mIndex = 0;
+            }
+        }
+
+        private static void send(MulticastSocket socket, Group group, int offset, int count,
+                boolean row, int sequence, InetSocketAddress destination) throws IOException {
+            ByteBuffer packet = ByteBuffer.allocate(
+                    RTP_HEADER_SIZE + FEC_HEADER_SIZE + group.mPayloadLength);
+            packet.put((byte) 0x80);
+            packet.put((byte) PAYLOAD_TYPE_FEC);
+            packet.putShort((short) sequence);
+            packet.putInt(group.mTimestampRecovery);
+            packet.putInt(0);
+            packet.putShort((short) group.mSequenceBase);
+            packet.putShort((short) group.mLengthRecovery);
+            packet.put((byte) (0x80 | group.mPayloadTypeRecovery));
+            packet.put(new byte[3]); // mask
+            packet.putInt(group.mTimestampRecovery);
+            packet.put((byte) (row ? 0x40 : 0x00));
+            packet.put((byte) offset);
+            packet.put((byte) count);
+            packet.put((byte) 0); // SNBase extension
+            packet.put(group.mPayload, 0, group.mPayloadLength);
+            socket.send(new DatagramPacket(packet.array(), packet.position(), destination));
+        }
+
+        private static class Group {
+            final byte[] mPayload = new byte[PAYLOAD_SIZE];
+            int mPayloadLength;
+            int mSequenceBase = -1;
+            int mLengthRecovery;
+            int mPayloadTypeRecovery;
+            int mTimestampRecovery;
+
+            void clear() {
+                Arrays.fill(mPayload, (byte) 0);
+                mPayloadLength = 0;
+                mSequenceBase = -1;
+                mLengthRecovery = 0;
+                mPayloadTypeRecovery = 0;
+                mTimestampRecovery = 0;
+            }
+
+            void add(byte[] packet) {
+                ByteBuffer header = ByteBuffer.wrap(packet, 0, RTP_HEADER_SIZE);
+                if (mSequenceBase < 0) {
+                    mSequenceBase = header.getShort(2) & 0xffff;
+                }
+                int length = packet.length - RTP_HEADER_SIZE;
+                mLengthRecovery ^= length;
+                mPayloadTypeRecovery ^= packet[1] & 0x7f;
+                mTimestampRecovery ^= header.getInt(4);
+                for (int i = 0; i < length; i++) {
+                    mPayload[i] ^= packet[RTP_HEADER_SIZE + i];
+                }
+                mPayloadLength = Math.max(mPayloadLength, length);
+            }
+        }
+    }
+
+    /**
+     * Generates a single program stream with a video PID carrying the PCR. Every second starts
+     * with a PAT, a PMT and a PES flagged as a random access point, whose payload begins with an
+     * H.264 IDR NAL unit.
+     */
+    private static class SyntheticStream {
+        private static final int PMT_PID = 0x100;
+        private static final int VIDEO_PID = 0x101;
+        private static final int STREAM_TYPE_H264 = 0x1b;
+        private static final int PCR_INTERVAL_MS = 40;
+
+        private final long mPacketsPerSecond;
+        private final long mPacketsPerPcr;
+        private final byte[] mPat;
+        private final byte[] mPmt;
+        private long mPacketCount;
+        private int mPatContinuity;
+        private int mPmtContinuity;
+        private int mVideoContinuity;
+
+        SyntheticStream(long bitrate) {
+            mPacketsPerSecond = Math.max(1, bitrate / 8 / TS_PACKET_SIZE);
+            mPacketsPerPcr = Math.max(1, mPacketsPerSecond * PCR_INTERVAL_MS / 1000);
+            mPat = createSection(0x00, 1, new byte[] {
+                    0x00, 0x01, (byte) (0xe0 | PMT_PID >> 8), (byte) PMT_PID });
+            mPmt = createSection(0x02, 1, new byte[] {
+                    (byte) (0xe0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xf0, 0x00,
+                    STREAM_TYPE_H264, (byte) (0xe0 | VIDEO_PID >> 8), (byte) VIDEO_PID,
+                    (byte) 0xf0, 0x00 });
+        }
+
+        void nextPacket(byte[] data, int offset) {
+            long packet = mPacketCount++ % mPacketsPerSecond;
+            if (packet == 0) {
+                writeSection(data, offset, 0, mPatContinuity++, mPat);
+            } else if (packet == 1) {
+                writeSection(data, offset, PMT_PID, mPmtContinuity++, mPmt);
+            } else {
+                writeVideo(data, offset, packet == 2, packet == 2 || packet % mPacketsPerPcr == 0);
+            }
+        }
+
+        private void writeSection(byte[] data, int offset, int pid, int continuity,
+                byte[] section) {
+            writeHeader(data, offset, pid, true, 0x01, continuity);
+            data[offset + 4] = 0; // pointer_field
+            System.arraycopy(section, 0, data, offset + 5, section.length);
+            for (int i = offset + 5 + section.length; i < offset + TS_PACKET_SIZE; i++) {
+                data[i] = (byte) 0xff;
+            }
+        }
+
+        private void writeVideo(byte[] data, int offset, boolean keyFrame, boolean pcr) {
+            writeHeader(data, offset, VIDEO_PID, keyFrame, pcr ? 0x03 : 0x01,
+                    mVideoContinuity++);
+            int payload = offset + 4;
+            if (pcr) {
+                data[payload] = 7; // adaptation_field_length
+                data[payload + 1] = (byte) (keyFrame ? 0x50 : 0x10);
+                long base = mPacketCount * 90000 / mPacketsPerSecond;
+                data[payload + 2] = (byte) (base >> 25);
+                data[payload + 3] = (byte) (base >> 17);
+                data[payload + 4] = (byte) (base >> 9);
+                data[payload + 5] = (byte) (base >> 1);
+                data[payload + 6] = (byte) ((base << 7) | 0x7e);
+                data[payload + 7] = 0;
+                payload += 8;
+            }
+            for (int i = payload; i < offset + TS_PACKET_SIZE; i++) {
+                data[i] = 0;
+            }
+            if (keyFrame) {
+                // PES header without a PTS, then an IDR slice NAL unit.
+                byte[] pes = { 0x00, 0x00, 0x01, (byte) 0xe0, 0x00, 0x00, (byte) 0x80, 0x00,
+                        0x00, 0x00, 0x00, 0x01, 0x65 };
+                System.arraycopy(pes, 0, data, payload, pes.length);
+            }
+        }
+
+        private static void writeHeader(byte[] data, int offset, int pid, boolean unitStart,
+                int adaptationFieldControl, int continuity) {
+            data[offset] = TsPacketAligner.SYNC_BYTE;
+            data[offset + 1] = (byte) ((unitStart ? 0x40 : 0) | (pid >> 8));
+            data[offset + 2] = (byte) pid;
+            data[offset + 3] = (byte) ((adaptationFieldControl << 4) | (continuity & 0x0f));
+        }
+
+        /**
+         * Returns a PSI section of {@code tableId} around {@code body}, for a PAT the program
+         * loop and for a PMT everything after the program number and version.
+         */
+        private static byte[] createSection(int tableId, int tableIdExtension, byte[] body) {
+            int length = 5 + body.length + 4;
+            ByteBuffer section = ByteBuffer.allocate(3 + length);
+            section.put((byte) tableId);
+            section.putShort((short) (0xb000 | length));
+            section.putShort((short) tableIdExtension);
+            section.put((byte) 0xc1); // current_next_indicator
+            section.put((byte) 0); // section_number
+            section.put((byte) 0); // last_section_number
+            section.put(body);
+            section.putInt((int) TsParser.crc32Mpeg(section.array(), 0, section.position()));
+            return section.array();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+public class TimeShiftBufferTest {
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 7 * TsStreamGenerator.PACKET_SIZE;
+    // Less than the pool of the buffer, so that nothing is dropped.
+    private static final long MAX_QUEUED_BYTES = 1024 * 1024;
+    private static final long TIMEOUT_MS = 10000;
+    private static final long START_POSITION = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+    private TimeShiftBuffer mBuffer;
+    private long mPosition = START_POSITION;
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = new File(mFolder.getRoot(), "stream");
+        mBuffer = new TimeShiftBuffer(mDirectory, 2L * SEGMENT_SIZE, START_POSITION);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mBuffer.release();
+        awaitNoFiles();
+    }
+
+    private static byte getByte(long position) {
+        return (byte) (position * 31 + position / 4093);
+    }
+
+    /**
+     * Appends the stream up to {@code position} the way the ingest thread does, at the pace of
+     * the storage.
+     */
+    private void append(long position) throws Exception {
+        while (mPosition < position) {
+            int length = (int) Math.min(CHUNK_SIZE, position - mPosition);
+            for (int i = 0; i < length; i++) {
+                mChunk[i] = getByte(mPosition + i);
+            }
+            mBuffer.onData(ByteBuffer.wrap(mChunk, 0, length));
+            mPosition += length;
+            awaitWritePosition(mPosition - MAX_QUEUED_BYTES);
+        }
+    }
+
+    private void awaitWritePosition(long position) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mBuffer.getWritePosition() < position) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitNoFiles() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mDirectory.list() != null && mDirectory.list().length > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void assertReadable(long position, int amount) {
+        byte[] expected = new byte[amount];
+        for (int i = 0; i < amount; i++) {
+            expected[i] = getByte(position + i);
+        }
+        byte[] data = new byte[amount];
+        assertEquals(amount, mBuffer.readAt(position, data, 0, amount));
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    public void readAt_whatWasWritten() throws Exception {
+        // Written in whole buffers, the last one of which is still being filled.
+        append(START_POSITION + 4 * 1024 * 1024 + 1000);
+        awaitWritePosition(START_POSITION + 4 * 1024 * 1024);
+        assertEquals(START_POSITION, mBuffer.getStartPosition());
+        assertReadable(START_POSITION, 100000);
+        assertReadable(START_POSITION + 1024 * 1024 - 10, 20);
+        assertEquals(START_POSITION + 4 * 1024 * 1024, mBuffer.getWritePosition());
+        assertEquals(-1, mBuffer.readAt(mBuffer.getWritePosition() - 10, new byte[20], 0, 20));
+        assertEquals(-1, mBuffer.readAt(START_POSITION - 1, new byte[20], 0, 20));
+    }
+
+    @Test
+    public void readAt_acrossSegments() throws Exception {
+        append(SEGMENT_SIZE + 2 * 1024 * 1024);
+        awaitWritePosition(SEGMENT_SIZE + 1024 * 1024);
+        assertReadable(SEGMENT_SIZE - 5000, 10000);
+        assertTrue(new File(mDirectory, "0.ts").isFile());
+        assertTrue(new File(mDirectory, "1.ts").isFile());
+    }
+
+    @Test
+    public void window_rollsOver() throws Exception {
+        append(3L * SEGMENT_SIZE + 2 * 1024 * 1024);
+        awaitWritePosition(3L * SEGMENT_SIZE + 1024 * 1024);
+        // The segments which are entirely older than the window are deleted.
+        assertEquals(2L * SEGMENT_SIZE, mBuffer.getStartPosition());
+        assertFalse(new File(mDirectory, "0.ts").exists());
+        assertFalse(new File(mDirectory, "1.ts").exists());
+        assertEquals(-1, mBuffer.readAt(2L * SEGMENT_SIZE - 10, new byte[20], 0, 20));
+        assertReadable(2L * SEGMENT_SIZE, 10000);
+    }
+
+    @Test
+    public void getTimeShiftDirectory_ofEachStream() {
+        File program1 = RtpStreamer.getTimeShiftDirectory(
+                Uri.parse("rtp://239.0.0.1:5000?program=1"));
+        File program2 = RtpStreamer.getTimeShiftDirectory(
+                Uri.parse("rtp://239.0.0.1:5000?program=2"));
+        assertNotEquals(program1, program2);
+        assertEquals(program1, RtpStreamer.getTimeShiftDirectory(
+                Uri.parse("rtp://239.0.0.1:5000?program=1")));
+    }
+}
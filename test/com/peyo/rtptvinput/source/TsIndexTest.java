@@ -0,0 +1,98 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+public class TsIndexTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mRecording;
+
+    @Before
+    public void setUp() throws Exception {
+        mRecording = mFolder.newFile("recording.ts");
+    }
+
+    private void write(long... entries) throws Exception {
+        TsIndex.Writer writer = new TsIndex.Writer(mRecording);
+        for (int i = 0; i < entries.length; i += 2) {
+            writer.add(entries[i], entries[i + 1]);
+        }
+        writer.close();
+    }
+
+    @Test
+    public void getIndexFile_replacesTheExtension() {
+        assertEquals(new File(mFolder.getRoot(), "recording.idx"),
+                TsIndex.getIndexFile(mRecording));
+        assertEquals(new File(mFolder.getRoot(), "recording.mp2.idx"),
+                TsIndex.getIndexFile(new File(mFolder.getRoot(), "recording.mp2")));
+    }
+
+    @Test
+    public void read_returnsTheEntries() throws Exception {
+        write(0, 0, 1000, 18800, 2000, 37600);
+        TsIndex index = TsIndex.read(mRecording);
+        assertEquals(3, index.size());
+        assertEquals(1000, index.getTimeMs(1));
+        assertEquals(18800, index.getPosition(1));
+        assertEquals(2000, index.getTimeMs(2));
+        assertEquals(37600, index.getPosition(2));
+    }
+
+    @Test
+    public void add_skipsEntriesWhichDoNotMoveForward() throws Exception {
+        write(0, 0, 1000, 18800, 1000, 20000, 500, 30000, 2000, 37600);
+        TsIndex index = TsIndex.read(mRecording);
+        assertEquals(3, index.size());
+        assertEquals(18800, index.getPosition(1));
+        assertEquals(2000, index.getTimeMs(2));
+    }
+
+    @Test
+    public void findEntry() throws Exception {
+        write(1000, 0, 2000, 18800, 3000, 37600);
+        TsIndex index = TsIndex.read(mRecording);
+        // Before the first entry, there is nothing better than it.
+        assertEquals(0, index.findEntry(0));
+        assertEquals(0, index.findEntry(1000));
+        assertEquals(0, index.findEntry(1999));
+        assertEquals(1, index.findEntry(2000));
+        assertEquals(1, index.findEntry(2500));
+        assertEquals(2, index.findEntry(3000));
+        assertEquals(2, index.findEntry(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void read_ofATruncatedFile_keepsTheWholeEntries() throws Exception {
+        write(0, 0, 1000, 18800, 2000, 37600);
+        File file = TsIndex.getIndexFile(mRecording);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(file.length() - 5);
+        }
+        TsIndex index = TsIndex.read(mRecording);
+        assertEquals(2, index.size());
+        assertEquals(18800, index.getPosition(1));
+    }
+
+    @Test
+    public void read_withoutAUsableIndex() throws Exception {
+        assertNull(TsIndex.read(mRecording));
+        write();
+        assertNull(TsIndex.read(mRecording));
+        try (FileOutputStream out = new FileOutputStream(TsIndex.getIndexFile(mRecording))) {
+            out.write(new byte[24]);
+        }
+        assertNull(TsIndex.read(mRecording));
+    }
+}
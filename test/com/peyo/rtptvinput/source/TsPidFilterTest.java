@@ -0,0 +1,125 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class TsPidFilterTest {
+    private static final int PACKET_SIZE = TsStreamGenerator.PACKET_SIZE;
+    private static final int PROGRAM_COUNT = 3;
+
+    private final TsStreamGenerator mGenerator = new TsStreamGenerator(PROGRAM_COUNT);
+    private final ByteArrayOutputStream mInput = new ByteArrayOutputStream();
+
+    /**
+     * Writes the input through a ring filtered for {@code programNumber}, a datagram at a time
+     * as the streamer does, and returns what the ring kept.
+     */
+    private byte[] filter(int programNumber) throws Exception {
+        RingBuffer ring = new RingBuffer(RingBuffer.allocate(RingBuffer.STORAGE_HEAP, 1024 * 1024),
+                TsStreamGenerator.PACKETS_PER_DATAGRAM * PACKET_SIZE);
+        ring.setFilter(new TsPidFilter(programNumber));
+        byte[] input = mInput.toByteArray();
+        int datagramSize = TsStreamGenerator.PACKETS_PER_DATAGRAM * PACKET_SIZE;
+        for (int offset = 0; offset < input.length; offset += datagramSize) {
+            ring.write(input, offset, Math.min(datagramSize, input.length - offset));
+            ring.publish();
+        }
+        byte[] output = new byte[(int) ring.getWritePosition()];
+        ring.createReader().readAt(0, output, 0, output.length);
+        return output;
+    }
+
+    private void addFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            byte[] frame = mGenerator.nextFrame();
+            mInput.write(frame, 0, frame.length);
+        }
+    }
+
+    private static int getPid(byte[] data, int packet) {
+        return ((data[packet + 1] & 0x1f) << 8) | (data[packet + 2] & 0xff);
+    }
+
+    private static Set<Integer> getPids(byte[] data) {
+        Set<Integer> pids = new TreeSet<>();
+        for (int packet = 0; packet < data.length; packet += PACKET_SIZE) {
+            pids.add(getPid(data, packet));
+        }
+        return pids;
+    }
+
+    private static Set<Integer> setOf(int... pids) {
+        Set<Integer> set = new TreeSet<>();
+        for (int pid : pids) {
+            set.add(pid);
+        }
+        return set;
+    }
+
+    @Test
+    public void keepsTheProgram() throws Exception {
+        addFrames(TsStreamGenerator.FRAMES_PER_SECOND + 1);
+        byte[] output = filter(2);
+        assertEquals(setOf(TsParser.PAT_PID, TsStreamGenerator.getPmtPid(2),
+                TsStreamGenerator.getVideoPid(2)), getPids(output));
+        // Two PATs, two PMTs and the video of every frame.
+        assertEquals(2 + 2 + (TsStreamGenerator.FRAMES_PER_SECOND + 1)
+                * TsStreamGenerator.PACKETS_PER_FRAME, output.length / PACKET_SIZE);
+    }
+
+    @Test
+    public void rewritesThePat() throws Exception {
+        addFrames(1);
+        byte[] output = filter(2);
+        assertEquals(TsParser.PAT_PID, getPid(output, 0));
+        ByteBuffer packet = ByteBuffer.wrap(output, 0, PACKET_SIZE);
+        int section = TsParser.findSection(packet, 4, PACKET_SIZE, TsParser.TABLE_ID_PAT);
+        assertTrue(section >= 0);
+        int sectionEnd = TsParser.getSectionEnd(packet, section);
+        // A single program, with the PMT PID of the program.
+        assertEquals(section + 8 + 4, sectionEnd);
+        assertEquals(2, packet.getShort(section + 8));
+        assertEquals(TsStreamGenerator.getPmtPid(2), packet.getShort(section + 10) & 0x1fff);
+        // The CRC of a section and its CRC is 0 if the CRC is right.
+        assertEquals(0, TsParser.crc32Mpeg(output, section, sectionEnd + 4 - section));
+        for (int i = sectionEnd + 4; i < PACKET_SIZE; i++) {
+            assertEquals((byte) 0xff, output[i]);
+        }
+    }
+
+    @Test
+    public void missingProgram_keepsTheFirstOne() throws Exception {
+        addFrames(1);
+        byte[] output = filter(7);
+        assertEquals(setOf(TsParser.PAT_PID, TsStreamGenerator.getPmtPid(1),
+                TsStreamGenerator.getVideoPid(1)), getPids(output));
+    }
+
+    @Test
+    public void elementaryStreams_areDroppedUntilThePmt() throws Exception {
+        // Joined after the PAT and the PMTs, which come again with the next key frame.
+        mGenerator.nextFrame();
+        addFrames(TsStreamGenerator.FRAMES_PER_SECOND);
+        byte[] output = filter(2);
+        assertEquals(TsParser.PAT_PID, getPid(output, 0));
+        assertEquals(TsStreamGenerator.getPmtPid(2), getPid(output, PACKET_SIZE));
+        assertEquals(2 + TsStreamGenerator.PACKETS_PER_FRAME, output.length / PACKET_SIZE);
+    }
+
+    @Test
+    public void unalignedData_isKept() throws Exception {
+        addFrames(1);
+        byte[] input = mInput.toByteArray();
+        mInput.reset();
+        mInput.write(input, 1, input.length - 1);
+        assertArrayEquals(mInput.toByteArray(), filter(2));
+    }
+}
@@ -0,0 +1,238 @@
+package com.peyo.rtptvinput.source;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Generates a synthetic transport stream, and the RTP or UDP datagrams which carry it, for the
+ * tests and the benchmarks.
+ * </p>
+ * Program {@code n}, counted from 1, has its PMT on PID {@code n * 0x100} and an H.264 video
+ * stream carrying the PCR on the next PID. Each frame is {@link #PACKETS_PER_FRAME} packets of
+ * every program, at {@link #FRAMES_PER_SECOND}, and the first frame of every second is an IDR
+ * picture with the PAT and the PMTs in front of it.
+ */
+public class TsStreamGenerator {
+    public static final int PACKET_SIZE = 188;
+    public static final int PACKETS_PER_DATAGRAM = 7;
+    public static final int FRAMES_PER_SECOND = 25;
+    public static final int PACKETS_PER_FRAME = 20;
+    public static final int RTP_HEADER_SIZE = 12;
+    static final int NULL_PID = 0x1fff;
+    private static final byte SYNC_BYTE = 0x47;
+    private static final int PAT_PID = 0;
+    private static final int TABLE_ID_PAT = 0;
+    private static final int TABLE_ID_PMT = 2;
+    private static final int PAYLOAD_TYPE_MP2T = 33;
+    private static final int SSRC = 0x12345678;
+    private static final long PCR_PER_FRAME = 90000 / FRAMES_PER_SECOND;
+
+    private final int mProgramCount;
+    private final int[] mContinuityCounters = new int[NULL_PID + 1];
+    private final byte[] mPending = new byte[PACKETS_PER_DATAGRAM * PACKET_SIZE];
+    private byte[] mFrame = new byte[0];
+    private int mFrameOffset;
+    private long mFrameCount;
+    private int mSequence;
+
+    public TsStreamGenerator(int programCount) {
+        mProgramCount = programCount;
+    }
+
+    public static int getPmtPid(int programNumber) {
+        return programNumber * 0x100;
+    }
+
+    public static int getVideoPid(int programNumber) {
+        return programNumber * 0x100 + 1;
+    }
+
+    /**
+     * Sets the sequence number of the next RTP datagram.
+     */
+    public void setSequence(int sequence) {
+        mSequence = sequence & 0xffff;
+    }
+
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the TS packets of the next frame of every program.
+     */
+    public byte[] nextFrame() {
+        boolean keyFrame = mFrameCount % FRAMES_PER_SECOND == 0;
+        int packetCount = mProgramCount * PACKETS_PER_FRAME + (keyFrame ? 1 + mProgramCount : 0);
+        ByteBuffer frame = ByteBuffer.allocate(packetCount * PACKET_SIZE);
+        if (keyFrame) {
+            frame.put(createPat());
+            for (int program = 1; program <= mProgramCount; program++) {
+                frame.put(createPmt(program));
+            }
+        }
+        long pcr = mFrameCount * PCR_PER_FRAME;
+        for (int i = 0; i < PACKETS_PER_FRAME; i++) {
+            for (int program = 1; program <= mProgramCount; program++) {
+                frame.put(createVideoPacket(getVideoPid(program), i == 0, keyFrame && i == 0,
+                        i == 0 ? pcr : -1));
+            }
+        }
+        mFrameCount++;
+        return frame.array();
+    }
+
+    /**
+     * Fills {@code buffer} with the next whole TS packets of the stream, and returns how many
+     * bytes it put there.
+     */
+    public int nextPackets(byte[] buffer, int offset, int length) {
+        int written = 0;
+        while (written + PACKET_SIZE <= length) {
+            if (mFrameOffset == mFrame.length) {
+                mFrame = nextFrame();
+                mFrameOffset = 0;
+            }
+            System.arraycopy(mFrame, mFrameOffset, buffer, offset + written, PACKET_SIZE);
+            mFrameOffset += PACKET_SIZE;
+            written += PACKET_SIZE;
+        }
+        return written;
+    }
+
+    /**
+     * Returns the next datagram of {@link #PACKETS_PER_DATAGRAM} TS packets, behind an RTP
+     * header if {@code rtp}.
+     */
+    public byte[] nextDatagram(boolean rtp) {
+        int length = nextPackets(mPending, 0, mPending.length);
+        if (!rtp) {
+            return Arrays.copyOf(mPending, length);
+        }
+        byte[] datagram = createRtpPacket(mSequence, mFrameCount * PCR_PER_FRAME, SSRC,
+                mPending, 0, length);
+        mSequence = (mSequence + 1) & 0xffff;
+        return datagram;
+    }
+
+    /**
+     * Returns an RTP packet of MPEG-2 TS (RFC 2250) with a fixed header.
+     */
+    public static byte[] createRtpPacket(int sequence, long timestamp, int ssrc, byte[] payload,
+            int offset, int length) {
+        ByteBuffer packet = ByteBuffer.allocate(RTP_HEADER_SIZE + length);
+        packet.put((byte) 0x80);
+        packet.put((byte) PAYLOAD_TYPE_MP2T);
+        packet.putShort((short) sequence);
+        packet.putInt((int) timestamp);
+        packet.putInt(ssrc);
+        packet.put(payload, offset, length);
+        return packet.array();
+    }
+
+    public byte[] createPat() {
+        ByteBuffer body = ByteBuffer.allocate(4 * mProgramCount);
+        for (int program = 1; program <= mProgramCount; program++) {
+            body.putShort((short) program);
+            body.putShort((short) (0xe000 | getPmtPid(program)));
+        }
+        return createSectionPacket(PAT_PID, createSection(TABLE_ID_PAT, 1, body.array()));
+    }
+
+    public byte[] createPmt(int program) {
+        int videoPid = getVideoPid(program);
+        ByteBuffer body = ByteBuffer.allocate(9);
+        body.putShort((short) (0xe000 | videoPid));
+        body.putShort((short) 0xf000);
+        body.put((byte) 0x1b);
+        body.putShort((short) (0xe000 | videoPid));
+        body.putShort((short) 0xf000);
+        return createSectionPacket(getPmtPid(program),
+                createSection(TABLE_ID_PMT, program, body.array()));
+    }
+
+    /**
+     * Returns a PSI section with its CRC, version 0.
+     */
+    public static byte[] createSection(int tableId, int extension, byte[] body) {
+        int length = 5 + body.length + 4;
+        ByteBuffer section = ByteBuffer.allocate(3 + length);
+        section.put((byte) tableId);
+        section.putShort((short) (0xb000 | length));
+        section.putShort((short) extension);
+        section.put((byte) 0xc1);
+        section.put((byte) 0);
+        section.put((byte) 0);
+        section.put(body);
+        section.putInt((int) crc32Mpeg(section.array(), 0, section.position()));
+        return section.array();
+    }
+
+    /**
+     * Returns the CRC-32/MPEG-2 of a PSI section. It is computed here rather than by the code
+     * under test, so that the tests check that code against a CRC of their own.
+     */
+    public static long crc32Mpeg(byte[] data, int offset, int length) {
+        int crc = 0xffffffff;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xff) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = crc < 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+        }
+        return crc & 0xffffffffL;
+    }
+
+    /**
+     * Returns a packet which starts {@code section}, stuffed with 0xff.
+     */
+    public byte[] createSectionPacket(int pid, byte[] section) {
+        byte[] packet = createPacket(pid, true, false);
+        packet[4] = 0;
+        System.arraycopy(section, 0, packet, 5, section.length);
+        Arrays.fill(packet, 5 + section.length, PACKET_SIZE, (byte) 0xff);
+        return packet;
+    }
+
+    /**
+     * Returns a packet whose payload is filled with the low byte of its PID.
+     */
+    public byte[] createPacket(int pid, boolean unitStart, boolean adaptationField) {
+        byte[] packet = new byte[PACKET_SIZE];
+        Arrays.fill(packet, 4, PACKET_SIZE, (byte) pid);
+        packet[0] = SYNC_BYTE;
+        packet[1] = (byte) ((unitStart ? 0x40 : 0) | (pid >> 8));
+        packet[2] = (byte) pid;
+        packet[3] = (byte) ((adaptationField ? 0x30 : 0x10) | mContinuityCounters[pid]);
+        mContinuityCounters[pid] = (mContinuityCounters[pid] + 1) & 0x0f;
+        return packet;
+    }
+
+    private byte[] createVideoPacket(int pid, boolean unitStart, boolean keyFrame, long pcr) {
+        byte[] packet = createPacket(pid, unitStart, pcr >= 0);
+        int payloadStart = 4;
+        if (pcr >= 0) {
+            packet[4] = 7;
+            packet[5] = (byte) (0x10 | (keyFrame ? 0x40 : 0));
+            packet[6] = (byte) (pcr >> 25);
+            packet[7] = (byte) (pcr >> 17);
+            packet[8] = (byte) (pcr >> 9);
+            packet[9] = (byte) (pcr >> 1);
+            packet[10] = (byte) ((pcr & 1) << 7 | 0x7e);
+            packet[11] = 0;
+            payloadStart = 12;
+        }
+        if (unitStart) {
+            // PES header without optional fields, then an access unit delimiter and a slice.
+            byte[] pes = {0, 0, 1, (byte) 0xe0, 0, 0, (byte) 0x80, 0, 0,
+                    0, 0, 0, 1, 0x09, (byte) 0xf0,
+                    0, 0, 0, 1, (byte) (keyFrame ? 0x65 : 0x41)};
+            System.arraycopy(pes, 0, packet, payloadStart, pes.length);
+        }
+        return packet;
+    }
+}
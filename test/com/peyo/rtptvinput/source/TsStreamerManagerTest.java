@@ -0,0 +1,93 @@
+package com.peyo.rtptvinput.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class TsStreamerManagerTest {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final TsStreamerManager mManager = new TsStreamerManager();
+    private Uri mUri;
+
+    @Before
+    public void setUp() throws Exception {
+        // Nothing is sent, so the time-shift buffer is never opened.
+        mUri = Uri.parse(LoopbackSender.getUri(RtpStreamer.SCHEME_RTP,
+                LoopbackSender.findFreePort(), RtpStreamer.PARAM_BUFFER_SIZE + "=" + BUFFER_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        mManager.prepareStreamers(Collections.<Uri>emptyList());
+    }
+
+    private static RtpStreamer getStreamer(TsDataSource source) {
+        return ((RtpStreamer.RtpDataSource) source).getStreamer();
+    }
+
+    @Test
+    public void seek_whileTimeShifted() {
+        int sessionId = mManager.createSessionId();
+        TsDataSource source = mManager.createDataSource(mUri, sessionId, C.POSITION_UNSET);
+        RtpStreamer streamer = getStreamer(source);
+        assertTrue(streamer.isTimeShiftEnabled());
+
+        // A seek opens the source at the new position before the old one is closed.
+        TsDataSource seekSource = mManager.createDataSource(mUri, sessionId, 0);
+        assertSame(streamer, getStreamer(seekSource));
+        mManager.releaseDataSource(source, sessionId);
+        assertEquals(1, mManager.getMetrics().size());
+        assertTrue(streamer.isTimeShiftEnabled());
+
+        mManager.releaseDataSource(seekSource, sessionId);
+        assertEquals(0, mManager.getMetrics().size());
+    }
+
+    @Test
+    public void warmStreamer_isTimeShiftedOnlyWhileWatched() {
+        mManager.prepareStreamers(Collections.singletonList(mUri));
+        int sessionId = mManager.createSessionId();
+        TsDataSource source = mManager.createDataSource(mUri, sessionId, C.POSITION_UNSET);
+        RtpStreamer streamer = getStreamer(source);
+        assertTrue(streamer.isTimeShiftEnabled());
+
+        TsDataSource seekSource = mManager.createDataSource(mUri, sessionId, 0);
+        mManager.releaseDataSource(source, sessionId);
+        assertTrue(streamer.isTimeShiftEnabled());
+        mManager.releaseDataSource(seekSource, sessionId);
+        // Still warm, for the next tune.
+        assertEquals(1, mManager.getMetrics().size());
+        assertFalse(streamer.isTimeShiftEnabled());
+
+        mManager.prepareStreamers(Collections.<Uri>emptyList());
+        assertEquals(0, mManager.getMetrics().size());
+    }
+
+    @Test
+    public void sessions_shareAStreamer() {
+        int sessionId = mManager.createSessionId();
+        int otherSessionId = mManager.createSessionId();
+        TsDataSource source = mManager.createDataSource(mUri, sessionId, C.POSITION_UNSET);
+        TsDataSource otherSource =
+                mManager.createDataSource(mUri, otherSessionId, C.POSITION_UNSET);
+        assertSame(getStreamer(source), getStreamer(otherSource));
+        mManager.releaseDataSource(source, sessionId);
+        // Released twice, which must not take the source of the other session with it.
+        mManager.releaseDataSource(source, sessionId);
+        assertEquals(1, mManager.getMetrics().size());
+        mManager.releaseDataSource(otherSource, otherSessionId);
+        assertEquals(0, mManager.getMetrics().size());
+    }
+}
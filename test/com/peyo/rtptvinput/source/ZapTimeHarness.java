@@ -0,0 +1,215 @@
+package com.peyo.rtptvinput.source;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the channel change time of {@link TsStreamerManager}, cold and with the neighbouring
+ * channels kept warm, over loopback:
+ * <pre>
+ * gradle -p jvm zap --args='--channels 6 --zaps 20 --dwell 2000'
+ * </pre>
+ * Each channel is a synthetic stream with a key frame every second, sent in real time. A zap
+ * opens a data source of the next channel the way the player does, and takes until the first
+ * read returns data which decoding can start from: the first key frame for a cold stream, and
+ * the one already buffered for a warm one. Like the input service, the warm run tunes first and
+ * then warms the neighbours of the new channel in the background.
+ */
+public class ZapTimeHarness {
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long SEND_INTERVAL_MS = 5;
+
+    private int mChannelCount = 6;
+    private int mZapCount = 20;
+    private long mDwellMs = 2000;
+
+    private final List<Uri> mUris = new ArrayList<>();
+    private final List<LoopbackSender> mSenders = new ArrayList<>();
+    private Thread mSendThread;
+    private volatile boolean mSending;
+
+    public static void main(String[] args) throws Exception {
+        ZapTimeHarness harness = new ZapTimeHarness();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 == args.length) {
+                usage("Missing value of " + arg);
+            }
+            String value = args[++i];
+            if (arg.equals("--channels")) {
+                harness.mChannelCount = Integer.parseInt(value);
+            } else if (arg.equals("--zaps")) {
+                harness.mZapCount = Integer.parseInt(value);
+            } else if (arg.equals("--dwell")) {
+                harness.mDwellMs = Long.parseLong(value);
+            } else {
+                usage("Unknown option " + arg);
+            }
+        }
+        if (harness.mChannelCount < 3) {
+            usage("At least 3 channels are needed");
+        }
+        harness.run();
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: ZapTimeHarness [--channels n] [--zaps n] [--dwell ms]");
+        System.exit(2);
+    }
+
+    private void run() throws Exception {
+        startSending();
+        try {
+            long[] coldMs = zap(false);
+            long[] warmMs = zap(true);
+            System.out.println("cold: " + summarize(coldMs));
+            System.out.println("warm: " + summarize(warmMs));
+        } finally {
+            stopSending();
+        }
+    }
+
+    private void startSending() throws IOException {
+        final List<TsStreamGenerator> generators = new ArrayList<>();
+        for (int i = 0; i < mChannelCount; i++) {
+            int port = LoopbackSender.findFreePort();
+            // Without a time-shift buffer, which the player's session would get on a device.
+            mUris.add(Uri.parse(LoopbackSender.getUri(RtpStreamer.SCHEME_RTP, port,
+                    RtpStreamer.PARAM_BUFFER_SIZE + "=" + BUFFER_SIZE + "&"
+                    + RtpStreamer.PARAM_TIME_SHIFT_MINUTES + "=0")));
+            mSenders.add(new LoopbackSender(port));
+            generators.add(new TsStreamGenerator(1));
+        }
+        mSending = true;
+        mSendThread = new Thread("Sender") {
+            @Override
+            public void run() {
+                long startMs = SystemClock.elapsedRealtime();
+                try {
+                    while (mSending) {
+                        // As many frames as have played out by now, on every channel.
+                        long frames = (SystemClock.elapsedRealtime() - startMs)
+                                * TsStreamGenerator.FRAMES_PER_SECOND / 1000;
+                        for (int i = 0; i < mChannelCount; i++) {
+                            TsStreamGenerator generator = generators.get(i);
+                            while (generator.getFrameCount() <= frames) {
+                                send(mSenders.get(i), generator.nextDatagram(true));
+                            }
+                        }
+                        Thread.sleep(SEND_INTERVAL_MS);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        mSendThread.start();
+    }
+
+    /**
+     * Sends a datagram whether or not a streamer is joined, as a headend does.
+     */
+    private static void send(LoopbackSender sender, byte[] datagram) throws IOException {
+        try {
+            sender.send(datagram);
+        } catch (PortUnreachableException e) {
+            // Nothing is bound to the port of a channel which is not tuned or warm.
+        }
+    }
+
+    private void stopSending() throws Exception {
+        mSending = false;
+        mSendThread.join();
+        for (LoopbackSender sender : mSenders) {
+            sender.close();
+        }
+    }
+
+    /**
+     * Zaps up through the channels, and returns how long each zap took.
+     */
+    private long[] zap(boolean warm) throws Exception {
+        TsStreamerManager manager = TsStreamerManager.getInstance();
+        int sessionId = manager.createSessionId();
+        ExecutorService warmExecutor = Executors.newSingleThreadExecutor();
+        byte[] buffer = new byte[TsStreamGenerator.PACKET_SIZE];
+        long[] zapMs = new long[mZapCount];
+        TsDataSource source = null;
+        for (int i = 0; i < mZapCount; i++) {
+            final int channel = i % mChannelCount;
+            Uri uri = mUris.get(channel);
+            long tuneMs = SystemClock.elapsedRealtime();
+            TsDataSource newSource = manager.createDataSource(uri, sessionId, C.POSITION_UNSET);
+            newSource.open(new DataSpec(uri));
+            if (source != null) {
+                manager.releaseDataSource(source, sessionId);
+                source.close();
+            }
+            source = newSource;
+            if (warm) {
+                warmExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        TsStreamerManager.getInstance().prepareStreamers(Arrays.asList(
+                                mUris.get(channel), mUris.get((channel + 1) % mChannelCount),
+                                mUris.get((channel + mChannelCount - 1) % mChannelCount)));
+                    }
+                });
+            }
+            if (source.read(buffer, 0, buffer.length) <= 0) {
+                throw new IOException("Stream ended");
+            }
+            long firstReadMs = SystemClock.elapsedRealtime();
+            long keyFrameMs;
+            while ((keyFrameMs = source.getMilestoneTimeMs(TsDataSource.MILESTONE_FIRST_KEY_FRAME))
+                    == C.TIME_UNSET) {
+                Thread.sleep(1);
+            }
+            zapMs[i] = Math.max(firstReadMs, keyFrameMs) - tuneMs;
+            System.out.println((warm ? "warm" : "cold") + " zap to channel " + channel + ": "
+                    + zapMs[i] + " ms, joined +"
+                    + (source.getMilestoneTimeMs(TsDataSource.MILESTONE_JOINED) - tuneMs)
+                    + " ms, first packet +"
+                    + (source.getMilestoneTimeMs(TsDataSource.MILESTONE_FIRST_PACKET) - tuneMs)
+                    + " ms");
+            Thread.sleep(mDwellMs);
+        }
+        manager.releaseDataSource(source, sessionId);
+        source.close();
+        warmExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                TsStreamerManager.getInstance().prepareStreamers(Collections.<Uri>emptyList());
+            }
+        });
+        warmExecutor.shutdown();
+        warmExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        return zapMs;
+    }
+
+    private static String summarize(long[] zapMs) {
+        long[] sorted = zapMs.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long ms : sorted) {
+            total += ms;
+        }
+        return "mean " + total / sorted.length + " ms, median " + sorted[sorted.length / 2]
+                + " ms, p90 " + sorted[Math.min(sorted.length - 1, sorted.length * 9 / 10)]
+                + " ms, max " + sorted[sorted.length - 1] + " ms";
+    }
+}